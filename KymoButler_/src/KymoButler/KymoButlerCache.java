@@ -0,0 +1,318 @@
+/**
+*
+*  KymoButlerCache.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+
+import ij.IJ;
+import ij.Prefs;
+
+/**
+ * This class is a persistent, content-addressed cache of the analysis responses: responses are stored on disk, compressed,
+ * under a key computed from the kymograph's bytes, the analysis parameters and the API URL. Once the size cap is reached,
+ * the least recently used responses are evicted.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerCache {
+	/** Default size cap of the cache, in MB **/
+	public static final int DEFAULT_MAX_SIZE=500;
+	
+	/** Extension of the cached responses **/
+	private static final String EXTENSION=".json.gz";
+	
+	/** Number of requests answered from the cache since startup **/
+	private static final AtomicLong hits=new AtomicLong();
+	
+	/** Number of requests not found in the cache since startup **/
+	private static final AtomicLong misses=new AtomicLong();
+	
+	/** Number of responses evicted from the cache since startup **/
+	private static final AtomicLong evictions=new AtomicLong();
+	
+	
+	
+	/**
+	 * Utility class: not meant to be instantiated
+	 */
+	private KymoButlerCache() {}
+	
+	/**
+	 * Checks if the cache is enabled
+	 * @return true if the cache is enabled, false otherwise
+	 */
+	public static boolean isEnabled() {
+		return Prefs.get("KymoButler_useCache.boolean", false);
+	}
+	
+	/**
+	 * Enables/disables the cache
+	 * @param enabled true to enable the cache, false otherwise
+	 */
+	public static void setEnabled(boolean enabled) {
+		Prefs.set("KymoButler_useCache.boolean", enabled);
+	}
+	
+	/**
+	 * Returns the folder in which the responses are cached
+	 * @return the folder in which the responses are cached
+	 */
+	public static File getDirectory() {
+		String dir=Prefs.get("KymoButler_cacheDir.string", "");
+		return dir.isEmpty()?new File(Prefs.getPrefsDir(), "KymoButler_cache"):new File(dir);
+	}
+	
+	/**
+	 * Returns the size cap of the cache
+	 * @return the size cap of the cache, in MB
+	 */
+	public static int getMaxSize() {
+		return (int) Prefs.get("KymoButler_cacheMaxSize.double", DEFAULT_MAX_SIZE);
+	}
+	
+	/**
+	 * Sets the size cap of the cache, evicting responses right away if needed
+	 * @param maxSize the size cap of the cache, in MB
+	 */
+	public static void setMaxSize(int maxSize) {
+		Prefs.set("KymoButler_cacheMaxSize.double", Math.max(0, maxSize));
+		evict();
+	}
+	
+	/**
+	 * Computes the key under which a response is stored, as the SHA-256 hash of the kymograph's bytes, the analysis parameters and the API URL
+	 * @param img the kymograph, as sent to the server
+	 * @param fields the analysis parameters and API URL, as Strings
+	 * @return the key, as an hexadecimal String
+	 */
+	public static String getKey(byte[] img, String... fields) {
+		try {
+			MessageDigest digest=MessageDigest.getInstance("SHA-256");
+			if(img!=null) digest.update(img);
+			for(String field:fields) {
+				digest.update((byte) 0);
+				if(field!=null) digest.update(field.getBytes(StandardCharsets.UTF_8));
+			}
+			
+			StringBuilder sb=new StringBuilder();
+			for(byte b:digest.digest()) sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			//SHA-256 is available on all Java platforms
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Checks if a response is in the cache, without counting it as a hit or miss
+	 * @param key the key of the response
+	 * @return true if the response is in the cache
+	 */
+	public static boolean contains(String key) {
+		return new File(getDirectory(), key+EXTENSION).isFile();
+	}
+	
+	/**
+	 * Looks for a response in the cache, counting hits and misses, and marks it as recently used
+	 * @param key the key of the response
+	 * @return the cached file, or null if the response is not in the cache
+	 */
+	static File lookup(String key) {
+		File file=new File(getDirectory(), key+EXTENSION);
+		
+		if(file.isFile()) {
+			file.setLastModified(System.currentTimeMillis());
+			hits.incrementAndGet();
+			return file;
+		}
+		
+		misses.incrementAndGet();
+		return null;
+	}
+	
+	/**
+	 * Returns a cached response as a String
+	 * @param key the key of the response
+	 * @return the cached response, or null if the response is not in the cache
+	 */
+	public static String get(String key) {
+		File file=lookup(key);
+		if(file==null) return null;
+		
+		try {
+			InputStream in=open(file);
+			try {
+				return IOUtils.toString(in, StandardCharsets.UTF_8);
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			IJ.log("Something went wrong while reading the cached response "+file.getName()+": it will be discarded");
+			file.delete();
+			return null;
+		}
+	}
+	
+	/**
+	 * Opens a cached response as a stream
+	 * @param file the cached file, as returned by lookup
+	 * @return the uncompressed content of the cached response
+	 * @throws IOException in case the file can't be read
+	 */
+	static InputStream open(File file) throws IOException {
+		return new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)), 65536);
+	}
+	
+	/**
+	 * Stores a response in the cache, then evicts the least recently used responses if the size cap is exceeded
+	 * @param key the key of the response
+	 * @param response the response to store
+	 */
+	public static void put(String key, String response) {
+		KymoButlerStagedOutputStream out=null;
+		try {
+			out=openWriter(key);
+			out.write(response.getBytes(StandardCharsets.UTF_8));
+			commit(out);
+		} catch (IOException e) {
+			IJ.log("Something went wrong while caching the response: "+e.getMessage());
+			if(out!=null) out.discard();
+		}
+	}
+	
+	/**
+	 * Opens a stream to write a response to the cache: the response is only made available once committed, writers of
+	 * the same key not interfering with each other
+	 * @param key the key of the response
+	 * @return a stream to write the uncompressed response to
+	 * @throws IOException in case the cache folder can't be written
+	 */
+	static KymoButlerStagedOutputStream openWriter(String key) throws IOException {
+		return new KymoButlerStagedOutputStream(new File(getDirectory(), key+EXTENSION));
+	}
+	
+	/**
+	 * Makes a response written through openWriter available, then evicts the least recently used responses if needed
+	 * @param out the stream the response was written to
+	 */
+	static void commit(KymoButlerStagedOutputStream out) {
+		out.commit();
+		evict();
+	}
+	
+	/**
+	 * Evicts the least recently used responses until the cache size is below its cap
+	 */
+	public static synchronized void evict() {
+		File[] files=getDirectory().listFiles();
+		if(files==null) return;
+		
+		long maxSize=getMaxSize()*1024L*1024L;
+		long size=0;
+		for(File file:files) size+=file.length();
+		if(size<=maxSize) return;
+		
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File f1, File f2) {
+				return Long.compare(f1.lastModified(), f2.lastModified());
+			}
+		});
+		
+		for(File file:files) {
+			if(size<=maxSize) break;
+			if(!file.getName().endsWith(EXTENSION)) continue;
+			
+			long length=file.length();
+			if(file.delete()) {
+				size-=length;
+				evictions.incrementAndGet();
+			}
+		}
+	}
+	
+	/**
+	 * Removes all responses from the cache
+	 */
+	public static synchronized void clear() {
+		File[] files=getDirectory().listFiles();
+		if(files!=null) for(File file:files) if(file.getName().endsWith(EXTENSION)) file.delete();
+	}
+	
+	/**
+	 * Returns the current size of the cache
+	 * @return the current size of the cache, in bytes
+	 */
+	public static long getSize() {
+		File[] files=getDirectory().listFiles();
+		long size=0;
+		if(files!=null) for(File file:files) size+=file.length();
+		return size;
+	}
+	
+	/**
+	 * Returns the number of requests answered from the cache since startup
+	 * @return the number of cache hits
+	 */
+	public static long getHits() {
+		return hits.get();
+	}
+	
+	/**
+	 * Returns the number of requests not found in the cache since startup
+	 * @return the number of cache misses
+	 */
+	public static long getMisses() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the number of responses evicted from the cache since startup
+	 * @return the number of evicted responses
+	 */
+	public static long getEvictions() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Returns the cache usage statistics, as a String
+	 * @return the cache usage statistics, as a String
+	 */
+	public static String getStatistics() {
+		return "Cache: "+getHits()+" hit(s), "+getMisses()+" miss(es), "+getEvictions()+" eviction(s), "
+				+(getSize()/(1024*1024))+"/"+getMaxSize()+" MB used";
+	}
+}
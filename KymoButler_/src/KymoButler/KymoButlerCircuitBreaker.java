@@ -0,0 +1,255 @@
+/**
+*
+*  KymoButlerCircuitBreaker.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ij.Prefs;
+
+/**
+ * This class is aimed at keeping track of an endpoint's health: once too many consecutive requests have failed, the
+ * circuit is opened and requests fail right away rather than waiting for the server timeout. After a cooldown period,
+ * a single trial request is let through: the circuit is closed again if it succeeds, re-opened otherwise.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerCircuitBreaker {
+	/** Default number of consecutive failures opening the circuit **/
+	public static final int DEFAULT_FAILURE_THRESHOLD=5;
+	
+	/** Default time during which the circuit stays open, in seconds **/
+	public static final int DEFAULT_COOLDOWN=30;
+	
+	/** Circuit breakers, one per endpoint **/
+	private static final ConcurrentHashMap<String, KymoButlerCircuitBreaker> breakers=new ConcurrentHashMap<String, KymoButlerCircuitBreaker>();
+	
+	/** The endpoint's URL **/
+	String URL;
+	
+	/** Current state of the circuit **/
+	State state=State.CLOSED;
+	
+	/** Number of consecutive failures **/
+	int consecutiveFailures=0;
+	
+	/** Time at which the circuit was last opened, in milliseconds **/
+	long openedAt=0;
+	
+	/** True while the trial request of the half open state is awaited **/
+	boolean trialInFlight=false;
+	
+	/** Number of times the circuit has been opened **/
+	final AtomicLong nOpened=new AtomicLong();
+	
+	/** Number of requests failed right away as the circuit was open **/
+	final AtomicLong nRejected=new AtomicLong();
+	
+	
+	
+	/**
+	 * Builds a new circuit breaker, in the closed state
+	 * @param URL the endpoint's URL
+	 */
+	private KymoButlerCircuitBreaker(String URL) {
+		this.URL=URL;
+	}
+	
+	/**
+	 * Returns the circuit breaker of the input endpoint, creating it on first call
+	 * @param URL the endpoint's URL
+	 * @return the endpoint's circuit breaker
+	 */
+	public static KymoButlerCircuitBreaker forEndpoint(String URL) {
+		return breakers.computeIfAbsent(URL, KymoButlerCircuitBreaker::new);
+	}
+	
+	/**
+	 * Returns the number of consecutive failures opening the circuit
+	 * @return the number of consecutive failures opening the circuit (0 if the circuit breaker is disabled)
+	 */
+	public static int getFailureThreshold() {
+		return (int) Prefs.get("KymoButler_breakerThreshold.double", DEFAULT_FAILURE_THRESHOLD);
+	}
+	
+	/**
+	 * Returns the time during which the circuit stays open
+	 * @return the cooldown time, in seconds
+	 */
+	public static int getCooldown() {
+		return (int) Prefs.get("KymoButler_breakerCooldown.double", DEFAULT_COOLDOWN);
+	}
+	
+	/**
+	 * Checks if a request may be sent to the endpoint. In the half open state, only one trial request is allowed at a time
+	 * @return true if the request may be sent, false if it should fail right away
+	 */
+	public synchronized boolean allowRequest() {
+		if(state==State.OPEN && System.currentTimeMillis()-openedAt>=getCooldown()*1000L) {
+			state=State.HALF_OPEN;
+			trialInFlight=false;
+		}
+		
+		if(state==State.CLOSED) return true;
+		if(state==State.HALF_OPEN && !trialInFlight) {
+			trialInFlight=true;
+			return true;
+		}
+		
+		nRejected.incrementAndGet();
+		return false;
+	}
+	
+	/**
+	 * Records a request that got a valid response: the circuit is closed
+	 */
+	public synchronized void recordSuccess() {
+		consecutiveFailures=0;
+		trialInFlight=false;
+		state=State.CLOSED;
+	}
+	
+	/**
+	 * Records a request that failed: the circuit is opened once enough consecutive failures have occurred, or if the
+	 * trial request failed
+	 */
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+		trialInFlight=false;
+		
+		int threshold=getFailureThreshold();
+		if(state==State.HALF_OPEN || (state==State.CLOSED && threshold>0 && consecutiveFailures>=threshold)) {
+			state=State.OPEN;
+			openedAt=System.currentTimeMillis();
+			nOpened.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Records a request that was aborted on the client side (cancellation, deadline): the circuit's state is left unchanged,
+	 * but a new trial request is allowed if it was the trial one
+	 */
+	public synchronized void recordAborted() {
+		trialInFlight=false;
+	}
+	
+	/**
+	 * Checks if requests to the endpoint currently fail right away, i.e. if the circuit is open and the cooldown period
+	 * is not over yet
+	 * @return true if requests currently fail right away
+	 */
+	public synchronized boolean isOpen() {
+		return state==State.OPEN && System.currentTimeMillis()-openedAt<getCooldown()*1000L;
+	}
+	
+	/**
+	 * Returns the current state of the circuit
+	 * @return the current state of the circuit
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+	
+	/**
+	 * Returns the message explaining a request was failed right away
+	 * @return the message explaining a request was failed right away
+	 */
+	public synchronized String getRejectionMessage() {
+		if(state==State.HALF_OPEN) return "The server seems unavailable after "+consecutiveFailures+" consecutive failures: requests are suspended until the trial request in progress succeeds";
+		
+		long remaining=Math.max(0, getCooldown()*1000L-(System.currentTimeMillis()-openedAt));
+		return "The server seems unavailable after "+consecutiveFailures+" consecutive failures: requests are suspended for "+((remaining+999)/1000)+" more sec";
+	}
+	
+	/**
+	 * Returns the number of times the circuit has been opened
+	 * @return the number of times the circuit has been opened
+	 */
+	public long getNOpened() {
+		return nOpened.get();
+	}
+	
+	/**
+	 * Returns the number of requests failed right away as the circuit was open
+	 * @return the number of rejected requests
+	 */
+	public long getNRejected() {
+		return nRejected.get();
+	}
+	
+	/**
+	 * Returns the circuit breaker's state and counters, as a String
+	 * @return the circuit breaker's state and counters, as a String
+	 */
+	public String getStatistics() {
+		return "Circuit breaker: "+getState()+", opened "+getNOpened()+" time(s), "+getNRejected()+" request(s) failed fast";
+	}
+	
+	/**
+	 * States of the circuit
+	 */
+	public enum State {
+		/** Circuit closed: requests go through **/
+		CLOSED("Closed"),
+		
+		/** Circuit open: requests fail right away **/
+		OPEN("Open"),
+		
+		/** Circuit half open: a trial request is let through **/
+		HALF_OPEN("Half open");
+		
+		/** The state's label, as displayed in the statistics **/
+		private final String label;
+		
+		/**
+		 * Builds a new state
+		 * @param label the state's label
+		 */
+		State(String label) {
+			this.label=label;
+		}
+		
+		@Override
+		public String toString() {
+			return label;
+		}
+	}
+	
+	/**
+	 * Exception used to fail a request right away, the circuit being open: the request never left the client
+	 */
+	public static class RejectedException extends IOException {
+		/** Serial version UID **/
+		private static final long serialVersionUID=1L;
+		
+		/**
+		 * Builds a new exception
+		 * @param message the message explaining the request was failed right away
+		 */
+		public RejectedException(String message) {
+			super(message);
+		}
+	}
+}
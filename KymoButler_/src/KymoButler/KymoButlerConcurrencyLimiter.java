@@ -0,0 +1,271 @@
+/**
+*
+*  KymoButlerConcurrencyLimiter.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import ij.Prefs;
+
+/**
+ * This class is aimed at adapting the number of analysis requests sent simultaneously to an endpoint (AIMD): the limit grows
+ * by one request per round trip as long as the load stays close to the unloaded load, shrinks by one request per round trip
+ * once the load exceeds it by far, and is halved on timeouts, rate limiting (429) or server errors (5xx). Requests above the
+ * limit are queued until a slot is freed. The load is the time to first byte (download and decoding excluded), per
+ * REFERENCE_SIZE uploaded, so that larger kymographs are not mistaken for a loaded server; the unloaded load is the lowest
+ * of the last WINDOW_SIZE responses.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerConcurrencyLimiter {
+	/** Default initial limit **/
+	public static final int DEFAULT_INITIAL_LIMIT=2;
+	
+	/** Load above which the endpoint is considered as loaded, as a multiple of the lowest recent load **/
+	public static final double LATENCY_TOLERANCE=2.0;
+	
+	/** Upload size, in bytes, below which the time to first byte is taken as is, the server's fixed costs prevailing **/
+	public static final long REFERENCE_SIZE=256*1024;
+	
+	/** Number of latencies and loads kept to compute percentiles and the baseline **/
+	private static final int WINDOW_SIZE=100;
+	
+	/** Concurrency limiters, one per endpoint **/
+	private static final ConcurrentHashMap<String, KymoButlerConcurrencyLimiter> limiters=new ConcurrentHashMap<String, KymoButlerConcurrencyLimiter>();
+	
+	/** The endpoint's URL **/
+	String URL;
+	
+	/** Current limit, fractional to allow additive increase of 1/limit per response **/
+	double limit;
+	
+	/** Number of requests currently sent **/
+	int inFlight=0;
+	
+	/** Requests waiting for a slot, with the executor to run them on **/
+	final ArrayDeque<QueuedRequest> queue=new ArrayDeque<QueuedRequest>();
+	
+	/** Last latencies, as a circular buffer, in milliseconds **/
+	final long[] latencies=new long[WINDOW_SIZE];
+	
+	/** Last loads, as a circular buffer, in milliseconds per REFERENCE_SIZE **/
+	final double[] loads=new double[WINDOW_SIZE];
+	
+	/** Number of latencies recorded so far **/
+	long nLatencies=0;
+	
+	/** Number of loads recorded so far **/
+	long nLoads=0;
+	
+	/** Number of times the limit was decreased **/
+	long nBackoffs=0;
+	
+	
+	
+	/**
+	 * Builds a new limiter, starting at the initial limit
+	 * @param URL the endpoint's URL
+	 */
+	private KymoButlerConcurrencyLimiter(String URL) {
+		this.URL=URL;
+		limit=Math.min(getInitialLimit(), getMaxLimit());
+	}
+	
+	/**
+	 * Returns the concurrency limiter of the input endpoint, creating it on first call
+	 * @param URL the endpoint's URL
+	 * @return the endpoint's concurrency limiter
+	 */
+	public static KymoButlerConcurrencyLimiter forEndpoint(String URL) {
+		return limiters.computeIfAbsent(URL, KymoButlerConcurrencyLimiter::new);
+	}
+	
+	/**
+	 * Checks if the limit is adapted to the latency, or fixed to the maximum number of connections to the server
+	 * @return true if the limit is adaptive
+	 */
+	public static boolean isAdaptive() {
+		return Prefs.get("KymoButler_adaptiveConcurrency.boolean", true);
+	}
+	
+	/**
+	 * Returns the limit used when the first request is sent
+	 * @return the initial limit
+	 */
+	public static int getInitialLimit() {
+		return Math.max(1, (int) Prefs.get("KymoButler_initialConcurrency.double", DEFAULT_INITIAL_LIMIT));
+	}
+	
+	/**
+	 * Returns the maximum limit, being the number of connections to the server the pool accepts (possibly raised by a batch
+	 * process, see KymoButlerHttpClient.ensureCapacity)
+	 * @return the maximum limit
+	 */
+	public static int getMaxLimit() {
+		return Math.max(1, KymoButlerHttpClient.getCapacity());
+	}
+	
+	/**
+	 * Runs the input request as soon as the number of requests sent is below the limit. The request must call release
+	 * once done, whatever its outcome
+	 * @param request the request to run
+	 * @param executor the executor on which to run the request
+	 */
+	public void execute(Runnable request, Executor executor) {
+		synchronized(this) {
+			if(inFlight>=getLimit()) {
+				queue.add(new QueuedRequest(request, executor));
+				return;
+			}
+			inFlight++;
+		}
+		executor.execute(request);
+	}
+	
+	/**
+	 * Frees the slot of a request, adapting the limit to its outcome, then runs the queued requests that fit the new limit
+	 * @param latency the request's latency, in milliseconds, or -1 if it didn't get a response
+	 * @param firstByte the time between sending the request and receiving the response's first byte, in milliseconds, or -1
+	 * if it didn't get a response
+	 * @param uploaded the size of the request's body, in bytes
+	 * @param overloaded true if the request timed out or was rejected by the server (429, 5xx)
+	 */
+	public void release(long latency, double firstByte, long uploaded, boolean overloaded) {
+		ArrayDeque<QueuedRequest> toRun=new ArrayDeque<QueuedRequest>();
+		
+		synchronized(this) {
+			inFlight--;
+			if(latency>=0) latencies[(int) (nLatencies++%WINDOW_SIZE)]=latency;
+			
+			if(isAdaptive()) {
+				if(overloaded) {
+					limit=Math.max(1, limit/2);
+					nBackoffs++;
+				}else if(firstByte>=0) {
+					double load=firstByte*REFERENCE_SIZE/Math.max(uploaded, REFERENCE_SIZE);
+					double baseline=getBaseline();
+					
+					if(baseline>=0 && load>LATENCY_TOLERANCE*baseline) {
+						limit=Math.max(1, limit-1/limit);
+					}else if(inFlight+1>=(int) limit) {
+						//Only grow if the limit is actually reached
+						limit=Math.min(getMaxLimit(), limit+1/limit);
+					}
+					loads[(int) (nLoads++%WINDOW_SIZE)]=load;
+				}
+			}
+			
+			while(!queue.isEmpty() && inFlight<getLimit()) {
+				toRun.add(queue.poll());
+				inFlight++;
+			}
+		}
+		
+		for(QueuedRequest queued:toRun) queued.executor.execute(queued.request);
+	}
+	
+	/**
+	 * Returns the unloaded load: the lowest of the last WINDOW_SIZE loads, so that the baseline follows a server that
+	 * became slower (or faster) for good
+	 * @return the unloaded load, in milliseconds per REFERENCE_SIZE, or -1 if none has been recorded yet
+	 */
+	private double getBaseline() {
+		int n=(int) Math.min(nLoads, WINDOW_SIZE);
+		if(n==0) return -1;
+		
+		double out=loads[0];
+		for(int i=1; i<n; i++) out=Math.min(out, loads[i]);
+		return out;
+	}
+	
+	/**
+	 * Returns the current limit
+	 * @return the current maximum number of requests sent simultaneously
+	 */
+	public synchronized int getLimit() {
+		return isAdaptive()?Math.max(1, (int) limit):getMaxLimit();
+	}
+	
+	/**
+	 * Returns the number of requests currently sent
+	 * @return the number of requests currently sent
+	 */
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+	
+	/**
+	 * Returns the number of requests waiting for a slot
+	 * @return the number of queued requests
+	 */
+	public synchronized int getQueued() {
+		return queue.size();
+	}
+	
+	/**
+	 * Returns a percentile of the recent latencies
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the latency, in milliseconds, or -1 if none has been recorded yet
+	 */
+	public synchronized long getLatencyPercentile(double percentile) {
+		int n=(int) Math.min(nLatencies, WINDOW_SIZE);
+		if(n==0) return -1;
+		
+		long[] sorted=Arrays.copyOf(latencies, n);
+		Arrays.sort(sorted);
+		return sorted[(int) Math.min(n-1, Math.max(0, Math.ceil(percentile/100.0*n)-1))];
+	}
+	
+	/**
+	 * Returns the limiter's state and latency percentiles, as a String
+	 * @return the limiter's state and latency percentiles, as a String
+	 */
+	public synchronized String getStatistics() {
+		return "Concurrency: limit "+getLimit()+(isAdaptive()?" (adaptive, "+nBackoffs+" backoff(s))":" (fixed)")+", "+inFlight+" in flight, "+queue.size()+" queued"
+				+(nLatencies==0?"":", latency p50/p90/p99: "+getLatencyPercentile(50)+"/"+getLatencyPercentile(90)+"/"+getLatencyPercentile(99)+" ms");
+	}
+	
+	/**
+	 * A request waiting for a slot, with the executor to run it on
+	 */
+	private static final class QueuedRequest {
+		/** The request to run **/
+		final Runnable request;
+		
+		/** The executor on which to run the request **/
+		final Executor executor;
+		
+		/**
+		 * Builds a new queued request
+		 * @param request the request to run
+		 * @param executor the executor on which to run the request
+		 */
+		QueuedRequest(Runnable request, Executor executor) {
+			this.request=request;
+			this.executor=executor;
+		}
+	}
+}
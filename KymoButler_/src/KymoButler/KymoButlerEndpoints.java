@@ -0,0 +1,207 @@
+/**
+*
+*  KymoButlerEndpoints.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import ij.Prefs;
+
+/**
+ * This class is aimed at spreading the analysis requests over several KymoButler deployments: the API URL and the
+ * additional URLs set in the options. Each request goes to the endpoint having the least outstanding requests (in flight
+ * or queued by its KymoButlerConcurrencyLimiter). Endpoints whose circuit breaker is open are ejected from the rotation,
+ * until the cooldown is over. Endpoints are checked periodically using the statistics query, sent whatever the state of
+ * their circuit breaker, so that failing ones are ejected, and recovered ones put back, without waiting for an analysis
+ * request or for the cooldown. The checks follow the endpoints set in the options, and stop once a single one is left.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerEndpoints {
+	/** Default interval between two health checks, in seconds **/
+	public static final int DEFAULT_HEALTH_CHECK_INTERVAL=60;
+	
+	/** API URL whose endpoints are checked periodically **/
+	private static String monitoredURL=null;
+	
+	/** The scheduler running the health checks, built on first use **/
+	private static ScheduledExecutorService healthChecker=null;
+	
+	
+	
+	/**
+	 * Utility class: not meant to be instantiated
+	 */
+	private KymoButlerEndpoints() {}
+	
+	/**
+	 * Returns the additional API URLs, as stored in the preferences
+	 * @return the additional API URLs, separated by commas, semicolons or spaces
+	 */
+	public static String getAdditionalURLs() {
+		return Prefs.get("KymoButler_additionalURLs.string", "");
+	}
+	
+	/**
+	 * Returns the interval between two health checks
+	 * @return the interval between two health checks, in seconds
+	 */
+	public static int getHealthCheckInterval() {
+		return Math.max(1, (int) Prefs.get("KymoButler_healthCheck.double", DEFAULT_HEALTH_CHECK_INTERVAL));
+	}
+	
+	/**
+	 * Returns all endpoints: the input API URL followed by the additional URLs, duplicates removed
+	 * @param URL the KymoButler API URL
+	 * @return the list of endpoints
+	 */
+	public static List<String> getEndpoints(String URL) {
+		Set<String> endpoints=new LinkedHashSet<String>();
+		endpoints.add(URL);
+		for(String endpoint:getAdditionalURLs().split("[,;\\s]+")) if(!endpoint.isEmpty()) endpoints.add(endpoint);
+		return new ArrayList<String>(endpoints);
+	}
+	
+	/**
+	 * Selects the endpoint to which the next analysis request should be sent: the one having the least outstanding requests,
+	 * ejected endpoints excluded. Starts the health checks on first call if several endpoints are set
+	 * @param URL the KymoButler API URL
+	 * @return the selected endpoint, or the API URL if it is the only endpoint or if all endpoints are ejected
+	 */
+	public static String select(String URL) {
+		List<String> endpoints=getEndpoints(URL);
+		if(endpoints.size()==1) return URL;
+		
+		startHealthChecks(URL);
+		
+		String selected=URL;
+		int minLoad=Integer.MAX_VALUE;
+		for(String endpoint:endpoints) {
+			if(KymoButlerCircuitBreaker.forEndpoint(endpoint).isOpen()) continue;
+			
+			KymoButlerConcurrencyLimiter limiter=KymoButlerConcurrencyLimiter.forEndpoint(endpoint);
+			int load=limiter.getInFlight()+limiter.getQueued();
+			if(load<minLoad) {
+				selected=endpoint;
+				minLoad=load;
+			}
+		}
+		return selected;
+	}
+	
+	/**
+	 * Sends a health check to each of the endpoints, without waiting for the responses: their circuit breakers are
+	 * updated as the responses are received
+	 * @param URL the KymoButler API URL
+	 */
+	public static void checkHealth(String URL) {
+		for(String endpoint:getEndpoints(URL)) checkEndpoint(endpoint);
+	}
+	
+	/**
+	 * Sends a health check to the input endpoint, without waiting for the response
+	 * @param endpoint the endpoint's URL
+	 */
+	private static void checkEndpoint(String endpoint) {
+		KymoButlerIO io=new KymoButlerIO();
+		io.setURL(endpoint);
+		io.submitHealthCheck();
+	}
+	
+	/**
+	 * Checks the endpoints of the input API URL periodically, starting the health checks on first call
+	 * @param URL the KymoButler API URL
+	 */
+	private static synchronized void startHealthChecks(String URL) {
+		monitoredURL=URL;
+		
+		if(healthChecker==null) {
+			healthChecker=Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t=new Thread(r, "KymoButler-health-checks");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			
+			long interval=getHealthCheckInterval();
+			healthChecker.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					checkMonitored();
+				}
+			}, interval, interval, TimeUnit.SECONDS);
+		}
+	}
+	
+	/**
+	 * Runs the periodic health checks on the endpoints, as currently set in the options, stopping them once a single one
+	 * is left
+	 */
+	private static void checkMonitored() {
+		String URL;
+		synchronized(KymoButlerEndpoints.class) {
+			URL=monitoredURL;
+		}
+		if(URL==null) return;
+		
+		List<String> endpoints=getEndpoints(URL);
+		if(endpoints.size()==1) {
+			stopHealthChecks();
+		}else {
+			for(String endpoint:endpoints) checkEndpoint(endpoint);
+		}
+	}
+	
+	/**
+	 * Stops the periodic health checks: they are started again, with the current interval, on next call to select
+	 */
+	public static synchronized void stopHealthChecks() {
+		if(healthChecker!=null) {
+			healthChecker.shutdown();
+			healthChecker=null;
+		}
+		monitoredURL=null;
+	}
+	
+	/**
+	 * Returns the state of each endpoint, as a String
+	 * @param URL the KymoButler API URL
+	 * @return the state of each endpoint, one per line
+	 */
+	public static String getStatistics(String URL) {
+		String out="";
+		for(String endpoint:getEndpoints(URL)) {
+			KymoButlerCircuitBreaker breaker=KymoButlerCircuitBreaker.forEndpoint(endpoint);
+			out+=(out.isEmpty()?"":"\n")+"Endpoint "+endpoint+(breaker.isOpen()?" (ejected)":"")+": "
+					+breaker.getStatistics()+", "+KymoButlerConcurrencyLimiter.forEndpoint(endpoint).getStatistics();
+		}
+		return out;
+	}
+}
@@ -0,0 +1,170 @@
+/**
+*
+*  KymoButlerHttpClient.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+
+import ij.IJ;
+import ij.Prefs;
+
+/**
+ * This class holds the HTTP client shared by all KymoButlerIO objects. Connections to the KymoButler server are pooled
+ * and kept alive, so that successive requests do not have to open a new connection/perform a new TLS handshake
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerHttpClient {
+	/** Default maximum number of connections per route (ie per server) **/
+	public static final int DEFAULT_MAX_PER_ROUTE=4;
+	
+	/** Default maximum number of connections, all routes included **/
+	public static final int DEFAULT_MAX_TOTAL=20;
+	
+	/** Default keep-alive duration, in seconds, used when the server does not specify one **/
+	public static final int DEFAULT_KEEP_ALIVE=30;
+	
+	/** The shared client, built on first use **/
+	private static CloseableHttpClient client=null;
+	
+	/** The connection manager backing the shared client **/
+	private static PoolingHttpClientConnectionManager connectionManager=null;
+	
+	/** True once the shutdown hook has been registered **/
+	private static boolean hookRegistered=false;
+	
+	
+	
+	/**
+	 * Utility class: not meant to be instantiated
+	 */
+	private KymoButlerHttpClient() {}
+	
+	/**
+	 * Returns the shared HTTP client, building it on first call using the current preferences
+	 * @return the shared HTTP client
+	 */
+	public static synchronized CloseableHttpClient getClient() {
+		if(client==null) {
+			int maxPerRoute=(int) Prefs.get("KymoButler_maxPerRoute.double", DEFAULT_MAX_PER_ROUTE);
+			int maxTotal=(int) Prefs.get("KymoButler_maxTotal.double", DEFAULT_MAX_TOTAL);
+			final long keepAlive=(long) Prefs.get("KymoButler_keepAlive.double", DEFAULT_KEEP_ALIVE)*1000;
+			
+			connectionManager=new PoolingHttpClientConnectionManager();
+			connectionManager.setMaxTotal(Math.max(maxTotal, maxPerRoute));
+			connectionManager.setDefaultMaxPerRoute(Math.max(1, maxPerRoute));
+			connectionManager.setValidateAfterInactivity(2000);
+			
+			ConnectionKeepAliveStrategy keepAliveStrategy=new DefaultConnectionKeepAliveStrategy() {
+				@Override
+				public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+					long duration=super.getKeepAliveDuration(response, context);
+					return duration>0?duration:keepAlive;
+				}
+			};
+			
+			client=HttpClientBuilder.create()
+					.setConnectionManager(connectionManager)
+					.setKeepAliveStrategy(keepAliveStrategy)
+					.evictExpiredConnections()
+					.evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS)
+					.build();
+			
+			if(!hookRegistered) {
+				Runtime.getRuntime().addShutdownHook(new Thread() {
+					public void run() {
+						shutdown();
+					}
+				});
+				hookRegistered=true;
+			}
+		}
+		return client;
+	}
+	
+	/**
+	 * Sets the maximum number of simultaneous connections to a single server. Applies immediately to the
+	 * shared client if it has already been built
+	 * @param maxPerRoute the maximum number of connections per route
+	 */
+	public static synchronized void setMaxPerRoute(int maxPerRoute) {
+		maxPerRoute=Math.max(1, maxPerRoute);
+		Prefs.set("KymoButler_maxPerRoute.double", maxPerRoute);
+		if(connectionManager!=null) {
+			if(connectionManager.getMaxTotal()<maxPerRoute) connectionManager.setMaxTotal(maxPerRoute);
+			connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+		}
+	}
+	
+	/**
+	 * Returns the maximum number of simultaneous connections to a single server
+	 * @return the maximum number of connections per route
+	 */
+	public static int getMaxPerRoute() {
+		return (int) Prefs.get("KymoButler_maxPerRoute.double", DEFAULT_MAX_PER_ROUTE);
+	}
+	
+	/**
+	 * Returns the number of simultaneous connections to a single server the shared client actually accepts: the stored
+	 * preference, possibly raised by ensureCapacity
+	 * @return the maximum number of connections per route of the pool
+	 */
+	public static synchronized int getCapacity() {
+		return connectionManager!=null?connectionManager.getDefaultMaxPerRoute():getMaxPerRoute();
+	}
+	
+	/**
+	 * Makes sure the shared client accepts at least the input number of simultaneous connections to a single server,
+	 * without modifying the stored preferences (used by batch processes)
+	 * @param nConnections the number of simultaneous connections required
+	 */
+	public static synchronized void ensureCapacity(int nConnections) {
+		getClient();
+		if(connectionManager.getMaxTotal()<nConnections) connectionManager.setMaxTotal(nConnections);
+		if(connectionManager.getDefaultMaxPerRoute()<nConnections) connectionManager.setDefaultMaxPerRoute(nConnections);
+	}
+	
+	/**
+	 * Closes the shared client and all pooled connections. A new client will be built on next call to getClient()
+	 */
+	public static synchronized void shutdown() {
+		if(client!=null) {
+			try {
+				client.close();
+			} catch (IOException e) {
+				IJ.log("Something went wrong while closing the connections to the server");
+			}
+			client=null;
+			connectionManager=null;
+		}
+	}
+}
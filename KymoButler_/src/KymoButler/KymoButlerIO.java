@@ -23,23 +23,37 @@
 
 package KymoButler;
 
-import java.awt.Polygon;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
-
-import javax.imageio.ImageIO;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.TeeInputStream;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntityBuilder;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONObject;
 
@@ -63,6 +77,15 @@ public class KymoButlerIO{
 	//Image to be processed, as a byte array
 	byte[] img=null;
 	
+	/** Format in which to upload the kymographs set from an ImagePlus **/
+	String uploadFormat=Prefs.get("KymoButler_uploadFormat.string", KymoButlerImageEncoder.FORMAT_BMP);
+	
+	/** PNG compression level, from 0 (no compression) to 9 (best compression) **/
+	int pngLevel=(int) Prefs.get("KymoButler_pngLevel.double", KymoButlerImageEncoder.DEFAULT_PNG_LEVEL);
+	
+	/** Time it took to encode the current kymograph, in milliseconds **/
+	long encodeTime=0;
+	
 	//Parameter p (Threshold), default value 0.2
 	String p="0.2";
 	
@@ -73,32 +96,47 @@ public class KymoButlerIO{
 	String minimumFrames="3";
 	
 	//Parameter tracks, default null
-	String tracks=null;
+	KymoButlerTrackBody tracks=null;
 	
 	//Parameter simplifyTracks, default value true
 	boolean simplifyTracks=true;
 	
+	/** Type of overlay to build when decoding the response on the fly **/
+	String overlayType=KymoButlerResponseParser.OVERLAY_COMPOSITE;
+	
+	/** True to look for the analysis results in the on-disk cache before querying the server, and to store them once retrieved **/
+	boolean useCache=KymoButlerCache.isEnabled();
+	
 	/** Stores the time at which the analysis was started**/
 	long startTime=(long) 0;
 	
 	/** The server timout response (default: 2 minutes) **/
 	long timeOut=(long) Prefs.get("KymoButler_timeOut.double", 120000);
 	
-	/** The http POST request **/
-	HttpPost httpPost =null;
-	
-	/** The http response **/
-	HttpResponse response=null;
+	/** The request currently awaited by one of the blocking methods (getStatistics, getAnalysisResults, upload) **/
+	CompletableFuture<KymoButlerResult> pending=null;
 	
 	/** The server response, as a JSON object containing the kymograph image, the overlay image and the tracks as a CSV formatted string **/
 	JSONObject result;
 	
+	/** Timings of the last request sent through one of the blocking methods **/
+	KymoButlerTimings timings=new KymoButlerTimings();
+	
 	/** Keeps track of the user pressing the escape key: will cancel all the process **/
 	boolean escPressed=false;
 	
+	/** True if the last request waited for failed as its response is not JSON formatted **/
+	boolean malformed=false;
+	
 	/** Debug tag: true to save JSON in IJ installation folder **/
 	static boolean debug=Prefs.get("KymoButler_debug.boolean", false);
 	
+	/** Executor running the requests submitted to the server, shared by all KymoButlerIO objects **/
+	private static ExecutorService requestExecutor=null;
+	
+	/** Scheduler used to enforce the requests' deadlines, shared by all KymoButlerIO objects **/
+	private static ScheduledExecutorService deadlineScheduler=null;
+	
 	
 	
 	
@@ -122,6 +160,7 @@ public class KymoButlerIO{
 	public void setKymograph(String imagePath) {
 		try {
 			img = FileUtils.readFileToByteArray(new File(imagePath));
+			encodeTime=0;
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			IJ.log("Something went wrong when trying to load the image: please check path ("+imagePath+") and file format");
@@ -130,23 +169,51 @@ public class KymoButlerIO{
 	}
 	
 	/**
-	 * Sets the kymograph: should be called before analysis takes place
+	 * Sets the kymograph: should be called before analysis takes place.
+	 * The image is encoded in the upload format straight from its pixels (the server doesn't accept tif): it doesn't need
+	 * to be displayed, and may be set from any thread
 	 * @param ip an ImagePlus containing the kymograph to analyse
 	 */
 	public void setKymograph(ImagePlus ip) {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		try {
-			boolean isVisible=ip.isVisible();
-			if(!isVisible) ip.show();
-			ImageIO.write(ip.getBufferedImage(), "bmp", baos ); //Is not working if using tif...
-			if(!isVisible) ip.hide();
-			baos.flush();
-			img= baos.toByteArray();
-			baos.close();
-		} catch (IOException e) {
-			IJ.log("Something went wrong when turning the input ImagePlus to a byte array");
-			e.printStackTrace();
-		}
+		long start=System.nanoTime();
+		img=KymoButlerImageEncoder.encode(ip, uploadFormat, pngLevel);
+		encodeTime=(System.nanoTime()-start)/1000000;
+	}
+	
+	/**
+	 * Sets the format in which to upload the kymographs set from an ImagePlus. PNG is lossless and compressed, BMP being
+	 * used instead in case the PNG file would not be smaller
+	 * @param uploadFormat the upload format, either KymoButlerImageEncoder.FORMAT_BMP or KymoButlerImageEncoder.FORMAT_PNG
+	 * @param pngLevel the PNG compression level, from 0 (no compression) to 9 (best compression)
+	 */
+	public void setUploadFormat(String uploadFormat, int pngLevel) {
+		this.uploadFormat=uploadFormat;
+		this.pngLevel=pngLevel;
+	}
+	
+	/**
+	 * Returns the format in which the current kymograph is encoded
+	 * @return the format of the current kymograph, either KymoButlerImageEncoder.FORMAT_BMP or KymoButlerImageEncoder.FORMAT_PNG,
+	 * or null if no kymograph has been set
+	 */
+	public String getEncodedFormat() {
+		return img==null?null:KymoButlerImageEncoder.getFormat(img);
+	}
+	
+	/**
+	 * Returns the time it took to encode the current kymograph
+	 * @return the encoding time, in milliseconds (0 if the kymograph was read from a file)
+	 */
+	public long getEncodeTime() {
+		return encodeTime;
+	}
+	
+	/**
+	 * Returns the size of the current kymograph, as uploaded
+	 * @return the size of the encoded kymograph, in bytes
+	 */
+	public int getEncodedSize() {
+		return img==null?0:img.length;
 	}
 	
 	/**
@@ -214,6 +281,38 @@ public class KymoButlerIO{
 	}
 	
 	
+	/**
+	 * Sets the type of overlay to build when the response is decoded on the fly
+	 * @param overlayType the type of overlay, either KymoButlerResponseParser.OVERLAY_COMPOSITE or KymoButlerResponseParser.OVERLAY_RGB
+	 */
+	public void setOverlayType(String overlayType) {
+		this.overlayType=overlayType;
+	}
+	
+	/**
+	 * Returns the type of overlay to build when the response is decoded on the fly
+	 * @return the type of overlay, either KymoButlerResponseParser.OVERLAY_COMPOSITE or KymoButlerResponseParser.OVERLAY_RGB
+	 */
+	public String getOverlayType() {
+		return overlayType;
+	}
+	
+	/**
+	 * Enables/disables the on-disk cache of analysis results for this KymoButlerIO object
+	 * @param useCache true to look for the analysis results in the cache before querying the server, false to always query the server
+	 */
+	public void setUseCache(boolean useCache) {
+		this.useCache=useCache;
+	}
+	
+	/**
+	 * Returns the on-disk cache status for this KymoButlerIO object
+	 * @return true if the analysis results are looked for in the cache before querying the server
+	 */
+	public boolean getUseCache() {
+		return useCache;
+	}
+	
 	/**
 	 * Sets the server's response timeout 
 	 * @param timeOut the server's timeout, in seconds
@@ -230,25 +329,46 @@ public class KymoButlerIO{
 	}
 	
 	/**
-	 * Extracts the rois from the ROI Manager as a JSON segment and stores them for further analysis
+	 * Extracts the rois from the ROI Manager and stores them for further analysis.
+	 * They will be sent as “{{{track1_t1,track1_x1},{track1_t2,track1_x2},...},{{track2_t1,track2_x1},...},…}”
 	 */
 	public void setTracks() {
-		tracks=roiManagerToJSON();
+		setTracks(RoiManager.getRoiManager().getRoisAsArray());
 	}
 	
 	/**
-	 * Converts the ROIs set to a JSON segment and stores them for further analysis
-	 * @param rois the ROIs set to convert
+	 * Stores the ROIs set for further analysis.
+	 * They will be sent as “{{{track1_t1,track1_x1},{track1_t2,track1_x2},...},{{track2_t1,track2_x1},...},…}”
+	 * @param rois the ROIs set to send
 	 */
 	public void setTracks(Roi[] rois) {
-		tracks=roiSetToJSON(rois);
+		tracks=new KymoButlerTrackBody(rois);
 	}
 	
 	/**
-	 * Returns the content of the ROI Manager as a String, JSON formatted segment 
+	 * Returns the stored tracks as a String, JSON formatted segment 
+	 * @return the stored tracks as a String, or null if no tracks have been set
 	 */
 	public String getTracks() {
-		return tracks;
+		return tracks==null?null:tracks.toString();
+	}
+	
+	/**
+	 * Returns the time spent on each phase of the last request sent through one of the blocking methods (getStatistics,
+	 * getAnalysisResults, getDecodedAnalysisResults, upload)
+	 * @return the timings of the last request
+	 */
+	public KymoButlerTimings getTimings() {
+		return timings;
+	}
+	
+	/**
+	 * Checks if the last request sent through one of the blocking methods failed as its response, decoded on the fly,
+	 * is not JSON formatted, rather than being cancelled or not reaching the server
+	 * @return true if the last response is not JSON formatted
+	 */
+	public boolean hasMalformedResponse() {
+		return malformed;
 	}
 	
 	/**
@@ -256,43 +376,285 @@ public class KymoButlerIO{
 	 * @return a String JSON formatted, containing the response (messages, MaxKymograph, KymographsLeft)
 	 */
 	public String getStatistics() {
+		KymoButlerResult result=waitFor(submitStatistics(), "Informations retrieved in ");
+		return result==null?null:result.getResponse();
+	}
+	
+	/**
+	 * Pushes the image data and parameters to the KymoButler webapp.
+	 * @return a String JSON formatted, containing the response (two images, kymograph and overlay, and the tracks as a CSV-style file)
+	 */
+	public String getAnalysisResults() {
+		KymoButlerResult result=waitFor(submitAnalysis(), "Analysis performed in ");
+		return result==null?null:result.getResponse();
+	}
+	
+	/**
+	 * Pushes the image data and parameters to the KymoButler webapp, decoding the response on the fly as it is received
+	 * (the response is not available as a String).
+	 * @return a parser holding the decoded response, or null if the request failed/was cancelled (see hasMalformedResponse)
+	 */
+	public KymoButlerResponseParser getDecodedAnalysisResults() {
+		KymoButlerResult result=waitFor(submitDecodedAnalysis(timeOut), "Analysis performed in ");
+		return result==null?null:result.getParser();
+	}
+	
+	/**
+	 * Pushes the input kymograph to the KymoButler webapp as overlapping tiles, sent concurrently, and stitches the
+	 * responses (see KymoButlerTiler). The current kymograph is left unchanged.
+	 * @param ip the kymograph to analyse
+	 * @param tileHeight the height of the tiles, in rows (ie timepoints)
+	 * @param overlap the overlap between two consecutive tiles, in rows
+	 * @return a parser holding the stitched response, or null if the request failed/was cancelled
+	 */
+	public KymoButlerResponseParser getTiledAnalysisResults(ImagePlus ip, int tileHeight, int overlap) {
+		KymoButlerResult result=waitFor(KymoButlerTiler.submit(this, ip, tileHeight, overlap, timeOut), "Analysis performed in ");
+		return result==null?null:result.getParser();
+	}
+	
+	/**
+	 * Pushes all slices of the input stack to the KymoButler webapp, each slice being an independent kymograph. Slices are
+	 * analysed concurrently, within the limit of what the server accepts (see getDecodedAnalysisResults). Pressing the
+	 * escape key cancels all remaining slices. The current kymograph is left unchanged.
+	 * @param ip the stack of kymographs to analyse
+	 * @param tileHeight the height of the tiles slices higher than it are split into (see KymoButlerTiler), 0 to disable tiling
+	 * @param overlap the overlap between two consecutive tiles, in rows
+	 * @return one parser per slice, holding the decoded response, or null for the slices whose request failed/was cancelled
+	 */
+	public KymoButlerResponseParser[] getStackAnalysisResults(ImagePlus ip, int tileHeight, int overlap) {
+		ImagePlus[] slices=new ImagePlus[ip.getStackSize()];
+		for(int i=0; i<slices.length; i++) slices[i]=new ImagePlus(ip.getTitle()+"_slice_"+(i+1), ip.getStack().getProcessor(i+1));
+		
+		return getDecodedAnalysisResults(slices, tileHeight, overlap);
+	}
+	
+	/**
+	 * Pushes the input kymographs to the KymoButler webapp. Kymographs are submitted as soon as one of the previous ones
+	 * gets its response, so that as many are analysed concurrently as the server accepts (see
+	 * KymoButlerConcurrencyLimiter.getMaxLimit), the others waiting to be encoded. Pressing the escape key cancels all
+	 * remaining kymographs. The current kymograph is left unchanged.
+	 * @param kymographs the kymographs to analyse (null entries are skipped)
+	 * @param tileHeight the height of the tiles kymographs higher than it are split into (see KymoButlerTiler), 0 to disable tiling
+	 * @param overlap the overlap between two consecutive tiles, in rows
+	 * @return one parser per kymograph, holding the decoded response, or null for the kymographs whose request failed/was cancelled
+	 */
+	public KymoButlerResponseParser[] getDecodedAnalysisResults(ImagePlus[] kymographs, int tileHeight, int overlap) {
+		int n=kymographs.length;
+		byte[] img=this.img;
+		long encodeTime=this.encodeTime;
+		
+		final Semaphore window=new Semaphore(KymoButlerConcurrencyLimiter.getMaxLimit());
+		List<CompletableFuture<KymoButlerResult>> futures=new ArrayList<CompletableFuture<KymoButlerResult>>();
+		escPressed=false;
+		try {
+			for(int i=0; i<n && !escPressed; i++) {
+				if(kymographs[i]==null) {
+					futures.add(null);
+					continue;
+				}
+				
+				try {
+					while(!window.tryAcquire(250, TimeUnit.MILLISECONDS)) {
+						if(IJ.escapePressed()) break;
+						IJ.showStatus("Kymograph "+(i+1)+"/"+n+" waiting for a previous one to be analysed");
+					}
+				} catch (InterruptedException e) {
+					break;
+				}
+				if(IJ.escapePressed()) {
+					IJ.showStatus("Process cancelled");
+					escPressed=true;
+					break;
+				}
+				
+				IJ.showStatus("Sending kymograph "+(i+1)+"/"+n);
+				CompletableFuture<KymoButlerResult> future=KymoButlerTiler.submit(this, kymographs[i], tileHeight, overlap, timeOut);
+				future.whenComplete((result, error) -> window.release());
+				futures.add(future);
+			}
+		} finally {
+			this.img=img;
+			this.encodeTime=encodeTime;
+		}
+		
+		KymoButlerResponseParser[] out=new KymoButlerResponseParser[n];
+		for(int i=0; i<futures.size(); i++) {
+			if(futures.get(i)==null) continue;
+			
+			if(escPressed) {
+				futures.get(i).cancel(true);
+				continue;
+			}
+			
+			KymoButlerResult result=waitFor(futures.get(i), "Kymograph "+(i+1)+"/"+n+" analysed in ");
+			out[i]=result==null?null:result.getParser();
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * Pushes the image data and the tracks to the KymoButler webapp to correct and retrain the network.
+	 * @return a String JSON formatted, containing the response
+	 */
+	public String upload() {
+		KymoButlerResult result=waitFor(submitUpload(), "Upload performed in ");
+		return result==null?null:result.getResponse();
+	}
+	
+	/**
+	 * Sends the statistics request to the KymoButler webapp without waiting for the response
+	 * @return a CompletableFuture that completes with the server's response, exceptionally after the server timeout
+	 */
+	public CompletableFuture<KymoButlerResult> submitStatistics() {
 		MultipartEntityBuilder builder=MultipartEntityBuilder.create()
 				.setMode(HttpMultipartMode.BROWSER_COMPATIBLE)
 				.addTextBody(KymoButlerFields.QUERY_FIELD_TAG, KymoButlerFields.QUERY_STATS_FIELD_TAG);
-		HttpEntity multiPartEntity = builder.build();
-		
-		httpPost = new HttpPost(URL);
-		httpPost.setEntity(multiPartEntity);
 		
-		HttpClient client = HttpClientBuilder.create().build();
-		startTime=System.currentTimeMillis();
+		return submit(builder.build(), timeOut, false, null, true, false, false);
+	}
+	
+	/**
+	 * Sends the statistics request to the KymoButler webapp as a health check, without waiting for the response: unlike
+	 * other requests, it is sent even if the endpoint's circuit breaker is open, and is not retried, so that a recovered
+	 * endpoint is detected without waiting for the cooldown
+	 * @return a CompletableFuture that completes with the server's response, exceptionally after the server timeout
+	 */
+	CompletableFuture<KymoButlerResult> submitHealthCheck() {
+		MultipartEntityBuilder builder=MultipartEntityBuilder.create()
+				.setMode(HttpMultipartMode.BROWSER_COMPATIBLE)
+				.addTextBody(KymoButlerFields.QUERY_FIELD_TAG, KymoButlerFields.QUERY_STATS_FIELD_TAG);
 		
-		showMessage();
+		return submit(builder.build(), timeOut, false, null, false, false, true);
+	}
+	
+	/**
+	 * Pushes the image data and parameters to the KymoButler webapp without waiting for the response.
+	 * The current image and parameters are captured when calling this method: this KymoButlerIO object may be re-used right away
+	 * @return a CompletableFuture that completes with the server's response, exceptionally after the server timeout
+	 */
+	public CompletableFuture<KymoButlerResult> submitAnalysis() {
+		return submitAnalysis(timeOut);
+	}
+	
+	/**
+	 * Pushes the image data and parameters to the KymoButler webapp without waiting for the response.
+	 * The current image and parameters are captured when calling this method: this KymoButlerIO object may be re-used right away
+	 * @param deadline the maximum time to wait for the response, in milliseconds
+	 * @return a CompletableFuture that completes with the server's response, exceptionally once the deadline is reached.
+	 * Cancelling it aborts the request
+	 */
+	public CompletableFuture<KymoButlerResult> submitAnalysis(long deadline) {
+		String cacheKey=getCacheKey();
+		if(cacheKey!=null) {
+			String cached=KymoButlerCache.get(cacheKey);
+			if(cached!=null) return CompletableFuture.completedFuture(new KymoButlerResult(cached, 200, 0).setEncoding(getEncodedFormat(), encodeTime, getEncodedSize()));
+		}
 		
+		return submit(buildAnalysisEntity(), deadline, false, cacheKey, true, true, false);
+	}
+	
+	/**
+	 * Pushes the image data and parameters to the KymoButler webapp without waiting for the response. The response
+	 * is decoded on the fly as it is received, without being stored as a String.
+	 * @param deadline the maximum time to wait for the response, in milliseconds
+	 * @return a CompletableFuture that completes with the decoded response, exceptionally once the deadline is reached or
+	 * if the response is not JSON formatted. Cancelling it aborts the request
+	 */
+	public CompletableFuture<KymoButlerResult> submitDecodedAnalysis(final long deadline) {
+		final String cacheKey=getCacheKey();
+		final File cached=cacheKey==null?null:KymoButlerCache.lookup(cacheKey);
+		if(cached==null) return submit(buildAnalysisEntity(), deadline, true, cacheKey, true, true, false);
 		
+		//The entity is built right away so that the current image and parameters are captured, should the cached response be unreadable
+		final HttpEntity entity=buildAnalysisEntity();
+		final String overlayType=this.overlayType;
+		final String format=getEncodedFormat();
+		final long encodeTime=this.encodeTime;
+		final int encodedSize=getEncodedSize();
+		return CompletableFuture.supplyAsync(() -> decodeCached(cached, overlayType), getRequestExecutor())
+				.thenApply(result -> result==null?null:result.setEncoding(format, encodeTime, encodedSize))
+				.thenCompose(result -> result!=null?CompletableFuture.completedFuture(result):submit(entity, deadline, true, cacheKey, true, true, false));
+	}
+	
+	/**
+	 * Decodes a response stored in the on-disk cache. An unreadable response is removed from the cache
+	 * @param cached the cached response
+	 * @param overlayType the type of overlay to build
+	 * @return the decoded response, or null if it could not be read
+	 */
+	private static KymoButlerResult decodeCached(File cached, String overlayType) {
 		try {
-			response=client.execute(httpPost);
-			
-			IJ.showStatus("Informations retrieved in "+getElapsedTime());
-			
-			String out=EntityUtils.toString(response.getEntity(), "UTF-8");
-			
-			httpPost.releaseConnection();
-			
-			return out;
+			InputStream in=KymoButlerCache.open(cached);
+			try {
+				long start=System.nanoTime();
+				KymoButlerResult result=new KymoButlerResult(new KymoButlerResponseParser(in, overlayType), 200, 0);
+				result.getTimings().setSource(KymoButlerTimings.SOURCE_CACHE);
+				result.getTimings().set(KymoButlerTimings.PARSE, KymoButlerTimings.since(start));
+				return result;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			IJ.log("Something went wrong while reading the cached response "+cached.getName()+": the server will be queried");
+			cached.delete();
+			return null;
+		}
+	}
+	
+	/**
+	 * Answers a request with its recorded response, without sending it
+	 * @param recordingKey the key of the request, as returned by KymoButlerTransport.getKey
+	 * @param decode true to decode the response on the fly, false to read it as a String
+	 * @param overlayType the type of overlay to build, when decoding
+	 * @return the recorded response
+	 * @throws CompletionException in case no response was recorded for the request, or if it can't be read
+	 */
+	private static KymoButlerResult replay(String recordingKey, boolean decode, String overlayType) {
+		File recording=KymoButlerTransport.lookup(recordingKey);
+		if(recording==null) throw new CompletionException(new IOException("No recorded response for this request in "+KymoButlerTransport.getDirectory()));
 		
+		try {
+			KymoButlerTimings.TimedInputStream in=new KymoButlerTimings.TimedInputStream(KymoButlerCache.open(recording));
+			try {
+				long start=System.nanoTime();
+				KymoButlerResult result=decode?new KymoButlerResult(new KymoButlerResponseParser(in, overlayType), 200, 0):new KymoButlerResult(IOUtils.toString(in, "UTF-8"), 200, 0);
+				result.getTimings().setSource(KymoButlerTimings.SOURCE_REPLAY);
+				result.getTimings().set(decode?KymoButlerTimings.PARSE:KymoButlerTimings.DOWNLOAD, KymoButlerTimings.since(start));
+				result.getTimings().set(KymoButlerTimings.RESPONSE_SIZE, in.getByteCount());
+				return result;
+			} finally {
+				in.close();
+			}
 		} catch (IOException e) {
-			IJ.log("Something went wrong while sending the request/getting the response to/from the server");
-			//e.printStackTrace();
+			throw new CompletionException(new IOException("Something went wrong while reading the recorded response "+recording.getName()+": "+e.getMessage()));
 		}
-		return null;
 	}
 	
 	/**
-	 * Pushes the image data and parameters to the KymoButler webapp.
-	 * @return a String JSON formatted, containing the response (two images, kymograph and overlay, and the tracks as a CSV-style file)
+	 * Checks if the analysis results for the current image and parameters are in the on-disk cache, in which case analysing
+	 * it won't query the server
+	 * @return true if the analysis results are cached and the cache is used
 	 */
-	public String getAnalysisResults() {
+	public boolean isCached() {
+		String cacheKey=getCacheKey();
+		return cacheKey!=null && KymoButlerCache.contains(cacheKey);
+	}
+	
+	/**
+	 * Returns the key under which the analysis results for the current image and parameters are cached. The cache is
+	 * bypassed while recording or replaying, so that all requests go through the transport
+	 * @return the cache key, or null if the cache is disabled
+	 */
+	private String getCacheKey() {
+		return useCache && KymoButlerTransport.getMode().equals(KymoButlerTransport.MODE_NETWORK)?KymoButlerCache.getKey(img, p, minimumSize, minimumFrames, URL):null;
+	}
+	
+	/**
+	 * Builds the multipart entity for an analysis request, using the current image and parameters
+	 * @return the multipart entity for an analysis request
+	 */
+	private HttpEntity buildAnalysisEntity() {
 		MultipartEntityBuilder builder=MultipartEntityBuilder.create()
 				.setMode(HttpMultipartMode.BROWSER_COMPATIBLE)
 				.addTextBody(KymoButlerFields.QUERY_FIELD_TAG, KymoButlerFields.QUERY_ANALYSIS_FIELD_TAG)
@@ -300,74 +662,393 @@ public class KymoButlerIO{
 				.addTextBody(KymoButlerFields.THRESHOLD_FIELD_TAG, p)
 				.addTextBody(KymoButlerFields.MINIMUM_SIZE_FIELD_TAG, minimumSize)
 				.addTextBody(KymoButlerFields.MINIMUM_FRAMES_FIELD_TAG, minimumFrames);
-		HttpEntity multiPartEntity = builder.build();
 		
-		httpPost = new HttpPost(URL);
-		httpPost.setEntity(multiPartEntity);
+		return builder.build();
+	}
+	
+	/**
+	 * Pushes the image data and the tracks to the KymoButler webapp without waiting for the response
+	 * @return a CompletableFuture that completes with the server's response, exceptionally after the server timeout
+	 */
+	public CompletableFuture<KymoButlerResult> submitUpload() {
+		MultipartEntityBuilder builder=MultipartEntityBuilder.create()
+				.setMode(HttpMultipartMode.BROWSER_COMPATIBLE)
+				.addTextBody(KymoButlerFields.QUERY_FIELD_TAG, KymoButlerFields.QUERY_UPLOAD_FIELD_TAG)
+				.addBinaryBody(KymoButlerFields.KYMOGRAPH_FIELD_TAG, img)
+				.addPart(KymoButlerFields.TRACKS_FIELD_TAG, tracks!=null?tracks:new KymoButlerTrackBody(new Roi[0]));
 		
-		HttpClient client = HttpClientBuilder.create().build();
-		startTime=System.currentTimeMillis();
+		return submit(builder.build(), timeOut, false, null, false, false, false);
+	}
+	
+	/**
+	 * Posts the input entity to the KymoButler webapp, using the shared pooled client, without waiting for the response.
+	 * The connection is handed back to the pool once the response has been read.
+	 * Idempotent requests that fail (communication error, server error or rate limiting) are retried following the
+	 * KymoButlerRetryPolicy, within the deadline: a server error or rate limiting on the last attempt fails the request.
+	 * A response that is not JSON formatted fails the request right away, without counting against the circuit breaker.
+	 * Requests, health checks apart, fail right away while the endpoint's circuit breaker is open.
+	 * Analysis requests are spread over the endpoints (see KymoButlerEndpoints), each attempt being sent to the least loaded
+	 * one, within the limit of its KymoButlerConcurrencyLimiter, queued otherwise.
+	 * @param multiPartEntity the multipart entity to post
+	 * @param deadline the maximum time to wait for the response, in milliseconds, all attempts included. It starts once the
+	 * request is dispatched, the time spent waiting for a slot of the concurrency limiter being excluded
+	 * @param decode if true, the response is decoded on the fly by a KymoButlerResponseParser rather than stored as a String
+	 * @param cacheKey the key under which a successful response should be stored in the on-disk cache, null not to cache it
+	 * @param idempotent true if the request may safely be sent again in case of failure
+	 * @param balanced true to spread the request over the endpoints, within the limit of their concurrency limiters
+	 * @param probe true for health checks, sent even if the endpoint's circuit breaker is open
+	 * @return a CompletableFuture that completes with the server's response, exceptionally once the deadline is reached or
+	 * in case of communication error. Cancelling it aborts the request
+	 */
+	private CompletableFuture<KymoButlerResult> submit(HttpEntity multiPartEntity, final long deadline, final boolean decode, final String cacheKey, boolean idempotent, final boolean balanced, final boolean probe) {
+		final String URL=this.URL;
+		final String overlayType=this.overlayType;
+		final String format=getEncodedFormat();
+		final long encodeTime=this.encodeTime;
+		final int encodedSize=getEncodedSize();
+		final int maxRetries=idempotent?KymoButlerRetryPolicy.getMaxRetries():0;
+		final String transport=KymoButlerTransport.getMode();
+		final String recordingKey=transport.equals(KymoButlerTransport.MODE_NETWORK)?null:KymoButlerTransport.getKey(multiPartEntity);
+		if(transport.equals(KymoButlerTransport.MODE_REPLAY)) {
+			return CompletableFuture.supplyAsync(() -> replay(recordingKey, decode, overlayType), getRequestExecutor())
+					.thenApply(result -> result.setEncoding(format, encodeTime, encodedSize));
+		}
 		
-		showMessage();
+		final AtomicBoolean timedOut=new AtomicBoolean(false);
+		final AtomicReference<ScheduledFuture<?>> timer=new AtomicReference<ScheduledFuture<?>>();
+		final HttpPost httpPost = new HttpPost(URL);
+		httpPost.setEntity(multiPartEntity);
 		
+		final CompletableFuture<KymoButlerResult> future=new CompletableFuture<KymoButlerResult>();
+		final long start=System.currentTimeMillis();
 		
-		try {
-			response=client.execute(httpPost);
+		Runnable request=new Runnable() {
+			/** Number of attempts made so far **/
+			int nAttempts=0;
 			
-			IJ.showStatus("Analysis performed in "+getElapsedTime());
+			/** Time at which the request was first dispatched, in milliseconds, -1 while it waits for a slot **/
+			long dispatched=-1;
 			
-			String out=EntityUtils.toString(response.getEntity(), "UTF-8");
+			/** Latency of the current attempt, -1 if it didn't get a response **/
+			long latency=-1;
 			
-			httpPost.releaseConnection();
+			/** Time to first byte of the current attempt, in milliseconds, -1 if it didn't get a response **/
+			double firstByte=-1;
 			
-			return out;
+			/** True if the current attempt timed out or was rejected by the server **/
+			boolean overloaded=false;
+			
+			public void run() {
+				//The endpoint is picked when dispatching the attempt
+				String endpoint=httpPost.getURI().toString();
+				KymoButlerConcurrencyLimiter limiter=balanced?KymoButlerConcurrencyLimiter.forEndpoint(endpoint):null;
+				latency=-1;
+				firstByte=-1;
+				overloaded=false;
+				if(dispatched==-1 && !future.isDone()) startDeadline();
+				try {
+					attempt(KymoButlerCircuitBreaker.forEndpoint(endpoint));
+				} finally {
+					if(limiter!=null) limiter.release(latency, latency>=0?firstByte:-1, httpPost.getEntity().getContentLength(), overloaded);
+				}
+			}
+			
+			/**
+			 * Starts the deadline timer, once the request leaves the limiter's queue: a request waiting for a slot can't time out
+			 */
+			private void startDeadline() {
+				dispatched=System.currentTimeMillis();
+				timer.set(getDeadlineScheduler().schedule(new Runnable() {
+					public void run() {
+						timedOut.set(true);
+						future.completeExceptionally(new TimeoutException("No response from the server after "+deadline/1000.0+" sec"));
+					}
+				}, deadline, TimeUnit.MILLISECONDS));
+				//The request may have been cancelled meanwhile
+				if(future.isDone()) timer.get().cancel(false);
+			}
+			
+			/**
+			 * Sends the request once, scheduling a retry in case of failure
+			 * @param breaker the circuit breaker of the endpoint the request is sent to
+			 */
+			private void attempt(KymoButlerCircuitBreaker breaker) {
+				if(future.isDone()) return;
+				long attemptStart=System.currentTimeMillis();
+				if(!probe && !breaker.allowRequest()) {
+					//The endpoint was ejected while the request was queued: sent to another one, if any
+					if(balanced && !KymoButlerEndpoints.select(URL).equals(httpPost.getURI().toString())) {
+						dispatch(this, httpPost, URL, balanced);
+					}else {
+						future.completeExceptionally(new KymoButlerCircuitBreaker.RejectedException(breaker.getRejectionMessage()));
+					}
+					return;
+				}
+				
+				nAttempts++;
+				Exception failure=null;
+				HttpResponse response=null;
+				KymoButlerStagedOutputStream cacheWriter=null;
+				KymoButlerStagedOutputStream recorder=null;
+				KymoButlerTimings timings=new KymoButlerTimings();
+				timings.setSource(httpPost.getURI().toString());
+				timings.set(KymoButlerTimings.UPLOADED, httpPost.getEntity().getContentLength());
+				try {
+					long sendStart=System.nanoTime();
+					response=KymoButlerHttpClient.getClient().execute(httpPost);
+					firstByte=KymoButlerTimings.since(sendStart);
+					timings.set(KymoButlerTimings.FIRST_BYTE, firstByte);
+					int statusCode=response.getStatusLine().getStatusCode();
+					
+					if(KymoButlerRetryPolicy.isRetryable(statusCode)) {
+						breaker.recordFailure();
+						overloaded=true;
+						EntityUtils.consume(response.getEntity());
+						IOException error=new IOException("The server responded with HTTP status "+statusCode);
+						if(nAttempts<=maxRetries) {
+							failure=error;
+						}else {
+							if(maxRetries>0) KymoButlerRetryPolicy.recordExhausted();
+							future.completeExceptionally(error);
+						}
+						return;
+					}else {
+						breaker.recordSuccess();
+					}
+					
+					long readStart=System.nanoTime();
+					KymoButlerTimings.TimedInputStream timedIn=new KymoButlerTimings.TimedInputStream(response.getEntity().getContent());
+					InputStream body=timedIn;
+					if(recordingKey!=null && statusCode==200) recorder=KymoButlerTransport.openWriter(recordingKey);
+					if(recorder!=null) body=new TeeInputStream(timedIn, recorder, true);
+					
+					if(decode) {
+						InputStream in=body;
+						boolean cache=cacheKey!=null && statusCode==200;
+						if(cache) {
+							//The response is copied to the cache while being decoded, and only kept if it holds results
+							cacheWriter=KymoButlerCache.openWriter(cacheKey);
+							in=new TeeInputStream(in, cacheWriter, true);
+						}
+						
+						KymoButlerResponseParser parser;
+						try {
+							parser=new KymoButlerResponseParser(in, overlayType);
+						} finally {
+							if(cache || recorder!=null) in.close();
+						}
+						EntityUtils.consume(response.getEntity());
+						if(recorder!=null) KymoButlerTransport.commit(recorder);
+						
+						if(cache) {
+							if(parser.hasKymograph() && !parser.hasError()) {
+								KymoButlerCache.commit(cacheWriter);
+							}else {
+								cacheWriter.discard();
+							}
+						}
+						//Decoding goes along with the download: the time spent waiting for data is accounted as download
+						timings.set(KymoButlerTimings.DOWNLOAD, timedIn.getReadTime());
+						timings.set(KymoButlerTimings.PARSE, KymoButlerTimings.since(readStart)-timedIn.getReadTime());
+						timings.set(KymoButlerTimings.RESPONSE_SIZE, timedIn.getByteCount());
+						latency=System.currentTimeMillis()-attemptStart;
+						future.complete(new KymoButlerResult(parser, statusCode, System.currentTimeMillis()-start).setTimings(timings).setEncoding(format, encodeTime, encodedSize));
+					}else {
+						String out=IOUtils.toString(body, "UTF-8");
+						if(recorder!=null) body.close();
+						EntityUtils.consume(response.getEntity());
+						if(recorder!=null) KymoButlerTransport.commit(recorder);
+						timings.set(KymoButlerTimings.DOWNLOAD, KymoButlerTimings.since(readStart));
+						timings.set(KymoButlerTimings.RESPONSE_SIZE, timedIn.getByteCount());
+						if(cacheKey!=null && statusCode==200 && isCacheable(out)) KymoButlerCache.put(cacheKey, out);
+						latency=System.currentTimeMillis()-attemptStart;
+						future.complete(new KymoButlerResult(out, statusCode, System.currentTimeMillis()-start).setTimings(timings).setEncoding(format, encodeTime, encodedSize));
+					}
+				} catch (KymoButlerJSONReader.MalformedException e) {
+					//The server did answer: sending the same request again would get the same response
+					future.completeExceptionally(e);
+				} catch (IOException e) {
+					//Aborted requests (cancellation, deadline) are not the server's fault
+					if(future.isDone()) {
+						breaker.recordAborted();
+						overloaded=timedOut.get();
+						return;
+					}
+					
+					breaker.recordFailure();
+					overloaded=true;
+					if(nAttempts<=maxRetries) {
+						failure=e;
+					}else {
+						if(maxRetries>0) KymoButlerRetryPolicy.recordExhausted();
+						future.completeExceptionally(e);
+					}
+				} finally {
+					httpPost.releaseConnection();
+					//No-op once the response has been committed to the cache/recorded
+					if(cacheWriter!=null) cacheWriter.discard();
+					if(recorder!=null) recorder.discard();
+					if(failure!=null) retry(failure, response);
+				}
+			}
+			
+			/**
+			 * Schedules the next attempt, or fails the request if the deadline would be reached before
+			 * @param failure the reason why the last attempt failed
+			 * @param response the failed response, or null in case of communication error
+			 */
+			private void retry(Exception failure, HttpResponse response) {
+				long delay=KymoButlerRetryPolicy.getDelay(nAttempts, response);
+				if(System.currentTimeMillis()-dispatched+delay>=deadline) {
+					KymoButlerRetryPolicy.recordExhausted();
+					future.completeExceptionally(failure);
+					return;
+				}
+				
+				KymoButlerRetryPolicy.recordRetry();
+				if(debug) IJ.log("Request failed ("+failure.getMessage()+"), attempt "+(nAttempts+1)+"/"+(maxRetries+1)+" in "+delay+" ms");
+				
+				final Runnable attempt=this;
+				getDeadlineScheduler().schedule(new Runnable() {
+					public void run() {
+						if(!future.isDone()) dispatch(attempt, httpPost, URL, balanced);
+					}
+				}, delay, TimeUnit.MILLISECONDS);
+			}
+		};
 		
-		} catch (IOException e) {
-			IJ.log("Something went wrong while sending the request/getting the response to/from the server");
-			//e.printStackTrace();
+		future.whenComplete((result, error) -> {
+			ScheduledFuture<?> deadlineTimer=timer.get();
+			if(deadlineTimer!=null) deadlineTimer.cancel(false);
+			if(error!=null) httpPost.abort();
+		});
+		
+		dispatch(request, httpPost, URL, balanced);
+		
+		return future;
+	}
+	
+	/**
+	 * Runs an attempt of the input request. Balanced requests are pointed to the least loaded endpoint, then run within the
+	 * limit of its concurrency limiter
+	 * @param request the request's attempt to run
+	 * @param httpPost the request's HTTP post, pointed to the selected endpoint
+	 * @param URL the KymoButler API URL
+	 * @param balanced true to spread the request over the endpoints, false to send it to the API URL
+	 */
+	private static void dispatch(Runnable request, HttpPost httpPost, String URL, boolean balanced) {
+		if(balanced) {
+			String endpoint=KymoButlerEndpoints.select(URL);
+			httpPost.setURI(URI.create(endpoint));
+			KymoButlerConcurrencyLimiter.forEndpoint(endpoint).execute(request, getRequestExecutor());
+		}else {
+			getRequestExecutor().execute(request);
 		}
-		return null;
 	}
 	
 	/**
-	 * Pushes the image data and the tracks to the KymoButler webapp to correct and retrain the network.
-	 * @return a String JSON formatted, containing the response
+	 * Checks if an analysis response may be stored in the cache, i.e. if it is JSON formatted and does not report an error
+	 * @param response the server's response
+	 * @return true if the response may be cached, false otherwise
 	 */
-	public String upload() {
-		MultipartEntityBuilder builder=MultipartEntityBuilder.create()
-				.setMode(HttpMultipartMode.BROWSER_COMPATIBLE)
-				.addTextBody(KymoButlerFields.QUERY_FIELD_TAG, KymoButlerFields.QUERY_UPLOAD_FIELD_TAG)
-				.addBinaryBody(KymoButlerFields.KYMOGRAPH_FIELD_TAG, img)
-				.addTextBody(KymoButlerFields.TRACKS_FIELD_TAG, tracks);
-		HttpEntity multiPartEntity = builder.build();
-		
-		httpPost = new HttpPost(URL);
-		httpPost.setEntity(multiPartEntity);
-		
-		HttpClient client = HttpClientBuilder.create().build();
+	private static boolean isCacheable(String response) {
+		return KymoButlerResponseParser.isJSON(response) && response.indexOf("\""+KymoButlerFields.ERROR_FIELD_TAG+"\"")==-1;
+	}
+	
+	/**
+	 * Waits for the input request to complete, displaying the elapsed time in the status bar. Pressing the escape key
+	 * cancels the request.
+	 * @param future the request to wait for
+	 * @param doneMsg the message to display in the status bar once the response has been received, followed by the elapsed time
+	 * @return the server's response or null if the request failed/was cancelled
+	 */
+	private KymoButlerResult waitFor(CompletableFuture<KymoButlerResult> future, String doneMsg) {
+		pending=future;
+		escPressed=false;
+		malformed=false;
 		startTime=System.currentTimeMillis();
 		
-		showMessage();
-		
-		
 		try {
-			response=client.execute(httpPost);
-			
-			IJ.showStatus("Upload performed in "+getElapsedTime());
-			
-			String out=EntityUtils.toString(response.getEntity(), "UTF-8");
-			
-			httpPost.releaseConnection();
+			while(!future.isDone()) {
+				if(!IJ.escapePressed()) {
+					IJ.showStatus("Process started "+getElapsedTime()+" ago, waiting for response");
+				}else {
+					future.cancel(true);
+					IJ.showStatus("Process cancelled");
+					escPressed=true;
+				}
+				try {
+					future.get(250, TimeUnit.MILLISECONDS);
+				} catch (TimeoutException e) {
+					//Still waiting: refresh the status bar
+				}
+			}
 			
+			KymoButlerResult out=future.get();
+			timings=out.getTimings();
+			IJ.showStatus(doneMsg+getElapsedTime());
+			if(debug && out.getUploadFormat()!=null) IJ.log("Kymograph uploaded as "+out.getUploadFormat()+" ("+(out.getEncodedSize()/1024)+" kB), encoded in "+out.getEncodeTime()+" ms");
 			return out;
-		
-		} catch (IOException e) {
-			IJ.log("Something went wrong while sending the request/getting the response to/from the server");
-			//e.printStackTrace();
+		} catch (CancellationException e) {
+			//Already reported
+		} catch (InterruptedException e) {
+			future.cancel(true);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof TimeoutException) {
+				IJ.log("The server didn't respond in time: "+e.getCause().getMessage());
+			}else if(e.getCause() instanceof KymoButlerJSONReader.MalformedException) {
+				malformed=true;
+				if(debug) IJ.log(""+e.getCause());
+			}else {
+				IJ.log("Something went wrong while sending the request/getting the response to/from the server");
+				if(debug) IJ.log(""+e.getCause());
+			}
+		} finally {
+			pending=null;
 		}
 		return null;
 	}
 	
+	/**
+	 * Cancels the request currently awaited by one of the blocking methods, if any
+	 */
+	public void cancel() {
+		CompletableFuture<KymoButlerResult> future=pending;
+		if(future!=null) future.cancel(true);
+	}
+	
+	/**
+	 * Returns the executor running the requests, building it on first call
+	 * @return the executor running the requests
+	 */
+	private static synchronized ExecutorService getRequestExecutor() {
+		if(requestExecutor==null) requestExecutor=Executors.newCachedThreadPool(new ThreadFactory() {
+			int n=0;
+			
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, "KymoButler-request-"+(++n));
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		return requestExecutor;
+	}
+	
+	/**
+	 * Returns the scheduler used to enforce the requests' deadlines, building it on first call
+	 * @return the scheduler used to enforce the requests' deadlines
+	 */
+	private static synchronized ScheduledExecutorService getDeadlineScheduler() {
+		if(deadlineScheduler==null) deadlineScheduler=Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t=new Thread(r, "KymoButler-deadlines");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		return deadlineScheduler;
+	}
+	
 	/**
 	 * Save a string to a file
 	 * @param content the String content to save
@@ -382,36 +1063,6 @@ public class KymoButlerIO{
 		}
 	}
 	
-	/**
-	 * This methods handles the display of the elapsed time in the status bar. It creates a new thread so that 
-	 * display does not interfere with the analysis process while allowing the display to be updated.
-	 */
-	private void showMessage() {
-		Thread t=new Thread() {
-			public void run() {
-				while(response==null && !escPressed && (System.currentTimeMillis()-startTime)<timeOut) {
-					
-					if(!IJ.escapePressed()) {
-						IJ.showStatus("Process started "+getElapsedTime()+" ago, waiting for response");
-					}else {
-						httpPost.abort();
-						IJ.showStatus("Process cancelled");
-						escPressed=true;
-					}
-					try {
-						Thread.sleep(250);
-					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
-						e.printStackTrace();
-					}
-			    }
-				
-				if((System.currentTimeMillis()-startTime)>timeOut)  httpPost.abort();
-			}
-		};
-		t.start();
-	}
-	
 	/**
 	 * Computes the elapsed time since the "startTime" as stored in the class variable
 	 * @return the elapsed time since startTime as a string, using the mm:ss format
@@ -422,44 +1073,6 @@ public class KymoButlerIO{
 		return sdf.format(elapsedTime);
 	}
 	
-	/**
-	 * Encodes the input Roi as a JSON segment
-	 * “{{{track1_t1,track1_x1},{track1_t2,track1_x2},{track1_t3,track1_x3},...},{{track2_t1,track2_x1},{track2_t2,track2_x2},{track2_t3,track2_x3},...},…}” 
-	 * @param roi the input Roi
-	 * @return a String containing the Roi's coordinates encoded as a JSON segment
-	 */
-	private String roiToJSON(Roi roi) {
-		String out="{";
-		Polygon pol=roi.getPolygon();
-		
-		for(int i=0; i<pol.npoints; i++) out+="{"+pol.ypoints[i]+","+pol.xpoints[i]+"}"+(i!=pol.npoints-1?",":"}");
-		
-		return out;
-	}
-	
-	/**
-	 * Encodes the input ROIs set as a JSON segment
-	 * “{{{track1_t1,track1_x1},{track1_t2,track1_x2},{track1_t3,track1_x3},...},{{track2_t1,track2_x1},{track2_t2,track2_x2},{track2_t3,track2_x3},...},…}” 
-	 * @param rois the ROIs set to convert
-	 * @return a String containing the Roi's coordinates encoded as a JSON segment
-	 */
-	private String roiSetToJSON(Roi[] rois) {
-		String out="{";
-		
-		for(int i=0; i<rois.length; i++) out+=roiToJSON(rois[i])+(i!=rois.length-1?",":"}");
-		
-		return out;
-	}
-	
-	/**
-	 * Encodes the content of the RoiManager as a JSON segment
-	 * “{{{track1_t1,track1_x1},{track1_t2,track1_x2},{track1_t3,track1_x3},...},{{track2_t1,track2_x1},{track2_t2,track2_x2},{track2_t3,track2_x3},...},…}” 
-	 * @return a String containing the Roi's coordinates encoded as a JSON segment
-	 */
-	private String roiManagerToJSON() {
-		return roiSetToJSON(RoiManager.getRoiManager().getRoisAsArray());
-	}
-	
 	/**
 	 * Checks that the required libraries are installed, and displays an error message if they are not
 	 * @return true if all required libraries are installed, false otherwise
@@ -468,7 +1081,7 @@ public class KymoButlerIO{
 		/*
 		HashMap<String, String> classesToFind=new HashMap<String, String>(){
 			private static final long serialVersionUID = 1L;
-
+			
 			{
 				put("commons-io-2.6", "org.apache.commons.io.FileUtils");
 				put("commons-logging-1.2", "org.apache.commons.logging.Log");
@@ -482,7 +1095,7 @@ public class KymoButlerIO{
 		*/
 		
 		String[] classesToFind=new String[] {"commons-io-2.6.jar", "commons-logging-1.2.jar", "commons-codec-1.11.jar", "httpclient-4.5.9.jar", "httpcore-4.4.11.jar", "httpmime-4.5.9.jar", "json-20180813.jar"};
-	
+		
 		String msg="";
 		
 		for(String jar: classesToFind) {
@@ -0,0 +1,445 @@
+/**
+*
+*  KymoButlerImageEncoder.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * This class is aimed at encoding a kymograph as a BMP or PNG file, straight from the ImageProcessor's pixels arrays: no window
+ * is involved, which allows encoding headless and from several threads at once.
+ * 8-bit images are written using their LUT as palette, 16- and 32-bit images being first scaled to 8-bit using their display range,
+ * RGB images being written as 24-bit.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerImageEncoder {
+	/** Uncompressed BMP format **/
+	public static final String FORMAT_BMP="BMP";
+	
+	/** Lossless, deflate-compressed PNG format **/
+	public static final String FORMAT_PNG="PNG";
+	
+	/** Available upload formats (TIFF is not accepted by the KymoButler API) **/
+	public static final String[] FORMATS=new String[] {FORMAT_BMP, FORMAT_PNG};
+	
+	/** Default PNG compression level **/
+	public static final int DEFAULT_PNG_LEVEL=6;
+	
+	/** PNG file signature **/
+	private static final byte[] PNG_SIGNATURE=new byte[] {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	
+	/** Size of the BMP file header, in bytes **/
+	private static final int FILE_HEADER_SIZE=14;
+	
+	/** Size of the BMP info header, in bytes **/
+	private static final int INFO_HEADER_SIZE=40;
+	
+	/** Number of entries in the palette of 8-bit images **/
+	private static final int PALETTE_SIZE=256;
+	
+	
+	
+	/**
+	 * Utility class: not meant to be instantiated
+	 */
+	private KymoButlerImageEncoder() {}
+	
+	/**
+	 * Encodes the current slice of the input ImagePlus in the requested format, falling back to BMP in case the PNG file
+	 * would not be smaller or could not be written
+	 * @param ip the ImagePlus to encode
+	 * @param format the format to use, either FORMAT_BMP or FORMAT_PNG
+	 * @param level the PNG compression level, from 0 (no compression) to 9 (best compression)
+	 * @return the encoded file, as a byte array
+	 */
+	public static byte[] encode(ImagePlus ip, String format, int level) {
+		ImageProcessor iproc=getProcessor(ip);
+		
+		if(FORMAT_PNG.equals(format)) {
+			try {
+				byte[] png=toPNG(iproc, level);
+				if(png.length<getBMPSize(iproc)) return png;
+			} catch (IOException e) {
+				IJ.log("Something went wrong while encoding the image as PNG: BMP will be used instead");
+			}
+		}
+		
+		return toBMP(iproc);
+	}
+	
+	/**
+	 * Returns the format of an encoded image, based on its signature
+	 * @param img the encoded image
+	 * @return either FORMAT_PNG or FORMAT_BMP
+	 */
+	public static String getFormat(byte[] img) {
+		return img!=null && img.length>0 && img[0]==PNG_SIGNATURE[0]?FORMAT_PNG:FORMAT_BMP;
+	}
+	
+	/**
+	 * Returns the processor to encode: composite images are encoded as they are displayed, as RGB, the other ones from their current slice
+	 * @param ip the ImagePlus to encode
+	 * @return the processor to encode
+	 */
+	private static ImageProcessor getProcessor(ImagePlus ip) {
+		if(ip.isComposite() && ip.getNChannels()>1) return new ColorProcessor(ip.getImage());
+		return ip.getProcessor();
+	}
+	
+	/**
+	 * Encodes the current slice of the input ImagePlus as a BMP file. Composite images are encoded as they are displayed, as RGB
+	 * @param ip the ImagePlus to encode
+	 * @return the BMP file, as a byte array
+	 */
+	public static byte[] toBMP(ImagePlus ip) {
+		return toBMP(getProcessor(ip));
+	}
+	
+	/**
+	 * Encodes the input ImageProcessor as a BMP file
+	 * @param ip the ImageProcessor to encode
+	 * @return the BMP file, as a byte array
+	 */
+	public static byte[] toBMP(ImageProcessor ip) {
+		if(ip instanceof ColorProcessor) return toBMP24((ColorProcessor) ip);
+		return toBMP8(ip.getBitDepth()==8?ip:ip.convertToByteProcessor(true));
+	}
+	
+	/**
+	 * Encodes an 8-bit ImageProcessor as a palette-based BMP file, the palette being its LUT
+	 * @param ip the 8-bit ImageProcessor to encode
+	 * @return the BMP file, as a byte array
+	 */
+	private static byte[] toBMP8(ImageProcessor ip) {
+		int width=ip.getWidth();
+		int height=ip.getHeight();
+		int stride=(width+3)&~3;
+		int offset=FILE_HEADER_SIZE+INFO_HEADER_SIZE+PALETTE_SIZE*4;
+		
+		byte[] out=new byte[offset+stride*height];
+		writeHeaders(out, width, height, 8, offset, stride*height);
+		
+		IndexColorModel cm=(IndexColorModel) ip.getColorModel();
+		int mapSize=cm.getMapSize();
+		int pos=FILE_HEADER_SIZE+INFO_HEADER_SIZE;
+		for(int i=0; i<PALETTE_SIZE; i++) {
+			int index=Math.min(i, mapSize-1);
+			out[pos++]=(byte) cm.getBlue(index);
+			out[pos++]=(byte) cm.getGreen(index);
+			out[pos++]=(byte) cm.getRed(index);
+			out[pos++]=(byte) 0xFF;
+		}
+		
+		//BMP rows are stored bottom-up
+		byte[] pixels=(byte[]) ip.getPixels();
+		for(int y=0; y<height; y++) System.arraycopy(pixels, (height-1-y)*width, out, offset+y*stride, width);
+		
+		return out;
+	}
+	
+	/**
+	 * Encodes an RGB ImageProcessor as a 24-bit BMP file
+	 * @param ip the RGB ImageProcessor to encode
+	 * @return the BMP file, as a byte array
+	 */
+	private static byte[] toBMP24(ColorProcessor ip) {
+		int width=ip.getWidth();
+		int height=ip.getHeight();
+		int stride=(width*3+3)&~3;
+		int offset=FILE_HEADER_SIZE+INFO_HEADER_SIZE;
+		
+		byte[] out=new byte[offset+stride*height];
+		writeHeaders(out, width, height, 24, offset, stride*height);
+		
+		//BMP rows are stored bottom-up, pixels as BGR
+		int[] pixels=(int[]) ip.getPixels();
+		for(int y=0; y<height; y++) {
+			int pos=offset+y*stride;
+			int index=(height-1-y)*width;
+			for(int x=0; x<width; x++) {
+				int c=pixels[index++];
+				out[pos++]=(byte) c;
+				out[pos++]=(byte) (c>>8);
+				out[pos++]=(byte) (c>>16);
+			}
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * Returns the size of the BMP file the input ImageProcessor would be encoded to
+	 * @param ip the ImageProcessor to encode
+	 * @return the size of the BMP file, in bytes
+	 */
+	private static int getBMPSize(ImageProcessor ip) {
+		if(ip instanceof ColorProcessor) return FILE_HEADER_SIZE+INFO_HEADER_SIZE+((ip.getWidth()*3+3)&~3)*ip.getHeight();
+		return FILE_HEADER_SIZE+INFO_HEADER_SIZE+PALETTE_SIZE*4+((ip.getWidth()+3)&~3)*ip.getHeight();
+	}
+	
+	/**
+	 * Encodes the input ImageProcessor as a PNG file: 8-bit images are written as greyscale when using a grey LUT, using
+	 * their LUT as palette otherwise
+	 * @param ip the ImageProcessor to encode
+	 * @param level the compression level, from 0 (no compression) to 9 (best compression)
+	 * @return the PNG file, as a byte array
+	 * @throws IOException in case the PNG file can't be written
+	 */
+	public static byte[] toPNG(ImageProcessor ip, int level) throws IOException {
+		boolean isRGB=ip instanceof ColorProcessor;
+		if(!isRGB && ip.getBitDepth()!=8) ip=ip.convertToByteProcessor(true);
+		
+		int width=ip.getWidth();
+		int height=ip.getHeight();
+		int bpp=isRGB?3:1;
+		IndexColorModel cm=isRGB?null:(IndexColorModel) ip.getColorModel();
+		boolean isGrey=!isRGB && isGreyLUT(cm);
+		
+		ByteArrayOutputStream baos=new ByteArrayOutputStream(width*height*bpp/2+1024);
+		DataOutputStream out=new DataOutputStream(baos);
+		out.write(PNG_SIGNATURE);
+		
+		ByteArrayOutputStream chunk=new ByteArrayOutputStream();
+		DataOutputStream chunkOut=new DataOutputStream(chunk);
+		chunkOut.writeInt(width);
+		chunkOut.writeInt(height);
+		chunkOut.writeByte(8);
+		chunkOut.writeByte(isRGB?2:(isGrey?0:3));
+		chunkOut.writeByte(0);
+		chunkOut.writeByte(0);
+		chunkOut.writeByte(0);
+		writeChunk(out, "IHDR", chunk.toByteArray());
+		
+		if(!isRGB && !isGrey) {
+			byte[] palette=new byte[cm.getMapSize()*3];
+			for(int i=0; i<cm.getMapSize(); i++) {
+				palette[i*3]=(byte) cm.getRed(i);
+				palette[i*3+1]=(byte) cm.getGreen(i);
+				palette[i*3+2]=(byte) cm.getBlue(i);
+			}
+			writeChunk(out, "PLTE", palette);
+		}
+		
+		chunk.reset();
+		Deflater deflater=new Deflater(Math.max(0, Math.min(9, level)));
+		try {
+			DeflaterOutputStream dos=new DeflaterOutputStream(chunk, deflater, 65536);
+			int rowSize=width*bpp;
+			byte[] previous=new byte[rowSize];
+			byte[] current=new byte[rowSize];
+			byte[][] filtered=new byte[5][rowSize+1];
+			
+			for(int y=0; y<height; y++) {
+				getRow(ip, y, current);
+				dos.write(filterRow(current, previous, bpp, filtered));
+				byte[] tmp=previous;
+				previous=current;
+				current=tmp;
+			}
+			dos.finish();
+		} finally {
+			deflater.end();
+		}
+		writeChunk(out, "IDAT", chunk.toByteArray());
+		writeChunk(out, "IEND", new byte[0]);
+		
+		out.flush();
+		return baos.toByteArray();
+	}
+	
+	/**
+	 * Checks if the input LUT is the plain grey LUT
+	 * @param cm the LUT to check
+	 * @return true if the LUT maps each index to the same grey level
+	 */
+	private static boolean isGreyLUT(IndexColorModel cm) {
+		if(cm.getMapSize()!=PALETTE_SIZE) return false;
+		for(int i=0; i<PALETTE_SIZE; i++) if(cm.getRed(i)!=i || cm.getGreen(i)!=i || cm.getBlue(i)!=i) return false;
+		return true;
+	}
+	
+	/**
+	 * Copies a row of pixels as PNG samples (one byte per pixel for 8-bit images, RGB triplets for RGB images)
+	 * @param ip the ImageProcessor to read from
+	 * @param y the row index
+	 * @param row the array in which to copy the row
+	 */
+	private static void getRow(ImageProcessor ip, int y, byte[] row) {
+		int width=ip.getWidth();
+		if(ip instanceof ColorProcessor) {
+			int[] pixels=(int[]) ip.getPixels();
+			for(int x=0, index=y*width, pos=0; x<width; x++) {
+				int c=pixels[index++];
+				row[pos++]=(byte) (c>>16);
+				row[pos++]=(byte) (c>>8);
+				row[pos++]=(byte) c;
+			}
+		}else {
+			System.arraycopy((byte[]) ip.getPixels(), y*width, row, 0, width);
+		}
+	}
+	
+	/**
+	 * Filters a row using the five PNG filters and returns the one that minimizes the sum of absolute differences, a
+	 * good predictor of the best compression
+	 * @param row the row to filter
+	 * @param previous the previous row (all zeros for the first row)
+	 * @param bpp the number of bytes per pixel
+	 * @param filtered the arrays in which to store the filtered rows, preceded by the filter type
+	 * @return the best filtered row, preceded by its filter type
+	 */
+	private static byte[] filterRow(byte[] row, byte[] previous, int bpp, byte[][] filtered) {
+		int best=0;
+		long bestSum=Long.MAX_VALUE;
+		
+		for(int type=0; type<5; type++) {
+			byte[] f=filtered[type];
+			f[0]=(byte) type;
+			long sum=0;
+			for(int i=0; i<row.length; i++) {
+				int cur=row[i]&0xFF;
+				int left=i>=bpp?row[i-bpp]&0xFF:0;
+				int up=previous[i]&0xFF;
+				int upLeft=i>=bpp?previous[i-bpp]&0xFF:0;
+				
+				int pred;
+				switch(type) {
+					case 1: pred=left; break;
+					case 2: pred=up; break;
+					case 3: pred=(left+up)>>1; break;
+					case 4: pred=paeth(left, up, upLeft); break;
+					default: pred=0;
+				}
+				
+				byte value=(byte) (cur-pred);
+				f[i+1]=value;
+				sum+=Math.abs((int) value);
+			}
+			
+			if(sum<bestSum) {
+				bestSum=sum;
+				best=type;
+			}
+		}
+		
+		return filtered[best];
+	}
+	
+	/**
+	 * Paeth predictor, as defined by the PNG specification
+	 * @param a the left sample
+	 * @param b the upper sample
+	 * @param c the upper left sample
+	 * @return the predicted sample
+	 */
+	private static int paeth(int a, int b, int c) {
+		int p=a+b-c;
+		int pa=Math.abs(p-a);
+		int pb=Math.abs(p-b);
+		int pc=Math.abs(p-c);
+		if(pa<=pb && pa<=pc) return a;
+		if(pb<=pc) return b;
+		return c;
+	}
+	
+	/**
+	 * Writes a PNG chunk: length, type, data and CRC
+	 * @param out the stream to write to
+	 * @param type the chunk type
+	 * @param data the chunk data
+	 * @throws IOException in case the chunk can't be written
+	 */
+	private static void writeChunk(DataOutputStream out, String type, byte[] data) throws IOException {
+		byte[] typeBytes=type.getBytes("US-ASCII");
+		CRC32 crc=new CRC32();
+		crc.update(typeBytes);
+		crc.update(data);
+		
+		out.writeInt(data.length);
+		out.write(typeBytes);
+		out.write(data);
+		out.writeInt((int) crc.getValue());
+	}
+	
+	/**
+	 * Writes the BMP file and info headers
+	 * @param out the array in which to write the headers
+	 * @param width the image width
+	 * @param height the image height
+	 * @param bitCount the number of bits per pixel
+	 * @param offset the offset of the pixels data within the file
+	 * @param imageSize the size of the pixels data
+	 */
+	private static void writeHeaders(byte[] out, int width, int height, int bitCount, int offset, int imageSize) {
+		out[0]='B';
+		out[1]='M';
+		writeInt(out, 2, out.length);
+		writeInt(out, 10, offset);
+		
+		writeInt(out, 14, INFO_HEADER_SIZE);
+		writeInt(out, 18, width);
+		writeInt(out, 22, height);
+		writeShort(out, 26, 1);
+		writeShort(out, 28, bitCount);
+		writeInt(out, 30, 0);
+		writeInt(out, 34, imageSize);
+		//Number of important colours: set as ImageIO does, so that the output is byte-identical to the former encoding
+		writeInt(out, 50, bitCount==8?PALETTE_SIZE:0);
+	}
+	
+	/**
+	 * Writes a little endian int to the array
+	 * @param out the array to write to
+	 * @param pos the position at which to write
+	 * @param value the value to write
+	 */
+	private static void writeInt(byte[] out, int pos, int value) {
+		out[pos]=(byte) value;
+		out[pos+1]=(byte) (value>>8);
+		out[pos+2]=(byte) (value>>16);
+		out[pos+3]=(byte) (value>>24);
+	}
+	
+	/**
+	 * Writes a little endian short to the array
+	 * @param out the array to write to
+	 * @param pos the position at which to write
+	 * @param value the value to write
+	 */
+	private static void writeShort(byte[] out, int pos, int value) {
+		out[pos]=(byte) value;
+		out[pos+1]=(byte) (value>>8);
+	}
+}
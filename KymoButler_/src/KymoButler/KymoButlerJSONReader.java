@@ -0,0 +1,523 @@
+/**
+*
+*  KymoButlerJSONReader.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class is a minimal pull parser for JSON content: it reads tokens one at a time from a stream, without ever building
+ * the full document in memory. Numbers are decoded straight to primitive doubles.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerJSONReader {
+	/** Token type: beginning of an object **/
+	public static final int BEGIN_OBJECT=0;
+	
+	/** Token type: end of an object **/
+	public static final int END_OBJECT=1;
+	
+	/** Token type: beginning of an array **/
+	public static final int BEGIN_ARRAY=2;
+	
+	/** Token type: end of an array **/
+	public static final int END_ARRAY=3;
+	
+	/** Token type: a field name **/
+	public static final int NAME=4;
+	
+	/** Token type: a String **/
+	public static final int STRING=5;
+	
+	/** Token type: a number **/
+	public static final int NUMBER=6;
+	
+	/** Token type: a boolean **/
+	public static final int BOOLEAN=7;
+	
+	/** Token type: null **/
+	public static final int NULL=8;
+	
+	/** Token type: end of the stream **/
+	public static final int END_DOCUMENT=9;
+	
+	/** Powers of ten, used to decode numbers **/
+	private static final double[] POW10=new double[23];
+	
+	static {
+		POW10[0]=1;
+		for(int i=1; i<POW10.length; i++) POW10[i]=POW10[i-1]*10;
+	}
+	
+	/** The source of characters **/
+	Reader in;
+	
+	/** Characters buffer **/
+	char[] buffer=new char[65536];
+	
+	/** Position of the next character to read in the buffer **/
+	int pos=0;
+	
+	/** Number of valid characters in the buffer **/
+	int limit=0;
+	
+	/** Number of characters consumed before the current buffer **/
+	long consumed=0;
+	
+	/** Nesting stack: true for an object, false for an array **/
+	boolean[] stack=new boolean[32];
+	
+	/** Nesting stack: true if the next object element is a name **/
+	boolean[] expectName=new boolean[32];
+	
+	/** Current depth in the nesting stack **/
+	int depth=0;
+	
+	
+	
+	/**
+	 * Builds a new reader, decoding the input stream as UTF-8
+	 * @param in the stream to read JSON content from
+	 */
+	public KymoButlerJSONReader(InputStream in) {
+		this(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * Builds a new reader
+	 * @param in the reader to read JSON content from
+	 */
+	public KymoButlerJSONReader(Reader in) {
+		this.in=in;
+	}
+	
+	/**
+	 * Returns the type of the next token, without consuming it
+	 * @return the type of the next token
+	 * @throws IOException in case the stream can't be read or is not JSON formatted
+	 */
+	public int peek() throws IOException {
+		int c=nextNonWhitespace();
+		
+		//Separators between elements are transparent to the caller
+		if(c==',' || c==':') {
+			pos++;
+			c=nextNonWhitespace();
+		}
+		
+		switch(c) {
+			case -1: return END_DOCUMENT;
+			case '{': return BEGIN_OBJECT;
+			case '}': return END_OBJECT;
+			case '[': return BEGIN_ARRAY;
+			case ']': return END_ARRAY;
+			case '"': return depth>0 && stack[depth-1] && expectName[depth-1]?NAME:STRING;
+			case 't': case 'f': return BOOLEAN;
+			case 'n': return NULL;
+			default: return NUMBER;
+		}
+	}
+	
+	/**
+	 * Checks if the current array or object has more elements
+	 * @return true if the current array or object has more elements, false otherwise
+	 * @throws IOException in case the stream can't be read or is not JSON formatted
+	 */
+	public boolean hasNext() throws IOException {
+		int token=peek();
+		return token!=END_ARRAY && token!=END_OBJECT && token!=END_DOCUMENT;
+	}
+	
+	/**
+	 * Consumes the beginning of an object
+	 * @throws IOException in case the stream can't be read or the next token is not the beginning of an object
+	 */
+	public void beginObject() throws IOException {
+		expect(BEGIN_OBJECT);
+		push(true);
+	}
+	
+	/**
+	 * Consumes the end of an object
+	 * @throws IOException in case the stream can't be read or the next token is not the end of an object
+	 */
+	public void endObject() throws IOException {
+		expect(END_OBJECT);
+		depth--;
+		valueRead();
+	}
+	
+	/**
+	 * Consumes the beginning of an array
+	 * @throws IOException in case the stream can't be read or the next token is not the beginning of an array
+	 */
+	public void beginArray() throws IOException {
+		expect(BEGIN_ARRAY);
+		push(false);
+	}
+	
+	/**
+	 * Consumes the end of an array
+	 * @throws IOException in case the stream can't be read or the next token is not the end of an array
+	 */
+	public void endArray() throws IOException {
+		expect(END_ARRAY);
+		depth--;
+		valueRead();
+	}
+	
+	/**
+	 * Consumes the next field name
+	 * @return the field name
+	 * @throws IOException in case the stream can't be read or the next token is not a field name
+	 */
+	public String nextName() throws IOException {
+		if(peek()!=NAME) throw syntaxError("Expected a field name");
+		String name=readString();
+		expectName[depth-1]=false;
+		return name;
+	}
+	
+	/**
+	 * Consumes the next String
+	 * @return the String
+	 * @throws IOException in case the stream can't be read or the next token is not a String
+	 */
+	public String nextString() throws IOException {
+		if(peek()!=STRING) throw syntaxError("Expected a String");
+		String out=readString();
+		valueRead();
+		return out;
+	}
+	
+	/**
+	 * Consumes the next boolean
+	 * @return the boolean
+	 * @throws IOException in case the stream can't be read or the next token is not a boolean
+	 */
+	public boolean nextBoolean() throws IOException {
+		if(peek()!=BOOLEAN) throw syntaxError("Expected a boolean");
+		boolean out=buffer[pos]=='t';
+		readLiteral(out?"true":"false");
+		valueRead();
+		return out;
+	}
+	
+	/**
+	 * Consumes the next number, decoding it without any intermediate String
+	 * @return the number, as a double (NaN in case of a null value)
+	 * @throws IOException in case the stream can't be read or the next token is not a number, i.e. has no digit in its
+	 * integer or fractional part, or none in its exponent
+	 */
+	public double nextDouble() throws IOException {
+		int token=peek();
+		if(token==NULL) {
+			readLiteral("null");
+			valueRead();
+			return Double.NaN;
+		}
+		if(token!=NUMBER) throw syntaxError("Expected a number");
+		
+		boolean negative=false;
+		long mantissa=0;
+		int nDigits=0;
+		int nRead=0;
+		int exponent=0;
+		
+		int c=read();
+		if(c=='-' || c=='+') {
+			negative=c=='-';
+			c=read();
+		}
+		
+		while(c>='0' && c<='9') {
+			if(nDigits<18) {
+				mantissa=mantissa*10+(c-'0');
+				if(mantissa!=0) nDigits++;
+			}else {
+				exponent++;
+			}
+			nRead++;
+			c=read();
+		}
+		
+		if(c=='.') {
+			c=read();
+			while(c>='0' && c<='9') {
+				if(nDigits<18) {
+					mantissa=mantissa*10+(c-'0');
+					if(mantissa!=0) nDigits++;
+					exponent--;
+				}
+				nRead++;
+				c=read();
+			}
+		}
+		if(nRead==0) throw syntaxError("Expected a number");
+		
+		if(c=='e' || c=='E') {
+			int expSign=1;
+			int exp=0;
+			c=read();
+			if(c=='-' || c=='+') {
+				expSign=c=='-'?-1:1;
+				c=read();
+			}
+			if(c<'0' || c>'9') throw syntaxError("Expected the exponent's digits");
+			while(c>='0' && c<='9') {
+				exp=exp*10+(c-'0');
+				c=read();
+			}
+			exponent+=expSign*exp;
+		}
+		
+		if(c!=-1) pos--;
+		valueRead();
+		
+		double value=mantissa;
+		if(exponent>0) {
+			value=exponent<POW10.length?value*POW10[exponent]:value*Math.pow(10, exponent);
+		}else if(exponent<0) {
+			value=-exponent<POW10.length?value/POW10[-exponent]:value/Math.pow(10, -exponent);
+		}
+		
+		return negative?-value:value;
+	}
+	
+	/**
+	 * Skips the next value, including all nested arrays/objects, without decoding it
+	 * @throws IOException in case the stream can't be read or is not JSON formatted
+	 */
+	public void skipValue() throws IOException {
+		int token=peek();
+		
+		if(token==NAME) {
+			nextName();
+			token=peek();
+		}
+		
+		switch(token) {
+			case BEGIN_OBJECT:
+			case BEGIN_ARRAY:
+				pos++;
+				int level=1;
+				boolean inString=false;
+				boolean escaped=false;
+				
+				//Scans the buffer directly: the content of the value is never decoded
+				while(level>0) {
+					if(pos==limit && !fill()) throw syntaxError("Unexpected end of content");
+					char[] buf=buffer;
+					int p=pos;
+					int end=limit;
+					while(p<end && level>0) {
+						char c=buf[p++];
+						if(inString) {
+							if(escaped) {
+								escaped=false;
+							}else if(c=='\\') {
+								escaped=true;
+							}else if(c=='"') {
+								inString=false;
+							}
+						}else if(c=='"') {
+							inString=true;
+						}else if(c=='[' || c=='{') {
+							level++;
+						}else if(c==']' || c=='}') {
+							level--;
+						}
+					}
+					pos=p;
+				}
+				valueRead();
+				break;
+			case STRING: nextString(); break;
+			case BOOLEAN: nextBoolean(); break;
+			case NULL:
+			case NUMBER: nextDouble(); break;
+			default: throw syntaxError("Unexpected token");
+		}
+	}
+	
+	/**
+	 * Closes the underlying reader
+	 * @throws IOException in case the reader can't be closed
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+	
+	/**
+	 * Returns the number of characters read so far
+	 * @return the number of characters read so far
+	 */
+	public long getPosition() {
+		return consumed+pos;
+	}
+	
+	/**
+	 * Checks the next token is of the expected type and consumes it
+	 * @param token the expected token type
+	 * @throws IOException in case the stream can't be read or the next token is not of the expected type
+	 */
+	private void expect(int token) throws IOException {
+		if(peek()!=token) throw syntaxError("Unexpected token");
+		pos++;
+	}
+	
+	/**
+	 * Pushes a new level in the nesting stack
+	 * @param isObject true for an object, false for an array
+	 */
+	private void push(boolean isObject) {
+		if(depth==stack.length) {
+			stack=java.util.Arrays.copyOf(stack, depth*2);
+			expectName=java.util.Arrays.copyOf(expectName, depth*2);
+		}
+		stack[depth]=isObject;
+		expectName[depth]=true;
+		depth++;
+	}
+	
+	/**
+	 * Records a value has been read: if within an object, the next element is a name
+	 */
+	private void valueRead() {
+		if(depth>0) expectName[depth-1]=true;
+	}
+	
+	/**
+	 * Reads a quoted String, handling escape sequences
+	 * @return the unquoted String
+	 * @throws IOException in case the stream can't be read or the String is not properly terminated
+	 */
+	private String readString() throws IOException {
+		pos++;
+		StringBuilder sb=new StringBuilder();
+		
+		while(true) {
+			int c=read();
+			if(c==-1) throw syntaxError("Unterminated String");
+			if(c=='"') return sb.toString();
+			
+			if(c=='\\') {
+				c=read();
+				switch(c) {
+					case 'n': sb.append('\n'); break;
+					case 't': sb.append('\t'); break;
+					case 'r': sb.append('\r'); break;
+					case 'b': sb.append('\b'); break;
+					case 'f': sb.append('\f'); break;
+					case 'u':
+						int code=0;
+						for(int i=0; i<4; i++) code=(code<<4)+Character.digit(read(), 16);
+						sb.append((char) code);
+						break;
+					default: sb.append((char) c);
+				}
+			}else {
+				sb.append((char) c);
+			}
+		}
+	}
+	
+	/**
+	 * Consumes the input literal (true, false, null)
+	 * @param literal the expected literal
+	 * @throws IOException in case the stream can't be read or doesn't contain the literal
+	 */
+	private void readLiteral(String literal) throws IOException {
+		for(int i=0; i<literal.length(); i++) if(read()!=literal.charAt(i)) throw syntaxError("Expected "+literal);
+	}
+	
+	/**
+	 * Returns the next non whitespace character, without consuming it
+	 * @return the next non whitespace character, -1 at the end of the stream
+	 * @throws IOException in case the stream can't be read
+	 */
+	private int nextNonWhitespace() throws IOException {
+		while(true) {
+			if(pos==limit && !fill()) return -1;
+			char c=buffer[pos];
+			if(c!=' ' && c!='\n' && c!='\r' && c!='\t') return c;
+			pos++;
+		}
+	}
+	
+	/**
+	 * Consumes the next character
+	 * @return the next character, -1 at the end of the stream
+	 * @throws IOException in case the stream can't be read
+	 */
+	private int read() throws IOException {
+		if(pos==limit && !fill()) return -1;
+		return buffer[pos++];
+	}
+	
+	/**
+	 * Refills the characters buffer
+	 * @return true if some characters were read, false at the end of the stream
+	 * @throws IOException in case the stream can't be read
+	 */
+	private boolean fill() throws IOException {
+		consumed+=limit;
+		pos=0;
+		limit=0;
+		int n=in.read(buffer, 0, buffer.length);
+		if(n<=0) return false;
+		limit=n;
+		return true;
+	}
+	
+	/**
+	 * Builds an exception reporting a syntax error at the current position. Also used by KymoButlerResponseParser to
+	 * report content that doesn't match the expected layout
+	 * @param msg the error message
+	 * @return a MalformedException reporting a syntax error at the current position
+	 */
+	MalformedException syntaxError(String msg) {
+		return new MalformedException(msg+" at position "+getPosition()+" of the JSON content");
+	}
+	
+	/**
+	 * Exception reporting content that is not JSON formatted, as opposed to a stream that can't be read
+	 */
+	public static class MalformedException extends IOException {
+		/** Serial version UID **/
+		private static final long serialVersionUID=1L;
+		
+		/**
+		 * Builds a new exception
+		 * @param message the message describing the syntax error
+		 */
+		public MalformedException(String message) {
+			super(message);
+		}
+	}
+}
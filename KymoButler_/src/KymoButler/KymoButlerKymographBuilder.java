@@ -0,0 +1,181 @@
+/**
+*
+*  KymoButlerKymographBuilder.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.util.stream.IntStream;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Roi;
+import ij.measure.Calibration;
+import ij.process.FloatPolygon;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * This class is aimed at building kymographs from a time-lapse movie, along line ROIs (straight, segmented or freehand
+ * lines), without writing or displaying any intermediate image. Each kymograph has one column per pixel along the line and
+ * one row per timepoint, as expected by KymoButler. All kymographs are sampled at once, the timepoints being split between
+ * threads so that each frame is read only once.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerKymographBuilder {
+	/** Property of the kymographs holding the name of the ROI they were sampled along **/
+	public static final String SOURCE_PROPERTY="KymoButler_source";
+	
+	
+	
+	/**
+	 * Utility class: not meant to be instantiated
+	 */
+	private KymoButlerKymographBuilder() {}
+	
+	/**
+	 * Returns the number of timepoints of a movie: its frames, or its slices if it has a single frame
+	 * @param movie the movie
+	 * @return the number of timepoints
+	 */
+	public static int getNTimepoints(ImagePlus movie) {
+		return movie.getNFrames()>1?movie.getNFrames():movie.getNSlices();
+	}
+	
+	/**
+	 * Builds a kymograph along a line ROI
+	 * @param movie the movie, sampled on its current channel (and slice, if it has several frames)
+	 * @param roi the line ROI
+	 * @param lineWidth the width of the line, in pixels: pixels across the line are averaged
+	 * @return the kymograph, or null if the ROI is not a line
+	 */
+	public static ImagePlus build(ImagePlus movie, Roi roi, int lineWidth) {
+		return build(movie, new Roi[] {roi}, lineWidth)[0];
+	}
+	
+	/**
+	 * Builds kymographs along line ROIs. Each kymograph is named after its ROI, the ROI's name also being stored as its
+	 * SOURCE_PROPERTY property
+	 * @param movie the movie, sampled on its current channel (and slice, if it has several frames)
+	 * @param rois the line ROIs
+	 * @param lineWidth the width of the lines, in pixels: pixels across the lines are averaged
+	 * @return the kymographs, one per ROI, null for the ROIs that are not lines
+	 */
+	public static ImagePlus[] build(final ImagePlus movie, Roi[] rois, final int lineWidth) {
+		final int nTimepoints=getNTimepoints(movie);
+		final FloatPolygon[] paths=new FloatPolygon[rois.length];
+		final float[][][] normals=new float[rois.length][][];
+		final float[][] pixels=new float[rois.length][];
+		
+		for(int i=0; i<rois.length; i++) {
+			if(rois[i]==null || !rois[i].isLine()) continue;
+			
+			paths[i]=rois[i].getInterpolatedPolygon(1.0, false);
+			normals[i]=getNormals(paths[i]);
+			pixels[i]=new float[paths[i].npoints*nTimepoints];
+		}
+		
+		final ImageStack stack=movie.getStack();
+		final int channel=movie.getChannel();
+		final int slice=movie.getNFrames()>1?movie.getSlice():1;
+		
+		IntStream.range(0, nTimepoints).parallel().forEach(t -> {
+			int index=movie.getNFrames()>1?movie.getStackIndex(channel, slice, t+1):movie.getStackIndex(channel, t+1, 1);
+			
+			//Virtual stacks read the frames from disk, one at a time
+			ImageProcessor frame;
+			synchronized(stack) {
+				frame=stack.getProcessor(index);
+			}
+			
+			for(int i=0; i<paths.length; i++) {
+				if(paths[i]!=null) sample(frame, paths[i], normals[i], lineWidth, pixels[i], t*paths[i].npoints);
+			}
+		});
+		
+		Calibration cal=movie.getCalibration();
+		ImagePlus[] out=new ImagePlus[rois.length];
+		for(int i=0; i<rois.length; i++) {
+			if(paths[i]==null) continue;
+			
+			String name=rois[i].getName()!=null?rois[i].getName():"ROI_"+(i+1);
+			out[i]=new ImagePlus("Kymograph_"+name, new FloatProcessor(paths[i].npoints, nTimepoints, pixels[i]));
+			out[i].setProperty(SOURCE_PROPERTY, name);
+			
+			Calibration kymographCal=out[i].getCalibration();
+			kymographCal.pixelWidth=cal.pixelWidth;
+			kymographCal.pixelHeight=cal.frameInterval>0?cal.frameInterval:1;
+			kymographCal.setXUnit(cal.getXUnit());
+			kymographCal.setYUnit(cal.frameInterval>0?cal.getTimeUnit():"frame");
+		}
+		
+		return out;
+	}
+	
+	/**
+	 * Computes the unit normal to the path at each of its points, from the direction between its neighbours
+	 * @param path the path, with points evenly spaced
+	 * @return the normal at each point, as x and y arrays
+	 */
+	static float[][] getNormals(FloatPolygon path) {
+		int n=path.npoints;
+		float[][] normals=new float[2][n];
+		
+		for(int i=0; i<n; i++) {
+			int previous=Math.max(0, i-1);
+			int next=Math.min(n-1, i+1);
+			double dx=path.xpoints[next]-path.xpoints[previous];
+			double dy=path.ypoints[next]-path.ypoints[previous];
+			double length=Math.sqrt(dx*dx+dy*dy);
+			
+			if(length>0) {
+				normals[0][i]=(float) (-dy/length);
+				normals[1][i]=(float) (dx/length);
+			}
+		}
+		
+		return normals;
+	}
+	
+	/**
+	 * Samples one timepoint along the path, averaging the pixels across the line
+	 * @param frame the frame to sample
+	 * @param path the path, with points evenly spaced
+	 * @param normals the unit normal to the path at each point
+	 * @param lineWidth the width of the line, in pixels
+	 * @param row the kymograph's pixels
+	 * @param offset the index of the timepoint's first pixel in the kymograph
+	 */
+	static void sample(ImageProcessor frame, FloatPolygon path, float[][] normals, int lineWidth, float[] row, int offset) {
+		int width=Math.max(1, lineWidth);
+		double start=-(width-1)/2.0;
+		
+		for(int i=0; i<path.npoints; i++) {
+			double sum=0;
+			for(int j=0; j<width; j++) {
+				double shift=start+j;
+				sum+=frame.getInterpolatedValue(path.xpoints[i]+shift*normals[0][i], path.ypoints[i]+shift*normals[1][i]);
+			}
+			row[offset+i]=(float) (sum/width);
+		}
+	}
+}
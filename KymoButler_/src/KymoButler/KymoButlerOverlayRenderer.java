@@ -0,0 +1,111 @@
+/**
+*
+*  KymoButlerOverlayRenderer.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.awt.Color;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * This class is aimed at rendering the overlay image locally, drawing the tracks over the kymograph, rather than
+ * retrieving it from the KymoButler server
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerOverlayRenderer {
+	/** Golden ratio conjugate, used to spread the tracks' hues **/
+	private static final float HUE_STEP=0.618034f;
+	
+	
+	
+	/**
+	 * Utility class: not meant to be instantiated
+	 */
+	private KymoButlerOverlayRenderer() {}
+	
+	/**
+	 * Renders the overlay: the kymograph is displayed in greys, each track being drawn with its own colour
+	 * @param kymograph the kymograph, as returned by the KymoButler server
+	 * @param tracks the tracks, as returned by the KymoButler server
+	 * @return the overlay, as an RGB ImagePlus, or null if no kymograph was provided
+	 */
+	public static ImagePlus render(ImagePlus kymograph, Roi[] tracks) {
+		if(kymograph==null) return null;
+		
+		ImageProcessor ip=kymograph.getProcessor().duplicate();
+		ip.resetMinAndMax();
+		ColorProcessor cp=(ColorProcessor) ip.convertToByteProcessor(true).convertToRGB();
+		
+		if(tracks!=null) {
+			for(int i=0; i<tracks.length; i++) {
+				if(tracks[i]==null) continue;
+				cp.setColor(getTrackColor(i));
+				cp.draw(tracks[i]);
+			}
+		}
+		
+		return new ImagePlus("Overlay", cp);
+	}
+	
+	/**
+	 * Renders the overlay: the kymograph is displayed in greys, each track being drawn with its own colour, straight from
+	 * the tracks' coordinates
+	 * @param kymograph the kymograph, as returned by the KymoButler server
+	 * @param tracks the tracks, as returned by the KymoButler server
+	 * @return the overlay, as an RGB ImagePlus, or null if no kymograph was provided
+	 */
+	public static ImagePlus render(ImagePlus kymograph, KymoButlerTracks tracks) {
+		if(kymograph==null) return null;
+		
+		ImageProcessor ip=kymograph.getProcessor().duplicate();
+		ip.resetMinAndMax();
+		ColorProcessor cp=(ColorProcessor) ip.convertToByteProcessor(true).convertToRGB();
+		
+		if(tracks!=null) {
+			for(int i=0; i<tracks.size(); i++) {
+				int start=tracks.getStart(i);
+				int end=tracks.getEnd(i);
+				if(end==start) continue;
+				
+				cp.setColor(getTrackColor(i));
+				cp.moveTo(Math.round(tracks.getPosition(start)), Math.round(tracks.getTime(start)));
+				for(int j=start; j<end; j++) cp.lineTo(Math.round(tracks.getPosition(j)), Math.round(tracks.getTime(j)));
+			}
+		}
+		
+		return new ImagePlus("Overlay", cp);
+	}
+	
+	/**
+	 * Returns the colour used to draw a track: consecutive tracks get well separated, saturated hues
+	 * @param index the index of the track
+	 * @return the colour to use for the track
+	 */
+	public static Color getTrackColor(int index) {
+		return Color.getHSBColor((index*HUE_STEP)%1f, 1f, 1f);
+	}
+}
@@ -0,0 +1,266 @@
+/**
+*
+*  KymoButlerQuotaScheduler.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ConnectTimeoutException;
+
+import ij.IJ;
+import ij.Prefs;
+
+/**
+ * This class is aimed at fitting the submissions of a batch to the quota granted by the KymoButler webapp: the number of
+ * kymographs left is retrieved from the server, then kept up to date as requests are sent and responses received. Once
+ * the quota is exhausted, submissions are either paused until the server grants new kymographs, or stopped.
+ * It also projects the completion time of the remaining queue, based on the throughput observed so far.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerQuotaScheduler {
+	/** Default interval between two checks of the quota while paused, in seconds **/
+	public static final int DEFAULT_POLL_INTERVAL=300;
+	
+	/** The KymoButler API URL **/
+	String URL;
+	
+	/** Number of kymographs left, -1 if the server doesn't report it **/
+	int kymographsLeft=-1;
+	
+	/** Maximum number of kymographs, -1 if the server doesn't report it **/
+	int maxKymographs=-1;
+	
+	/** Number of requests sent against the quota and not answered yet **/
+	int inFlight=0;
+	
+	/** Time at which the first request was sent, in milliseconds **/
+	long start=-1;
+	
+	/** Total time spent paused, waiting for the quota to be renewed, in milliseconds **/
+	long pausedTime=0;
+	
+	/** Number of requests completed so far **/
+	int nCompleted=0;
+	
+	/** True if a request may have used the quota without the server reporting it: the quota is retrieved again before booking **/
+	boolean stale=false;
+	
+	
+	
+	/**
+	 * Builds a new scheduler for the input API
+	 * @param URL the KymoButler API URL
+	 */
+	public KymoButlerQuotaScheduler(String URL) {
+		this.URL=URL;
+	}
+	
+	/**
+	 * Returns the interval between two checks of the quota while paused
+	 * @return the interval between two checks of the quota, in seconds
+	 */
+	public static int getPollInterval() {
+		return Math.max(1, (int) Prefs.get("KymoButler_quotaPoll.double", DEFAULT_POLL_INTERVAL));
+	}
+	
+	/**
+	 * Retrieves the quota from the server. Requests in flight are deducted from the number of kymographs left
+	 * @return true if the server reported the number of kymographs left, false otherwise
+	 */
+	public boolean refresh() {
+		KymoButlerIO io=new KymoButlerIO();
+		io.setURL(URL);
+		
+		try {
+			KymoButlerResult result=io.submitStatistics().get();
+			KymoButlerResponseParser pkr=result.getParser();
+			if(pkr==null || !pkr.hasKymographsLeft()) return false;
+			
+			synchronized(this) {
+				kymographsLeft=Math.max(0, pkr.getKymographsLeft()-inFlight);
+				if(pkr.hasMaxKymographs()) maxKymographs=pkr.getMaxKymographs();
+			}
+			return true;
+		} catch (Exception e) {
+			IJ.log("The quota could not be retrieved from the server: "+(e.getCause()!=null?e.getCause().getMessage():e.getMessage()));
+			return false;
+		}
+	}
+	
+	/**
+	 * Checks if the server reported a quota
+	 * @return true if the number of kymographs left is known
+	 */
+	public synchronized boolean isLimited() {
+		return kymographsLeft>=0;
+	}
+	
+	/**
+	 * Returns the number of kymographs left, requests in flight deducted
+	 * @return the number of kymographs left, or -1 if the server doesn't report it
+	 */
+	public synchronized int getKymographsLeft() {
+		return kymographsLeft;
+	}
+	
+	/**
+	 * Returns the maximum number of kymographs granted by the server
+	 * @return the maximum number of kymographs, or -1 if the server doesn't report it
+	 */
+	public synchronized int getMaxKymographs() {
+		return maxKymographs;
+	}
+	
+	/**
+	 * Books one kymograph from the quota before sending a request. If the quota is exhausted, either waits for the server
+	 * to grant new kymographs, checking every getPollInterval() seconds, or returns right away. Pressing escape stops waiting
+	 * @param wait true to wait for the quota to be renewed, false to return right away
+	 * @return true if the request may be sent, false if the quota is exhausted or the user pressed escape
+	 */
+	public boolean acquire(boolean wait) {
+		boolean refresh;
+		synchronized(this) {
+			refresh=stale;
+			stale=false;
+		}
+		if(refresh) refresh();
+		
+		while(true) {
+			synchronized(this) {
+				if(start==-1) start=System.currentTimeMillis();
+				if(kymographsLeft!=0) {
+					if(kymographsLeft>0) kymographsLeft--;
+					inFlight++;
+					return true;
+				}
+			}
+			
+			if(!wait || !pause()) return false;
+			refresh();
+		}
+	}
+	
+	/**
+	 * Waits for the poll interval, displaying the time of the next quota check in the status bar
+	 * @return false if the user pressed escape, true otherwise
+	 */
+	private boolean pause() {
+		long pauseStart=System.currentTimeMillis();
+		long nextCheck=pauseStart+getPollInterval()*1000L;
+		String nextCheckTime=new SimpleDateFormat("HH:mm:ss").format(new Date(nextCheck));
+		
+		try {
+			while(System.currentTimeMillis()<nextCheck) {
+				if(IJ.escapePressed()) return false;
+				IJ.showStatus("KymoButler quota exhausted: paused, next check at "+nextCheckTime+" (press Esc to stop)");
+				TimeUnit.MILLISECONDS.sleep(250);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			return false;
+		} finally {
+			synchronized(this) {
+				pausedTime+=System.currentTimeMillis()-pauseStart;
+			}
+		}
+	}
+	
+	/**
+	 * Releases the kymograph booked by acquire once the request is done, updating the quota from the server's response. The
+	 * kymograph is only given back if the request never left the client; if the server may have received it (deadline,
+	 * cancellation, communication error), the quota is retrieved again before the next booking
+	 * @param result the server's response, or null if the request failed
+	 * @param error the reason why the request failed, or null if it got a response
+	 */
+	public void release(KymoButlerResult result, Throwable error) {
+		KymoButlerResponseParser pkr=result==null?null:result.getParser();
+		
+		synchronized(this) {
+			inFlight--;
+			nCompleted++;
+			
+			if(pkr!=null && pkr.hasKymographsLeft()) {
+				kymographsLeft=Math.max(0, pkr.getKymographsLeft()-inFlight);
+			}else if(result==null && !wasSent(error)) {
+				if(kymographsLeft>=0) kymographsLeft++;
+			}else {
+				stale=true;
+			}
+		}
+	}
+	
+	/**
+	 * Checks if a failed request may have reached the server: only requests rejected by the circuit breaker or failing to
+	 * connect are known not to have been sent
+	 * @param error the reason why the request failed
+	 * @return false if the request never left the client, true otherwise
+	 */
+	static boolean wasSent(Throwable error) {
+		Throwable cause=error;
+		while((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause()!=null) cause=cause.getCause();
+		
+		return !(cause instanceof KymoButlerCircuitBreaker.RejectedException || cause instanceof ConnectException
+				|| cause instanceof UnknownHostException || cause instanceof ConnectTimeoutException);
+	}
+	
+	/**
+	 * Records a request that was answered without using the quota (e.g. from the cache)
+	 */
+	public synchronized void recordCompletion() {
+		if(start==-1) start=System.currentTimeMillis();
+		nCompleted++;
+	}
+	
+	/**
+	 * Projects the completion time of the remaining queue, based on the throughput observed so far (time spent paused excluded)
+	 * @param nRemaining the number of kymographs left to analyse
+	 * @return the projected completion time, as a String, or an empty String if no request has been completed yet
+	 */
+	public synchronized String getProjection(int nRemaining) {
+		if(nCompleted==0 || start==-1) return "";
+		
+		long now=System.currentTimeMillis();
+		double timePerItem=(double) (now-start-pausedTime)/nCompleted;
+		String out=nRemaining+" kymograph(s) remaining, projected completion at "
+				+new SimpleDateFormat("HH:mm:ss").format(new Date(now+(long) (nRemaining*timePerItem)));
+		
+		if(kymographsLeft>=0 && nRemaining>kymographsLeft) out+=" ("+(nRemaining-kymographsLeft)+" waiting for the quota to be renewed)";
+		return out;
+	}
+	
+	/**
+	 * Returns the quota, as a String
+	 * @return the quota, as a String
+	 */
+	public synchronized String getStatistics() {
+		if(kymographsLeft<0) return "Quota: not reported by the server";
+		return "Quota: "+kymographsLeft+(maxKymographs>=0?"/"+maxKymographs:"")+" kymograph(s) left";
+	}
+}
@@ -23,9 +23,24 @@
 package KymoButler;
 
 
-import java.awt.Point;
+import java.awt.Component;
+import java.awt.Container;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.swing.DefaultListModel;
+import javax.swing.JList;
+import javax.swing.ListModel;
+
 import org.apache.commons.io.FileUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -33,13 +48,17 @@ import org.json.JSONObject;
 
 import ij.IJ;
 import ij.ImagePlus;
-import ij.gui.NewImage;
+import ij.ImageStack;
+import ij.gui.Overlay;
 import ij.gui.PolygonRoi;
 import ij.gui.Roi;
+import ij.io.RoiEncoder;
 import ij.measure.Calibration;
 import ij.plugin.HyperStackConverter;
 import ij.plugin.frame.RoiManager;
+import ij.process.ColorProcessor;
 import ij.process.FloatPolygon;
+import ij.process.FloatProcessor;
 
 /**
  * This class is aimed at parsing the JSON content from KymoButler into two images (kymograph and overlay) and a set of ROIs
@@ -47,9 +66,63 @@ import ij.process.FloatPolygon;
  *
  */
 public class KymoButlerResponseParser {
-	/** Stores the JSON content **/
+	/** Overlay type: one 32-bit channel per colour, displayed as a composite image **/
+	public static final String OVERLAY_COMPOSITE="Composite (32-bit)";
+	
+	/** Overlay type: a single RGB image, 8-bit per colour **/
+	public static final String OVERLAY_RGB="RGB (8-bit)";
+	
+	/** Overlay type: an RGB image rendered locally from the kymograph and the tracks, the overlay field being skipped **/
+	public static final String OVERLAY_LOCAL="Rendered locally (RGB)";
+	
+	/** All available overlay types **/
+	public static final String[] OVERLAY_TYPES=new String[] {OVERLAY_COMPOSITE, OVERLAY_RGB, OVERLAY_LOCAL};
+	
+	/** Property set on all tracks, telling them apart from user-drawn ROIs (e.g. in the RoiManager) **/
+	public static final String TRACK_PROPERTY="KymoButler_track";
+	
+	/** Number of rows below which decoding of the JSON arrays is not split further between threads **/
+	static final int ROWS_PER_TASK=32;
+	
+	/** Number of Rois from which the RoiManager's list is detached from its model while they are added **/
+	static final int BULK_INSERTION_THRESHOLD=100;
+	
+	/** Stores the JSON content (only the scalar fields when the response has been decoded from a stream) **/
 	JSONObject json=null;
 	
+	/** Kymograph pixels, decoded from a stream (null otherwise) **/
+	float[] kymographPixels=null;
+	
+	/** Kymograph dimensions, decoded from a stream **/
+	int kymographWidth=0, kymographHeight=0;
+	
+	/** Overlay type, either OVERLAY_COMPOSITE, OVERLAY_RGB or OVERLAY_LOCAL **/
+	String overlayType=OVERLAY_COMPOSITE;
+	
+	/** Overlay pixels, one array per channel, decoded from a stream as a composite (null otherwise) **/
+	float[][] overlayPixels=null;
+	
+	/** Overlay pixels, packed as RGB, decoded from a stream as an RGB image (null otherwise) **/
+	int[] overlayRGB=null;
+	
+	/** Overlay dimensions, decoded from a stream **/
+	int overlayWidth=0, overlayHeight=0;
+	
+	/** Tracks, decoded from a stream or converted from the JSON content on first use (null otherwise) **/
+	KymoButlerTracks tracks=null;
+	
+	/** Time spent building images, converting tracks and filling the RoiManager **/
+	KymoButlerTimings timings=new KymoButlerTimings();
+	
+	/** Position of the kymograph within its stack, the tracks being tagged with it (0 if the kymograph is not part of a stack) **/
+	int position=0;
+	
+	/** Position of the kymograph within its hyperstack, as channel, slice and frame (null if the kymograph is not part of a hyperstack) **/
+	int[] hyperstackPosition=null;
+	
+	/** Label of the kymograph, the tracks' names being prefixed with it (null if none) **/
+	String label=null;
+	
 	
 	/**
 	 * Builds a new parser, using the input path to get the JSON file
@@ -76,6 +149,212 @@ public class KymoButlerResponseParser {
 		json=new JSONObject(JSONContent);
 	}
 	
+	/**
+	 * Builds a new parser, decoding the JSON content straight from the input stream: the kymograph, overlay and tracks are
+	 * stored as primitive arrays, the full JSON document never being built in memory. The stream is read up to its end but not closed.
+	 * @param in the stream to read the JSON content from
+	 * @throws IOException in case the stream can't be read or its content is not JSON formatted
+	 */
+	public KymoButlerResponseParser(InputStream in) throws IOException {
+		this(in, OVERLAY_COMPOSITE);
+	}
+	
+	/**
+	 * Builds a new parser, decoding the JSON content straight from the input stream: the kymograph, overlay and tracks are
+	 * stored as primitive arrays, the full JSON document never being built in memory. The stream is read up to its end but not closed.
+	 * @param in the stream to read the JSON content from
+	 * @param overlayType the type of overlay to decode, either OVERLAY_COMPOSITE, OVERLAY_RGB or OVERLAY_LOCAL (in which case the
+	 * overlay field is skipped without being decoded)
+	 * @throws IOException in case the stream can't be read or its content is not JSON formatted
+	 */
+	public KymoButlerResponseParser(InputStream in, String overlayType) throws IOException {
+		json=new JSONObject();
+		setOverlayType(overlayType);
+		
+		KymoButlerJSONReader reader=new KymoButlerJSONReader(in);
+		reader.beginObject();
+		
+		while(reader.hasNext()) {
+			String field=reader.nextName();
+			
+			if(field.equals(KymoButlerFields.KYMOGRAPH_FIELD_TAG) && reader.peek()==KymoButlerJSONReader.BEGIN_ARRAY) {
+				decodeKymograph(reader);
+			}else if(field.equals(KymoButlerFields.OVERLAY_FIELD_TAG) && reader.peek()==KymoButlerJSONReader.BEGIN_ARRAY) {
+				if(overlayType.equals(OVERLAY_LOCAL)) {
+					reader.skipValue();
+				}else {
+					decodeOverlay(reader);
+				}
+			}else if(field.equals(KymoButlerFields.TRACKS_FIELD_TAG) && reader.peek()==KymoButlerJSONReader.BEGIN_ARRAY) {
+				decodeTracks(reader);
+			}else {
+				switch(reader.peek()) {
+					case KymoButlerJSONReader.STRING: json.put(field, reader.nextString()); break;
+					case KymoButlerJSONReader.BOOLEAN: json.put(field, reader.nextBoolean()); break;
+					case KymoButlerJSONReader.NUMBER:
+						double value=reader.nextDouble();
+						if(value==Math.rint(value) && Math.abs(value)<Integer.MAX_VALUE) {
+							json.put(field, (int) value);
+						}else {
+							json.put(field, value);
+						}
+						break;
+					default: reader.skipValue();
+				}
+			}
+		}
+		
+		reader.endObject();
+	}
+	
+	/**
+	 * Builds a new parser around content decoded elsewhere (e.g. stitched from several responses by KymoButlerTiler): the
+	 * kymograph, overlay and tracks arrays are to be filled by the caller
+	 * @param json the scalar fields
+	 * @param overlayType the type of overlay, either OVERLAY_COMPOSITE, OVERLAY_RGB or OVERLAY_LOCAL
+	 */
+	KymoButlerResponseParser(JSONObject json, String overlayType) {
+		this.json=json;
+		setOverlayType(overlayType);
+	}
+	
+	/**
+	 * Decodes the kymograph field, row by row, into a float array
+	 * @param reader the reader, positioned at the beginning of the kymograph field's array
+	 * @throws IOException in case the stream can't be read or its content is not JSON formatted, or is not a rectangular,
+	 * non empty array of rows
+	 */
+	private void decodeKymograph(KymoButlerJSONReader reader) throws IOException {
+		FloatList pixels=new FloatList(1<<16);
+		kymographWidth=0;
+		kymographHeight=0;
+		
+		reader.beginArray();
+		while(reader.hasNext()) {
+			int rowStart=pixels.size();
+			reader.beginArray();
+			while(reader.hasNext()) pixels.add((float) reader.nextDouble());
+			reader.endArray();
+			
+			int rowWidth=pixels.size()-rowStart;
+			if(kymographHeight==0) kymographWidth=rowWidth;
+			if(rowWidth==0) throw reader.syntaxError("Empty kymograph row "+(kymographHeight+1));
+			if(rowWidth!=kymographWidth) throw reader.syntaxError("Kymograph row "+(kymographHeight+1)+" holds "+rowWidth+" values instead of "+kymographWidth);
+			kymographHeight++;
+		}
+		reader.endArray();
+		if(kymographHeight==0) throw reader.syntaxError("Empty kymograph");
+		
+		kymographPixels=pixels.toArray(kymographWidth*kymographHeight);
+	}
+	
+	/**
+	 * Decodes the overlay field, pixel by pixel, either into three float arrays (one per channel) or a single
+	 * RGB packed int array, depending on the overlay type
+	 * @param reader the reader, positioned at the beginning of the overlay field's array
+	 * @throws IOException in case the stream can't be read or its content is not JSON formatted
+	 */
+	private void decodeOverlay(KymoButlerJSONReader reader) throws IOException {
+		if(overlayType.equals(OVERLAY_RGB)) {
+			decodeRGBOverlay(reader);
+			return;
+		}
+		
+		FloatList[] channels=new FloatList[] {new FloatList(1<<16), new FloatList(1<<16), new FloatList(1<<16)};
+		overlayWidth=0;
+		overlayHeight=0;
+		
+		reader.beginArray();
+		while(reader.hasNext()) {
+			reader.beginArray();
+			while(reader.hasNext()) {
+				reader.beginArray();
+				for(int c=0; c<3; c++) channels[c].add(reader.hasNext()?(float) reader.nextDouble():0);
+				while(reader.hasNext()) reader.skipValue();
+				reader.endArray();
+			}
+			reader.endArray();
+			
+			if(overlayHeight==0) overlayWidth=channels[0].size();
+			overlayHeight++;
+		}
+		reader.endArray();
+		
+		overlayPixels=new float[3][];
+		for(int c=0; c<3; c++) overlayPixels[c]=channels[c].toArray(overlayWidth*overlayHeight);
+	}
+	
+	/**
+	 * Decodes the overlay field, pixel by pixel, into a single RGB packed int array
+	 * @param reader the reader, positioned at the beginning of the overlay field's array
+	 * @throws IOException in case the stream can't be read or its content is not JSON formatted
+	 */
+	private void decodeRGBOverlay(KymoButlerJSONReader reader) throws IOException {
+		int[] pixels=new int[1<<16];
+		int n=0;
+		overlayWidth=0;
+		overlayHeight=0;
+		
+		reader.beginArray();
+		while(reader.hasNext()) {
+			reader.beginArray();
+			while(reader.hasNext()) {
+				reader.beginArray();
+				int rgb=0;
+				for(int c=0; c<3; c++) rgb=(rgb<<8)|(reader.hasNext()?toByte(reader.nextDouble()):0);
+				while(reader.hasNext()) reader.skipValue();
+				reader.endArray();
+				
+				if(n==pixels.length) pixels=Arrays.copyOf(pixels, n*2);
+				pixels[n++]=rgb;
+			}
+			reader.endArray();
+			
+			if(overlayHeight==0) overlayWidth=n;
+			overlayHeight++;
+		}
+		reader.endArray();
+		
+		overlayRGB=Arrays.copyOf(pixels, overlayWidth*overlayHeight);
+	}
+	
+	/**
+	 * Converts an intensity, between 0 and 1, to an 8-bit value
+	 * @param value the intensity, between 0 and 1
+	 * @return the intensity as an 8-bit value, between 0 and 255
+	 */
+	static int toByte(double value) {
+		int out=(int) (value*255+0.5);
+		return out<0?0:(out>255?255:out);
+	}
+	
+	/**
+	 * Decodes the tracks field into primitive arrays of coordinates
+	 * @param reader the reader, positioned at the beginning of the tracks field's array
+	 * @throws IOException in case the stream can't be read or its content is not JSON formatted
+	 */
+	private void decodeTracks(KymoButlerJSONReader reader) throws IOException {
+		tracks=new KymoButlerTracks();
+		
+		reader.beginArray();
+		while(reader.hasNext()) {
+			tracks.startTrack();
+			
+			reader.beginArray();
+			while(reader.hasNext()) {
+				reader.beginArray();
+				float t=(float) reader.nextDouble();
+				tracks.addPoint(t, (float) reader.nextDouble());
+				while(reader.hasNext()) reader.skipValue();
+				reader.endArray();
+			}
+			reader.endArray();
+		}
+		reader.endArray();
+		
+		tracks.trim();
+	}
+	
 	/**
 	 * Tests if a String contains JSON information (check if the String starts with {)
 	 * @param JSONContent the String to test
@@ -91,7 +370,7 @@ public class KymoButlerResponseParser {
 	 * @return true if the kymograph data is present, false otherwise
 	 */
 	public boolean hasKymograph() {
-		return json.has(KymoButlerFields.KYMOGRAPH_FIELD_TAG);
+		return kymographPixels!=null || json.has(KymoButlerFields.KYMOGRAPH_FIELD_TAG);
 	}
 	
 	/**
@@ -108,6 +387,19 @@ public class KymoButlerResponseParser {
 	 * @return the extracted kymograph as an ImagePlus or null if the field was not found
 	 */
 	public ImagePlus getKymograph() {
+		long start=System.nanoTime();
+		ImagePlus out=buildKymograph();
+		timings.add(KymoButlerTimings.IMAGE_DECODE, KymoButlerTimings.since(start));
+		return out;
+	}
+	
+	/**
+	 * Builds the kymograph, either from the decoded pixels or from the JSON content
+	 * @return the extracted kymograph as an ImagePlus or null if the field was not found
+	 */
+	private ImagePlus buildKymograph() {
+		if(kymographPixels!=null) return new ImagePlus("Kymograph", new FloatProcessor(kymographWidth, kymographHeight, kymographPixels.clone()));
+		
 		JSONArray kymograph=null;
 		
 		try {
@@ -121,18 +413,18 @@ public class KymoButlerResponseParser {
 		
 		//Get dimensions
 		int height=kymograph.length();
-		int width=(kymograph.getJSONArray(0)).length();
+		final int width=(kymograph.getJSONArray(0)).length();
 		
-		ImagePlus ip=NewImage.createFloatImage("Kymograph", width, height, 1, NewImage.FILL_BLACK);
+		final JSONArray rows=kymograph;
+		final float[] pixels=new float[width*height];
 		
-		for(int y=0; y<height; y++) {
-			JSONArray line=kymograph.getJSONArray(y);
-			for(int x=0; x<width; x++) {
-				ip.getProcessor().putPixelValue(x, y, line.getDouble(x));
-			}
-		}
+		new RowsDecoder(0, height, y -> {
+			JSONArray line=rows.getJSONArray(y);
+			int offset=y*width;
+			for(int x=0; x<width; x++) pixels[offset+x]=(float) line.getDouble(x);
+		}).invoke();
 		
-		return ip;
+		return new ImagePlus("Kymograph", new FloatProcessor(width, height, pixels));
 	}
 	
 	/**
@@ -172,14 +464,132 @@ public class KymoButlerResponseParser {
 	 * @return true if the overlay data is present, false otherwise
 	 */
 	public boolean hasOverlay() {
-		return json.has(KymoButlerFields.OVERLAY_FIELD_TAG);
+		if(overlayType.equals(OVERLAY_LOCAL)) return hasKymograph();
+		return overlayPixels!=null || overlayRGB!=null || json.has(KymoButlerFields.OVERLAY_FIELD_TAG);
+	}
+	
+	/**
+	 * Sets the type of overlay returned by getOverlay(). When the response is decoded from a stream, the type should be
+	 * set when building the parser
+	 * @param overlayType the type of overlay, either OVERLAY_COMPOSITE, OVERLAY_RGB or OVERLAY_LOCAL
+	 */
+	public void setOverlayType(String overlayType) {
+		this.overlayType=OVERLAY_RGB.equals(overlayType) || OVERLAY_LOCAL.equals(overlayType)?overlayType:OVERLAY_COMPOSITE;
+	}
+	
+	/**
+	 * Returns the type of overlay returned by getOverlay()
+	 * @return the type of overlay, either OVERLAY_COMPOSITE, OVERLAY_RGB or OVERLAY_LOCAL
+	 */
+	public String getOverlayType() {
+		return overlayType;
+	}
+	
+	/**
+	 * Sets the timings to which the time spent building images, converting tracks and filling the RoiManager is added
+	 * @param timings the timings of the request this response was received from
+	 */
+	public void setTimings(KymoButlerTimings timings) {
+		this.timings=timings;
+	}
+	
+	/**
+	 * Returns the timings to which the time spent building images, converting tracks and filling the RoiManager is added
+	 * @return the timings
+	 */
+	public KymoButlerTimings getTimings() {
+		return timings;
+	}
+	
+	/**
+	 * Sets the position of the kymograph within its stack: the tracks are tagged with it, and their names prefixed by it
+	 * @param position the position of the kymograph within its stack, from 1, 0 if the kymograph is not part of a stack
+	 */
+	public void setPosition(int position) {
+		this.position=position;
+		hyperstackPosition=null;
+	}
+	
+	/**
+	 * Sets the position of the kymograph within its hyperstack: the tracks are tagged with it, and their names prefixed by it
+	 * @param channel the channel, from 1
+	 * @param slice the slice, from 1
+	 * @param frame the frame, from 1
+	 */
+	public void setPosition(int channel, int slice, int frame) {
+		position=0;
+		hyperstackPosition=new int[] {channel, slice, frame};
 	}
 	
 	/**
-	 * Parses the overlay field from the KymoButler response and returns an ImageJ ImagePlus, to be displayed as a composite
-	 * @return the extracted overlay as an ImagePlus, to be displayed as a composite or null if the field was not found
+	 * Sets the label of the kymograph (e.g. the name of the ROI it was sampled along): the tracks' names are prefixed with it,
+	 * and it is stored as their KymoButlerKymographBuilder.SOURCE_PROPERTY property
+	 * @param label the label of the kymograph, null for none
+	 */
+	public void setLabel(String label) {
+		this.label=label;
+	}
+	
+	/**
+	 * Names a track, tags it as a track (TRACK_PROPERTY) and with the kymograph's label and position, if set
+	 * @param roi the track
+	 * @param index the index of the track, from 0
+	 */
+	private void tag(Roi roi, int index) {
+		if(hyperstackPosition!=null) {
+			roi.setPosition(hyperstackPosition[0], hyperstackPosition[1], hyperstackPosition[2]);
+			roi.setName("C"+hyperstackPosition[0]+"_Z"+hyperstackPosition[1]+"_T"+hyperstackPosition[2]+"_Track_"+(index+1));
+		}else if(position>0) {
+			roi.setPosition(position);
+			roi.setName("Slice_"+position+"_Track_"+(index+1));
+		}else if(label!=null) {
+			roi.setName(label+"_Track_"+(index+1));
+		}else {
+			roi.setName("Track_"+(index+1));
+		}
+		
+		roi.setProperty(TRACK_PROPERTY, "true");
+		if(label!=null) roi.setProperty(KymoButlerKymographBuilder.SOURCE_PROPERTY, label);
+	}
+	
+	/**
+	 * Parses the overlay field from the KymoButler response and returns an ImageJ ImagePlus, either to be displayed as a composite
+	 * or as an RGB image, depending on the overlay type. With the OVERLAY_LOCAL type, the overlay is rendered from the kymograph
+	 * and tracks fields.
+	 * @return the extracted overlay as an ImagePlus or null if the field was not found
 	 */
 	public ImagePlus getOverlay() {
+		if(overlayType.equals(OVERLAY_LOCAL)) {
+			if(!hasKymograph()) return null;
+			
+			//The kymograph and tracks account for their own time
+			ImagePlus kymograph=getKymograph();
+			KymoButlerTracks trackData=hasTracks()?getTrackData(false):null;
+			long start=System.nanoTime();
+			ImagePlus out=KymoButlerOverlayRenderer.render(kymograph, trackData);
+			timings.add(KymoButlerTimings.IMAGE_DECODE, KymoButlerTimings.since(start));
+			return out;
+		}
+		
+		long start=System.nanoTime();
+		ImagePlus out=buildOverlay();
+		timings.add(KymoButlerTimings.IMAGE_DECODE, KymoButlerTimings.since(start));
+		return out;
+	}
+	
+	/**
+	 * Builds the overlay, either from the decoded pixels or from the JSON content, as a composite or an RGB image
+	 * @return the extracted overlay as an ImagePlus or null if the field was not found
+	 */
+	private ImagePlus buildOverlay() {
+		if(overlayRGB!=null) return new ImagePlus("Overlay", new ColorProcessor(overlayWidth, overlayHeight, overlayRGB.clone()));
+		
+		if(overlayPixels!=null) {
+			ImageStack is=new ImageStack(overlayWidth, overlayHeight);
+			for(int c=0; c<3; c++) is.addSlice(new FloatProcessor(overlayWidth, overlayHeight, overlayPixels[c].clone()));
+			return HyperStackConverter.toHyperStack(new ImagePlus("Overlay", is), 3, 1, 1,"Composite");
+		}
+		
 		JSONArray overlay=null;
 		
 		try {
@@ -191,27 +601,47 @@ public class KymoButlerResponseParser {
 		
 		//Get dimensions
 		int height=overlay.length();
-		int width=((JSONArray) overlay.get(0)).length();
+		final int width=((JSONArray) overlay.get(0)).length();
 		
-		ImagePlus ip=NewImage.createFloatImage("Overlay", width, height, 3, NewImage.FILL_BLACK);
+		final JSONArray rows=overlay;
 		
-		for(int y=0; y<height; y++) {
-			JSONArray line=overlay.getJSONArray(y);
+		if(overlayType.equals(OVERLAY_RGB)) {
+			final int[] pixels=new int[width*height];
+			
+			new RowsDecoder(0, height, y -> {
+				JSONArray line=rows.getJSONArray(y);
+				int offset=y*width;
+				for(int x=0; x<width; x++) {
+					JSONArray RGB=line.getJSONArray(x);
+					pixels[offset+x]=(toByte(RGB.getDouble(0))<<16)|(toByte(RGB.getDouble(1))<<8)|toByte(RGB.getDouble(2));
+				}
+			}).invoke();
+			
+			return new ImagePlus("Overlay", new ColorProcessor(width, height, pixels));
+		}
+		
+		final float[][] pixels=new float[3][width*height];
+		
+		new RowsDecoder(0, height, y -> {
+			JSONArray line=rows.getJSONArray(y);
+			int offset=y*width;
 			for(int x=0; x<width; x++) {
 				JSONArray RGB=line.getJSONArray(x);
-				for(int c=0; c<3; c++) {
-					ip.getStack().getProcessor(c+1).putPixelValue(x, y, RGB.getDouble(c));
-				}
+				for(int c=0; c<3; c++) pixels[c][offset+x]=(float) RGB.getDouble(c);
 			}
-		}
+		}).invoke();
 		
-		return HyperStackConverter.toHyperStack(ip, 3, 1, 1,"Composite");
+		ImageStack is=new ImageStack(width, height);
+		for(int c=0; c<3; c++) is.addSlice(new FloatProcessor(width, height, pixels[c]));
+		
+		return HyperStackConverter.toHyperStack(new ImagePlus("Overlay", is), 3, 1, 1,"Composite");
 	}
 	
 	/**
-	 * Parses the overlay field from the KymoButler response and returns an ImageJ ImagePlus, to be displayed as a composite
+	 * Parses the overlay field from the KymoButler response and returns an ImageJ ImagePlus, either to be displayed as a composite
+	 * or as an RGB image, depending on the overlay type
 	 * @param cal the calibration to apply to the kymograph
-	 * @return the extracted overlay as an ImagePlus, to be displayed as a composite or null if the field was not found
+	 * @return the extracted overlay as an ImagePlus or null if the field was not found
 	 */
 	public ImagePlus getOverlay(Calibration cal) {
 		ImagePlus ip=getOverlay();
@@ -245,7 +675,7 @@ public class KymoButlerResponseParser {
 	 * @return true if the tracks data is present, false otherwise
 	 */
 	public boolean hasTracks() {
-		return json.has(KymoButlerFields.TRACKS_FIELD_TAG);
+		return tracks!=null || json.has(KymoButlerFields.TRACKS_FIELD_TAG);
 	}
 	
 	/**
@@ -254,31 +684,72 @@ public class KymoButlerResponseParser {
 	 * @return the extracted tracks as an array of ImagePlus Rois or null if the field was not found
 	 */
 	public Roi[] getTracks(boolean simplifyTracks) {
-		JSONArray tracks=null;
+		long start=System.nanoTime();
+		Roi[] out=buildTracks(simplifyTracks);
+		timings.add(KymoButlerTimings.TRACKS, KymoButlerTimings.since(start));
+		return out;
+	}
+	
+	/**
+	 * Returns the tracks as primitive arrays, without building any Roi: this is the way to go to process large numbers of tracks
+	 * @param simplifyTracks if true, the tracks will be simplified into segments rather than being composed of one point per timepoint
+	 * @return the extracted tracks or null if the field was not found. Unless simplified, the tracks are shared with the parser
+	 * and should not be modified
+	 */
+	public KymoButlerTracks getTrackData(boolean simplifyTracks) {
+		long start=System.nanoTime();
+		KymoButlerTracks out=getTrackData();
+		if(out!=null && simplifyTracks) out=out.simplify();
+		timings.add(KymoButlerTimings.TRACKS, KymoButlerTimings.since(start));
+		return out;
+	}
+	
+	/**
+	 * Returns the tracks as primitive arrays, converting them from the JSON content on first call
+	 * @return the extracted tracks or null if the field was not found
+	 */
+	private synchronized KymoButlerTracks getTrackData() {
+		if(tracks!=null) return tracks;
+		
+		JSONArray array=null;
 		
 		try {
-			tracks=json.getJSONArray(KymoButlerFields.TRACKS_FIELD_TAG);
+			array=json.getJSONArray(KymoButlerFields.TRACKS_FIELD_TAG);
 		}catch (JSONException e) {
 			IJ.log("The "+KymoButlerFields.TRACKS_FIELD_TAG+" section was not found: please check the JSON file");
 			return null;
 		}
 		
-		//Get dimensions
-		int nRois=tracks.length();
-		
-		Roi[] rois=new Roi[nRois];
-		
-		for(int i=0; i<nRois; i++) {
-			JSONArray line=tracks.getJSONArray(i);
-			FloatPolygon roi=new FloatPolygon();
+		KymoButlerTracks out=new KymoButlerTracks();
+		for(int i=0; i<array.length(); i++) {
+			JSONArray line=array.getJSONArray(i);
+			out.startTrack();
 			
 			for(int j=0; j<line.length(); j++) {
 				JSONArray coord=line.getJSONArray(j);
-				roi.addPoint(coord.getDouble(1), coord.getDouble(0));
+				out.addPoint((float) coord.getDouble(0), (float) coord.getDouble(1));
 			}
-			rois[i]=new PolygonRoi(roi, Roi.POLYLINE);
-			if(simplifyTracks) rois[i]=simplifyTrack(rois[i]);
-			rois[i].setName("Track_"+(i+1));
+		}
+		out.trim();
+		
+		tracks=out;
+		return tracks;
+	}
+	
+	/**
+	 * Builds the tracks' Rois from the tracks' primitive arrays
+	 * @param simplifyTracks if true, the rois will be simplified into segments rather than being composed of one point per timepoint
+	 * @return the extracted tracks as an array of ImagePlus Rois or null if the field was not found
+	 */
+	private Roi[] buildTracks(boolean simplifyTracks) {
+		KymoButlerTracks data=getTrackData();
+		if(data==null) return null;
+		if(simplifyTracks) data=data.simplify();
+		
+		Roi[] rois=new Roi[data.size()];
+		for(int i=0; i<rois.length; i++) {
+			rois[i]=data.toRoi(i);
+			tag(rois[i], i);
 		}
 		
 		return rois;
@@ -291,20 +762,123 @@ public class KymoButlerResponseParser {
 	 * @return the number of Rois found
 	 */
 	public int pushRoisToRoiManager(boolean simplifyTracks, boolean clearRoiManager) {
+		Roi[] rois=getTracks(simplifyTracks);
+		
+		long start=System.nanoTime();
 		RoiManager rm=RoiManager.getRoiManager();
 		if(clearRoiManager) rm.reset();
 		
-		Roi[] rois=getTracks(simplifyTracks);
-		int nRois=0;
+		int nRois=addToRoiManager(rm, rois);
+		timings.add(KymoButlerTimings.ROI_MANAGER, KymoButlerTimings.since(start));
 		
-		if(rois!=null) for(Roi roi:rois) if(roi!=null) {
+		return nRois;
+	}
+	
+	/**
+	 * Adds Rois to the RoiManager in one go. Each insertion fires an event to the RoiManager's list, which is laid out and
+	 * repainted every time: for large sets of Rois, the list is detached from its model while the Rois are added, then
+	 * attached again, being updated once
+	 * @param rm the RoiManager
+	 * @param rois the Rois to add (null Rois are skipped)
+	 * @return the number of Rois added
+	 */
+	public static int addToRoiManager(RoiManager rm, Roi[] rois) {
+		if(rois==null) return 0;
+		
+		JList<?> list=rois.length>=BULK_INSERTION_THRESHOLD?findList(rm):null;
+		return list!=null?addDetached(rm, rois, list):add(rm, rois);
+	}
+	
+	/**
+	 * Adds Rois to the RoiManager while its list is detached from its model
+	 * @param rm the RoiManager
+	 * @param rois the Rois to add (null Rois are skipped)
+	 * @param list the RoiManager's list
+	 * @return the number of Rois added
+	 */
+	private static <E> int addDetached(RoiManager rm, Roi[] rois, JList<E> list) {
+		ListModel<E> model=list.getModel();
+		list.setModel(new DefaultListModel<E>());
+		try {
+			return add(rm, rois);
+		} finally {
+			list.setModel(model);
+		}
+	}
+	
+	/**
+	 * Adds Rois to the RoiManager, one at a time
+	 * @param rm the RoiManager
+	 * @param rois the Rois to add (null Rois are skipped)
+	 * @return the number of Rois added
+	 */
+	private static int add(RoiManager rm, Roi[] rois) {
+		int nRois=0;
+		for(Roi roi:rois) if(roi!=null) {
 			rm.add((ImagePlus) null, roi, -1);
 			nRois++;
 		}
-		
 		return nRois;
 	}
 	
+	/**
+	 * Looks for the list displaying the Rois among the components of the RoiManager
+	 * @param container the RoiManager, or one of its components
+	 * @return the list, or null if none was found
+	 */
+	private static JList<?> findList(Container container) {
+		for(Component component:container.getComponents()) {
+			if(component instanceof JList) return (JList<?>) component;
+			if(component instanceof Container) {
+				JList<?> list=findList((Container) component);
+				if(list!=null) return list;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Checks if a Roi is a track returned by KymoButler, rather than a user-drawn ROI
+	 * @param roi the Roi to check
+	 * @return true if the Roi has been tagged as a track, false otherwise
+	 */
+	public static boolean isTrack(Roi roi) {
+		return roi.getProperty(TRACK_PROPERTY)!=null;
+	}
+	
+	/**
+	 * Parses the tracks field from the KymoButler response and returns them as an Overlay, leaving the RoiManager untouched:
+	 * this is the way to go to display large numbers of tracks that are not to be edited
+	 * @param simplifyTracks if true, the rois will be simplified into segments rather than being composed of one point per timepoint
+	 * @return the tracks as an Overlay, or null if the field was not found
+	 */
+	public Overlay getTracksOverlay(boolean simplifyTracks) {
+		Roi[] rois=getTracks(simplifyTracks);
+		if(rois==null) return null;
+		
+		Overlay out=new Overlay();
+		for(Roi roi:rois) if(roi!=null) out.add(roi);
+		return out;
+	}
+	
+	/**
+	 * Parses the tracks field from the KymoButler response and attaches all Rois to an image, as an Overlay
+	 * @param imp the image to which the tracks should be attached, usually the kymograph
+	 * @param simplifyTracks if true, the rois will be simplified into segments rather than being composed of one point per timepoint
+	 * @param clearOverlay if true, the image's Overlay will be replaced, otherwise the tracks are added to it
+	 * @return the number of Rois attached, -1 in case the tracks field was not found
+	 */
+	public int addTracksToOverlay(ImagePlus imp, boolean simplifyTracks, boolean clearOverlay) {
+		Overlay tracks=getTracksOverlay(simplifyTracks);
+		if(tracks==null) return -1;
+		
+		Overlay overlay=clearOverlay || imp.getOverlay()==null?new Overlay():imp.getOverlay();
+		for(int i=0; i<tracks.size(); i++) overlay.add(tracks.get(i));
+		imp.setOverlay(overlay);
+		
+		return tracks.size();
+	}
+	
 	/**
 	 * Parses the tracks field from the KymoButler response and pushes all Rois to the RoiManager
 	 * @param simplifyTracks if true, the rois will be simplified into segments rather than being composed of one point per timepoint
@@ -315,29 +889,47 @@ public class KymoButlerResponseParser {
 	}
 	
 	/**
-	 * KymoButler returns rois where all timepoints are exposed. This method simplifies the input roi by
-	 * only exposing segments when the slope is changing.
-	 * @param roi the input roi, on point per timepoint.
-	 * @return a simplified roi, divided in segments.
+	 * Parses the tracks field from the KymoButler response and saves all Rois as a zip file, readable by the RoiManager
+	 * @param simplifyTracks if true, the rois will be simplified into segments rather than being composed of one point per timepoint
+	 * @param outputPath targeted path (including the filename and extension), as a String
+	 * @return the number of Rois saved, -1 in case the tracks field was not found or the file could not be written
 	 */
-	public Roi simplifyTrack(Roi roi) {
-		Point[] points=roi.getContainedPoints();
-		FloatPolygon polygon=new FloatPolygon();
+	public int saveTracks(boolean simplifyTracks, String outputPath) {
+		Roi[] rois=getTracks(simplifyTracks);
+		if(rois==null) return -1;
 		
-		float deltaXOld=Float.NaN;
+		int nRois=0;
 		
-		for(int i=0; i<points.length-1; i++) {
-			float deltaX=points[i].x-points[i+1].x;
+		try {
+			ZipOutputStream zos=new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(outputPath)));
+			DataOutputStream out=new DataOutputStream(zos);
+			RoiEncoder re=new RoiEncoder(out);
 			
-			if(deltaX!=deltaXOld) { // The displacement along the Y axis is always the same, ie 1
-				deltaXOld=deltaX;
-				
-				polygon.addPoint(points[i].getX(), points[i].getY());
+			for(Roi roi:rois) if(roi!=null) {
+				zos.putNextEntry(new ZipEntry(roi.getName()+".roi"));
+				re.write(roi);
+				out.flush();
+				nRois++;
 			}
+			out.close();
+		} catch (IOException e) {
+			IJ.log("Something went wrong while saving the tracks to the provided path "+outputPath);
+			e.printStackTrace();
+			return -1;
 		}
-		polygon.addPoint(points[points.length-1].getX(), points[points.length-1].getY());
 		
-		return new PolygonRoi(polygon, Roi.POLYLINE);
+		return nRois;
+	}
+	
+	/**
+	 * KymoButler returns rois where all timepoints are exposed. This method simplifies the input roi by
+	 * only exposing segments when the slope is changing. The roi's float coordinates are used as they are,
+	 * sub-pixel positions included, the tolerance stored in the preferences being applied (see KymoButlerTracks.simplify).
+	 * @param roi the input roi, on point per timepoint.
+	 * @return a simplified roi, divided in segments.
+	 */
+	public Roi simplifyTrack(Roi roi) {
+		return KymoButlerTracks.fromRois(new Roi[] {roi}).simplify().toRoi(0);
 	}
 	
 	
@@ -464,7 +1056,8 @@ public class KymoButlerResponseParser {
 	}
 	
 	/**
-	 * Saves the full JSON content to interpret as a JSON file
+	 * Saves the full JSON content to interpret as a JSON file. When the response has been decoded from a stream,
+	 * only the scalar fields are saved
 	 * @param outputPath targeted path (including the filename and extension), as a String
 	 */
 	public void saveAsJSON(String outputPath) {
@@ -475,5 +1068,89 @@ public class KymoButlerResponseParser {
 			e.printStackTrace();
 		}
 	}
-
-}
+	
+	
+	/**
+	 * Decodes rows of a JSON array in parallel: the range of rows is recursively split between the threads of the
+	 * common fork/join pool until it contains less than ROWS_PER_TASK rows
+	 */
+	private static class RowsDecoder extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		/** First row to decode **/
+		int start;
+		
+		/** Last row to decode (excluded) **/
+		int end;
+		
+		/** Decodes a single row **/
+		IntConsumer decoder;
+		
+		/**
+		 * Builds a new decoder for the input range of rows
+		 * @param start first row to decode
+		 * @param end last row to decode (excluded)
+		 * @param decoder decodes a single row, given its index
+		 */
+		RowsDecoder(int start, int end, IntConsumer decoder) {
+			this.start=start;
+			this.end=end;
+			this.decoder=decoder;
+		}
+		
+		@Override
+		protected void compute() {
+			if(end-start<=ROWS_PER_TASK) {
+				for(int y=start; y<end; y++) decoder.accept(y);
+			}else {
+				int middle=(start+end)>>>1;
+				invokeAll(new RowsDecoder(start, middle, decoder), new RowsDecoder(middle, end, decoder));
+			}
+		}
+	}
+	
+	/**
+	 * A growable array of primitive floats, used while decoding a stream
+	 */
+	private static class FloatList {
+		/** The values **/
+		float[] values;
+		
+		/** The number of values stored **/
+		int size=0;
+		
+		/**
+		 * Builds a new list
+		 * @param capacity the initial capacity
+		 */
+		FloatList(int capacity) {
+			values=new float[capacity];
+		}
+		
+		/**
+		 * Appends a value to the list
+		 * @param value the value to append
+		 */
+		void add(float value) {
+			if(size==values.length) values=Arrays.copyOf(values, values.length*2);
+			values[size++]=value;
+		}
+		
+		/**
+		 * Returns the number of values stored
+		 * @return the number of values stored
+		 */
+		int size() {
+			return size;
+		}
+		
+		/**
+		 * Returns the values as an array of the requested length, padded with zeros if needed
+		 * @param length the length of the output array
+		 * @return the values, as an array of floats
+		 */
+		float[] toArray(int length) {
+			return length==values.length?values:Arrays.copyOf(values, length);
+		}
+	}
+}
\ No newline at end of file
@@ -0,0 +1,188 @@
+/**
+*
+*  KymoButlerResult.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+/**
+ * This class stores the outcome of a request sent to the KymoButler webapp: the server's response, its HTTP status and
+ * the time it took to get it
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerResult {
+	/** The server response, as a String **/
+	String response=null;
+	
+	/** The HTTP status code returned by the server **/
+	int statusCode=-1;
+	
+	/** The time elapsed between sending the request and receiving the full response, in milliseconds **/
+	long elapsedTime=0;
+	
+	/** The format in which the kymograph was uploaded, null if the request didn't include a kymograph **/
+	String uploadFormat=null;
+	
+	/** The time it took to encode the kymograph, in milliseconds **/
+	long encodeTime=0;
+	
+	/** The size of the encoded kymograph, in bytes **/
+	int encodedSize=0;
+	
+	/** The parser built from the response, created on first call to getParser() **/
+	KymoButlerResponseParser parser=null;
+	
+	/** Time spent on each phase of the request, shared with the parser **/
+	KymoButlerTimings timings=new KymoButlerTimings();
+	
+	
+	
+	/**
+	 * Builds a new result
+	 * @param response the server response, as a String
+	 * @param statusCode the HTTP status code returned by the server
+	 * @param elapsedTime the time elapsed between sending the request and receiving the full response, in milliseconds
+	 */
+	public KymoButlerResult(String response, int statusCode, long elapsedTime) {
+		this.response=response;
+		this.statusCode=statusCode;
+		this.elapsedTime=elapsedTime;
+	}
+	
+	/**
+	 * Builds a new result from a response that has been decoded on the fly, the response String being unavailable
+	 * @param parser the parser holding the decoded response
+	 * @param statusCode the HTTP status code returned by the server
+	 * @param elapsedTime the time elapsed between sending the request and receiving the full response, in milliseconds
+	 */
+	public KymoButlerResult(KymoButlerResponseParser parser, int statusCode, long elapsedTime) {
+		this.parser=parser;
+		this.statusCode=statusCode;
+		this.elapsedTime=elapsedTime;
+		parser.setTimings(timings);
+	}
+	
+	/**
+	 * Returns the server response, as a String
+	 * @return the server response, as a String, or null if the response has been decoded on the fly
+	 */
+	public String getResponse() {
+		return response;
+	}
+	
+	/**
+	 * Returns the HTTP status code returned by the server
+	 * @return the HTTP status code returned by the server
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+	
+	/**
+	 * Returns the time elapsed between sending the request and receiving the full response
+	 * @return the elapsed time, in milliseconds
+	 */
+	public long getElapsedTime() {
+		return elapsedTime;
+	}
+	
+	/**
+	 * Records how the kymograph sent along with the request was encoded
+	 * @param uploadFormat the format in which the kymograph was uploaded
+	 * @param encodeTime the time it took to encode the kymograph, in milliseconds
+	 * @param encodedSize the size of the encoded kymograph, in bytes
+	 * @return this result
+	 */
+	KymoButlerResult setEncoding(String uploadFormat, long encodeTime, int encodedSize) {
+		this.uploadFormat=uploadFormat;
+		this.encodeTime=encodeTime;
+		this.encodedSize=encodedSize;
+		if(uploadFormat!=null) timings.set(KymoButlerTimings.ENCODE, encodeTime);
+		return this;
+	}
+	
+	/**
+	 * Sets the timings measured while sending the request and receiving the response
+	 * @param timings the timings
+	 * @return this result
+	 */
+	KymoButlerResult setTimings(KymoButlerTimings timings) {
+		this.timings=timings;
+		if(parser!=null) parser.setTimings(timings);
+		return this;
+	}
+	
+	/**
+	 * Returns the time spent on each phase of the request, the phases occurring once the response has been parsed included
+	 * @return the timings
+	 */
+	public KymoButlerTimings getTimings() {
+		return timings;
+	}
+	
+	/**
+	 * Returns the format in which the kymograph was uploaded
+	 * @return the upload format, either KymoButlerImageEncoder.FORMAT_BMP or KymoButlerImageEncoder.FORMAT_PNG, or null if
+	 * the request didn't include a kymograph
+	 */
+	public String getUploadFormat() {
+		return uploadFormat;
+	}
+	
+	/**
+	 * Returns the time it took to encode the kymograph
+	 * @return the encoding time, in milliseconds
+	 */
+	public long getEncodeTime() {
+		return encodeTime;
+	}
+	
+	/**
+	 * Returns the size of the encoded kymograph, as uploaded
+	 * @return the size of the encoded kymograph, in bytes
+	 */
+	public int getEncodedSize() {
+		return encodedSize;
+	}
+	
+	/**
+	 * Tests if the response contains JSON information
+	 * @return true or false depending on if the content seems to be JSON or not
+	 */
+	public boolean isJSON() {
+		return parser!=null || (response!=null && KymoButlerResponseParser.isJSON(response));
+	}
+	
+	/**
+	 * Returns a parser for the response, building it on first call
+	 * @return a parser for the response, or null if the response is not JSON formatted
+	 */
+	public synchronized KymoButlerResponseParser getParser() {
+		if(parser==null && isJSON()) {
+			long start=System.nanoTime();
+			parser=new KymoButlerResponseParser(response);
+			timings.set(KymoButlerTimings.PARSE, KymoButlerTimings.since(start));
+			parser.setTimings(timings);
+		}
+		return parser;
+	}
+}
@@ -0,0 +1,151 @@
+/**
+*
+*  KymoButlerRetryPolicy.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+
+import ij.Prefs;
+
+/**
+ * This class is aimed at deciding when and how to retry the idempotent requests (statistics and analysis) that failed:
+ * communication errors, server errors (5xx) and rate limiting (429) are retried after an exponentially growing, randomly
+ * jittered delay.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerRetryPolicy {
+	/** Default maximum number of retries per request **/
+	public static final int DEFAULT_MAX_RETRIES=2;
+	
+	/** Default base delay before retrying, in milliseconds **/
+	public static final int DEFAULT_BASE_DELAY=1000;
+	
+	/** Maximum delay before retrying, in milliseconds **/
+	public static final int MAX_DELAY=30000;
+	
+	/** Number of retries since startup **/
+	private static final AtomicLong nRetries=new AtomicLong();
+	
+	/** Number of requests that still failed once all retries were used, since startup **/
+	private static final AtomicLong nExhausted=new AtomicLong();
+	
+	
+	
+	/**
+	 * Utility class: not meant to be instantiated
+	 */
+	private KymoButlerRetryPolicy() {}
+	
+	/**
+	 * Returns the maximum number of retries per request
+	 * @return the maximum number of retries per request
+	 */
+	public static int getMaxRetries() {
+		return Math.max(0, (int) Prefs.get("KymoButler_maxRetries.double", DEFAULT_MAX_RETRIES));
+	}
+	
+	/**
+	 * Returns the base delay before retrying
+	 * @return the base delay before retrying, in milliseconds
+	 */
+	public static int getBaseDelay() {
+		return Math.max(0, (int) Prefs.get("KymoButler_retryDelay.double", DEFAULT_BASE_DELAY));
+	}
+	
+	/**
+	 * Checks if the HTTP status reports a transient server-side failure, worth retrying
+	 * @param statusCode the HTTP status code
+	 * @return true for rate limiting (429) and server errors (5xx)
+	 */
+	public static boolean isRetryable(int statusCode) {
+		return statusCode==429 || statusCode>=500;
+	}
+	
+	/**
+	 * Computes the delay before the next attempt: a random value between half and the full exponentially growing
+	 * backoff, so that concurrent requests don't retry all at once. A Retry-After header, if any, is honoured
+	 * @param attempt the number of attempts made so far (starting at 1)
+	 * @param response the failed response, or null in case of communication error
+	 * @return the delay before the next attempt, in milliseconds
+	 */
+	public static long getDelay(int attempt, HttpResponse response) {
+		long backoff=Math.min(MAX_DELAY, (long) getBaseDelay()<<Math.min(attempt-1, 20));
+		long delay=backoff/2+ThreadLocalRandom.current().nextLong(backoff/2+1);
+		
+		if(response!=null) {
+			Header retryAfter=response.getFirstHeader("Retry-After");
+			if(retryAfter!=null) {
+				try {
+					delay=Math.max(delay, Math.min(MAX_DELAY, Long.parseLong(retryAfter.getValue().trim())*1000));
+				} catch (NumberFormatException e) {
+					//HTTP-date format: ignored, the computed backoff is used
+				}
+			}
+		}
+		
+		return delay;
+	}
+	
+	/**
+	 * Records a retry
+	 */
+	static void recordRetry() {
+		nRetries.incrementAndGet();
+	}
+	
+	/**
+	 * Records a request that failed once all retries were used
+	 */
+	static void recordExhausted() {
+		nExhausted.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the number of retries since startup
+	 * @return the number of retries since startup
+	 */
+	public static long getNRetries() {
+		return nRetries.get();
+	}
+	
+	/**
+	 * Returns the number of requests that still failed once all retries were used, since startup
+	 * @return the number of requests that still failed once all retries were used
+	 */
+	public static long getNExhausted() {
+		return nExhausted.get();
+	}
+	
+	/**
+	 * Returns the retry counters, as a String
+	 * @return the retry counters, as a String
+	 */
+	public static String getStatistics() {
+		return "Retries: "+getNRetries()+" retried attempt(s), "+getNExhausted()+" request(s) failed after all retries";
+	}
+}
@@ -0,0 +1,143 @@
+/**
+*
+*  KymoButlerStagedOutputStream.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * This class is aimed at writing a file, compressed, without ever exposing it half-written: the content goes to a temporary
+ * file, unique to the writer, that is moved to its final name on commit, or deleted on discard. Several writers may therefore
+ * target the same file simultaneously (e.g. the same kymograph analysed twice), the last one to commit winning. Used by the
+ * on-disk cache and by the recorder.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerStagedOutputStream extends FilterOutputStream {
+	/** The file to write **/
+	final File target;
+	
+	/** The temporary file being written **/
+	final File tmp;
+	
+	/** True once the stream has been closed **/
+	boolean closed=false;
+	
+	/** True once the temporary file has been committed or discarded **/
+	boolean done=false;
+	
+	
+	
+	/**
+	 * Opens a stream to write the target file, compressed, creating its folder if needed
+	 * @param target the file to write
+	 * @throws IOException in case the folder or the temporary file can't be created
+	 */
+	public KymoButlerStagedOutputStream(File target) throws IOException {
+		this(target, createTempFile(target));
+	}
+	
+	/**
+	 * Opens a stream to write the temporary file
+	 * @param target the file to write
+	 * @param tmp the temporary file
+	 * @throws IOException in case the temporary file can't be opened
+	 */
+	private KymoButlerStagedOutputStream(File target, File tmp) throws IOException {
+		super(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), 65536));
+		this.target=target;
+		this.tmp=tmp;
+	}
+	
+	/**
+	 * Creates a temporary file, unique to the writer, next to the target file
+	 * @param target the file to write
+	 * @return the temporary file
+	 * @throws IOException in case the folder or the temporary file can't be created
+	 */
+	private static File createTempFile(File target) throws IOException {
+		File dir=target.getParentFile();
+		if(!dir.isDirectory()) FileUtils.forceMkdir(dir);
+		return File.createTempFile(target.getName()+"_", ".tmp", dir);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+	}
+	
+	@Override
+	public synchronized void close() throws IOException {
+		if(closed) return;
+		closed=true;
+		super.close();
+	}
+	
+	/**
+	 * Closes the stream, then moves the temporary file to the target file, replacing it atomically where the file system
+	 * allows it. The temporary file is deleted if it can't be moved
+	 * @return true if the target file has been written, false otherwise (or if already committed/discarded)
+	 */
+	public synchronized boolean commit() {
+		if(done) return false;
+		done=true;
+		
+		try {
+			close();
+			try {
+				Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		} catch (IOException e) {
+			tmp.delete();
+			return false;
+		}
+	}
+	
+	/**
+	 * Closes the stream and deletes the temporary file. Does nothing once committed
+	 */
+	public synchronized void discard() {
+		if(done) return;
+		done=true;
+		
+		try {
+			close();
+		} catch (IOException e) {
+			//The file is deleted anyway
+		}
+		tmp.delete();
+	}
+}
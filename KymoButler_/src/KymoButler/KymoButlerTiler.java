@@ -0,0 +1,556 @@
+/**
+*
+*  KymoButlerTiler.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.json.JSONObject;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.process.ImageProcessor;
+
+/**
+ * This class is aimed at analysing kymographs too long to be sent in one request. The kymograph is split into
+ * overlapping time windows (tiles), which are all submitted at once: the latency is that of the slowest tile rather
+ * than the sum of all. The tiles are sent as the endpoints' concurrency limiters allow, each tile's deadline starting
+ * once it is sent; as soon as one tile fails, the others are cancelled. Each tile owns the rows of its core, ie the rows it shares with no other tile plus half of each
+ * overlap. The images are stitched from the tiles' cores, while the tracks of two consecutive tiles are linked when
+ * they follow the same path over the overlap, then clipped to each tile's core and concatenated into continuous tracks.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerTiler {
+	/** Default height of the tiles, in rows (ie timepoints), 0 to disable tiling **/
+	public static final int DEFAULT_TILE_HEIGHT=0;
+	
+	/** Default overlap between two consecutive tiles, in rows (ie timepoints) **/
+	public static final int DEFAULT_OVERLAP=64;
+	
+	/** Minimum number of timepoints two tracks should share over the overlap to be linked **/
+	static final int MIN_COMMON_POINTS=3;
+	
+	/** Maximum mean distance between two tracks over the overlap for them to be linked, in pixels **/
+	static final double MAX_DISTANCE=2.0;
+	
+	
+	
+	/**
+	 * Utility class: not meant to be instantiated
+	 */
+	private KymoButlerTiler() {}
+	
+	/**
+	 * Returns the height of the tiles, as stored in the preferences
+	 * @return the height of the tiles, in rows, 0 if tiling is disabled
+	 */
+	public static int getTileHeight() {
+		return Math.max(0, (int) Prefs.get("KymoButler_tileHeight.double", DEFAULT_TILE_HEIGHT));
+	}
+	
+	/**
+	 * Sets the height of the tiles
+	 * @param tileHeight the height of the tiles, in rows, 0 to disable tiling
+	 */
+	public static void setTileHeight(int tileHeight) {
+		Prefs.set("KymoButler_tileHeight.double", Math.max(0, tileHeight));
+	}
+	
+	/**
+	 * Returns the overlap between two consecutive tiles, as stored in the preferences
+	 * @return the overlap, in rows
+	 */
+	public static int getOverlap() {
+		return Math.max(0, (int) Prefs.get("KymoButler_tileOverlap.double", DEFAULT_OVERLAP));
+	}
+	
+	/**
+	 * Sets the overlap between two consecutive tiles
+	 * @param overlap the overlap, in rows
+	 */
+	public static void setOverlap(int overlap) {
+		Prefs.set("KymoButler_tileOverlap.double", Math.max(0, overlap));
+	}
+	
+	/**
+	 * Checks if a kymograph should be split into tiles, based on the preferences
+	 * @param height the kymograph's height, in rows
+	 * @return true if tiling is enabled and the kymograph is higher than a tile
+	 */
+	public static boolean isTiled(int height) {
+		int tileHeight=getTileHeight();
+		return tileHeight>0 && height>tileHeight && getOverlap()<tileHeight;
+	}
+	
+	/**
+	 * Computes the first row of each tile. Tiles are all tileHeight high, the last one being aligned on the kymograph's
+	 * end, its overlap with the previous tile being possibly larger
+	 * @param height the kymograph's height, in rows
+	 * @param tileHeight the height of the tiles, in rows
+	 * @param overlap the overlap between two consecutive tiles, in rows
+	 * @return the first row of each tile
+	 */
+	static int[] getTileStarts(int height, int tileHeight, int overlap) {
+		if(height<=tileHeight) return new int[] {0};
+		
+		int step=tileHeight-overlap;
+		int nTiles=(height-overlap+step-1)/step;
+		int[] starts=new int[nTiles];
+		for(int i=0; i<nTiles; i++) starts[i]=Math.min(i*step, height-tileHeight);
+		return starts;
+	}
+	
+	/**
+	 * Computes the bounds of each tile's core, ie the rows for which the tile's results are kept: the overlaps are split
+	 * in their middle
+	 * @param starts the first row of each tile
+	 * @param height the kymograph's height, in rows
+	 * @param tileHeight the height of the tiles, in rows
+	 * @return the first row of each tile's core, followed by the kymograph's height
+	 */
+	static int[] getCores(int[] starts, int height, int tileHeight) {
+		int[] cores=new int[starts.length+1];
+		for(int i=1; i<starts.length; i++) cores[i]=(starts[i]+Math.min(height, starts[i-1]+tileHeight))/2;
+		cores[starts.length]=height;
+		return cores;
+	}
+	
+	/**
+	 * Pushes the kymograph to the KymoButler webapp, as overlapping tiles sent concurrently, without waiting for the
+	 * responses. The kymograph is sent in one request if it is not higher than a tile. The parameters and overlay type
+	 * set on the input KymoButlerIO object are used for all tiles; its kymograph is left unchanged.
+	 * @param io the KymoButlerIO object used to send the tiles
+	 * @param ip the kymograph to analyse (its current slice)
+	 * @param tileHeight the height of the tiles, in rows
+	 * @param overlap the overlap between two consecutive tiles, in rows
+	 * @param deadline the maximum time to wait for each tile's response, in milliseconds, from the moment it is sent
+	 * @return a CompletableFuture that completes with the stitched response, or with the response/error of the first tile
+	 * that failed, the other tiles being cancelled. Cancelling it aborts all tiles
+	 */
+	public static CompletableFuture<KymoButlerResult> submit(KymoButlerIO io, ImagePlus ip, int tileHeight, int overlap, long deadline) {
+		final int height=ip.getHeight();
+		
+		//The tiles are encoded into the input KymoButlerIO object, whose kymograph is restored once they are all sent
+		byte[] img=io.img;
+		long encodeTime=io.encodeTime;
+		
+		if(tileHeight<=0 || height<=tileHeight || overlap>=tileHeight) {
+			try {
+				io.setKymograph(ip);
+				return io.submitDecodedAnalysis(deadline);
+			} finally {
+				io.img=img;
+				io.encodeTime=encodeTime;
+			}
+		}
+		
+		final int[] starts=getTileStarts(height, tileHeight, overlap);
+		final int[] cores=getCores(starts, height, tileHeight);
+		final String overlayType=io.getOverlayType();
+		
+		final List<CompletableFuture<KymoButlerResult>> tiles=new ArrayList<CompletableFuture<KymoButlerResult>>();
+		try {
+			ImageProcessor proc=ip.getProcessor();
+			Rectangle roi=proc.getRoi();
+			for(int i=0; i<starts.length; i++) {
+				proc.setRoi(0, starts[i], ip.getWidth(), tileHeight);
+				ImageProcessor tile=proc.crop();
+				proc.setRoi(roi);
+				
+				io.setKymograph(new ImagePlus(ip.getTitle()+"_tile_"+(i+1), tile));
+				tiles.add(io.submitDecodedAnalysis(deadline));
+			}
+		} finally {
+			io.img=img;
+			io.encodeTime=encodeTime;
+		}
+		
+		final CompletableFuture<KymoButlerResult> out=new CompletableFuture<KymoButlerResult>();
+		
+		//A single failed tile fails the stitched response: there is no point waiting for the others
+		for(CompletableFuture<KymoButlerResult> tile:tiles) {
+			tile.whenComplete((result, error) -> {
+				if(error!=null) {
+					out.completeExceptionally(error instanceof CompletionException && error.getCause()!=null?error.getCause():error);
+				}else if(hasFailed(result)) {
+					out.complete(result);
+				}
+			});
+		}
+		
+		CompletableFuture.allOf(tiles.toArray(new CompletableFuture<?>[0])).thenRun(() -> {
+			if(out.isDone()) return;
+			
+			KymoButlerResult[] results=new KymoButlerResult[tiles.size()];
+			for(int i=0; i<tiles.size(); i++) results[i]=tiles.get(i).join();
+			try {
+				out.complete(stitch(results, starts, cores, tileHeight, overlayType));
+			} catch (RuntimeException e) {
+				out.completeExceptionally(e);
+			}
+		});
+		
+		//No-op for the tiles already completed
+		out.whenComplete((result, error) -> {
+			for(CompletableFuture<KymoButlerResult> tile:tiles) tile.cancel(true);
+		});
+		
+		return out;
+	}
+	
+	/**
+	 * Stitches the tiles' responses into a single response
+	 * @param results the tiles' responses
+	 * @param starts the first row of each tile
+	 * @param cores the first row of each tile's core, followed by the kymograph's height
+	 * @param tileHeight the height of the tiles, in rows
+	 * @param overlayType the type of overlay, either OVERLAY_COMPOSITE, OVERLAY_RGB or OVERLAY_LOCAL
+	 * @return the stitched response, or the response of the first tile that failed
+	 */
+	static KymoButlerResult stitch(KymoButlerResult[] results, int[] starts, int[] cores, int tileHeight, String overlayType) {
+		KymoButlerResponseParser[] parsers=new KymoButlerResponseParser[results.length];
+		for(int i=0; i<results.length; i++) {
+			if(hasFailed(results[i])) return results[i];
+			parsers[i]=results[i].getParser();
+		}
+		
+		long start=System.nanoTime();
+		KymoButlerResponseParser out=new KymoButlerResponseParser(mergeFields(parsers), overlayType);
+		stitchKymograph(out, parsers, starts, cores);
+		if(!overlayType.equals(KymoButlerResponseParser.OVERLAY_LOCAL)) stitchOverlay(out, parsers, starts, cores);
+		stitchTracks(out, parsers, starts, cores, tileHeight);
+		
+		long elapsedTime=0;
+		long encodeTime=0;
+		int encodedSize=0;
+		for(KymoButlerResult result:results) {
+			elapsedTime=Math.max(elapsedTime, result.getElapsedTime());
+			encodeTime+=result.getEncodeTime();
+			encodedSize+=result.getEncodedSize();
+		}
+		
+		KymoButlerTimings timings=mergeTimings(results);
+		timings.add(KymoButlerTimings.TRACKS, KymoButlerTimings.since(start));
+		
+		return new KymoButlerResult(out, 200, elapsedTime).setTimings(timings).setEncoding(results[0].getUploadFormat(), encodeTime, encodedSize);
+	}
+	
+	/**
+	 * Checks if a tile's response can't be stitched, the server having reported an error
+	 * @param result the tile's response
+	 * @return true if the response is missing, not decoded, or reports an error
+	 */
+	static boolean hasFailed(KymoButlerResult result) {
+		return result==null || result.getParser()==null || result.getStatusCode()!=200 || result.getParser().hasError();
+	}
+	
+	/**
+	 * Merges the scalar fields of the tiles' responses: the smallest number of kymographs left is kept, as well as all messages
+	 * @param parsers the tiles' parsers
+	 * @return the merged scalar fields
+	 */
+	static JSONObject mergeFields(KymoButlerResponseParser[] parsers) {
+		JSONObject json=new JSONObject();
+		Set<String> messages=new LinkedHashSet<String>();
+		
+		for(KymoButlerResponseParser parser:parsers) {
+			for(String key:parser.json.keySet()) {
+				if(key.equals(KymoButlerFields.KYMOGRAPHS_LEFT_FIELD_TAG) && json.has(key)) {
+					json.put(key, Math.min(json.getInt(key), parser.getKymographsLeft()));
+				}else if(key.equals(KymoButlerFields.MESSAGES_FIELD_TAG)) {
+					messages.add(parser.getMessages());
+				}else {
+					json.put(key, parser.json.get(key));
+				}
+			}
+		}
+		
+		if(!messages.isEmpty()) json.put(KymoButlerFields.MESSAGES_FIELD_TAG, String.join("\n", messages));
+		return json;
+	}
+	
+	/**
+	 * Merges the tiles' timings: sizes are summed, while the tiles being processed concurrently, times are those of the slowest tile
+	 * @param results the tiles' responses
+	 * @return the merged timings
+	 */
+	static KymoButlerTimings mergeTimings(KymoButlerResult[] results) {
+		KymoButlerTimings out=new KymoButlerTimings();
+		Set<String> sources=new LinkedHashSet<String>();
+		
+		for(KymoButlerResult result:results) {
+			KymoButlerTimings timings=result.getTimings();
+			for(String phase:KymoButlerTimings.PHASES) {
+				double value=timings.get(phase);
+				if(Double.isNaN(value)) continue;
+				
+				double current=out.get(phase);
+				if(Double.isNaN(current)) {
+					out.set(phase, value);
+				}else if(phase.equals(KymoButlerTimings.UPLOADED) || phase.equals(KymoButlerTimings.RESPONSE_SIZE)) {
+					out.set(phase, current+value);
+				}else {
+					out.set(phase, Math.max(current, value));
+				}
+			}
+			if(!timings.getSource().isEmpty()) sources.add(timings.getSource());
+		}
+		
+		out.setSource(results.length+" tiles"+(sources.isEmpty()?"":": "+String.join(", ", sources)));
+		return out;
+	}
+	
+	/**
+	 * Stitches the tiles' kymographs, each tile providing the rows of its core
+	 * @param out the stitched parser
+	 * @param parsers the tiles' parsers
+	 * @param starts the first row of each tile
+	 * @param cores the first row of each tile's core, followed by the kymograph's height
+	 */
+	static void stitchKymograph(KymoButlerResponseParser out, KymoButlerResponseParser[] parsers, int[] starts, int[] cores) {
+		float[][] tiles=new float[parsers.length][];
+		int width=-1;
+		
+		for(int i=0; i<parsers.length; i++) {
+			ImagePlus tile=parsers[i].hasKymograph()?parsers[i].getKymograph():null;
+			if(!fits(tile, width, starts[i], cores[i+1])) return;
+			
+			width=tile.getWidth();
+			tiles[i]=(float[]) tile.getProcessor().convertToFloat().getPixels();
+		}
+		
+		int height=cores[cores.length-1];
+		out.kymographPixels=copyCores(tiles, width, height, starts, cores);
+		out.kymographWidth=width;
+		out.kymographHeight=height;
+	}
+	
+	/**
+	 * Stitches the tiles' overlays, each tile providing the rows of its core
+	 * @param out the stitched parser
+	 * @param parsers the tiles' parsers
+	 * @param starts the first row of each tile
+	 * @param cores the first row of each tile's core, followed by the kymograph's height
+	 */
+	static void stitchOverlay(KymoButlerResponseParser out, KymoButlerResponseParser[] parsers, int[] starts, int[] cores) {
+		boolean rgb=out.overlayType.equals(KymoButlerResponseParser.OVERLAY_RGB);
+		int[][] tilesRGB=new int[parsers.length][];
+		float[][][] tilesComposite=new float[3][parsers.length][];
+		int width=-1;
+		
+		for(int i=0; i<parsers.length; i++) {
+			ImagePlus tile=parsers[i].hasOverlay()?parsers[i].getOverlay():null;
+			if(!fits(tile, width, starts[i], cores[i+1]) || (rgb && tile.getBitDepth()!=24) || (!rgb && tile.getStackSize()<3)) return;
+			
+			width=tile.getWidth();
+			if(rgb) {
+				tilesRGB[i]=(int[]) tile.getProcessor().getPixels();
+			}else {
+				for(int c=0; c<3; c++) tilesComposite[c][i]=(float[]) tile.getStack().getProcessor(c+1).convertToFloat().getPixels();
+			}
+		}
+		
+		int height=cores[cores.length-1];
+		if(rgb) {
+			out.overlayRGB=copyCores(tilesRGB, width, height, starts, cores);
+		}else {
+			out.overlayPixels=new float[3][];
+			for(int c=0; c<3; c++) out.overlayPixels[c]=copyCores(tilesComposite[c], width, height, starts, cores);
+		}
+		out.overlayWidth=width;
+		out.overlayHeight=height;
+	}
+	
+	/**
+	 * Checks if a tile's image can be stitched, logging the reason why it can't
+	 * @param tile the tile's image
+	 * @param width the width of the previous tiles' images, -1 for the first tile
+	 * @param start the tile's first row
+	 * @param coreEnd the row following the tile's core
+	 * @return true if the image is present, of the same width as the previous tiles and high enough to cover the tile's core
+	 */
+	private static boolean fits(ImagePlus tile, int width, int start, int coreEnd) {
+		if(tile==null) return false;
+		
+		if((width!=-1 && tile.getWidth()!=width) || start+tile.getHeight()<coreEnd) {
+			IJ.log("The images returned for the tiles don't match the tiles' sizes: they can't be stitched");
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Copies the rows of each tile's core to a single array
+	 * @param tiles the tiles' pixels
+	 * @param width the tiles' width
+	 * @param height the stitched image's height
+	 * @param starts the first row of each tile
+	 * @param cores the first row of each tile's core, followed by the kymograph's height
+	 * @return the stitched pixels
+	 */
+	private static float[] copyCores(float[][] tiles, int width, int height, int[] starts, int[] cores) {
+		float[] out=new float[width*height];
+		for(int i=0; i<tiles.length; i++) System.arraycopy(tiles[i], (cores[i]-starts[i])*width, out, cores[i]*width, (cores[i+1]-cores[i])*width);
+		return out;
+	}
+	
+	/**
+	 * Copies the rows of each tile's core to a single array
+	 * @param tiles the tiles' pixels
+	 * @param width the tiles' width
+	 * @param height the stitched image's height
+	 * @param starts the first row of each tile
+	 * @param cores the first row of each tile's core, followed by the kymograph's height
+	 * @return the stitched pixels
+	 */
+	private static int[] copyCores(int[][] tiles, int width, int height, int[] starts, int[] cores) {
+		int[] out=new int[width*height];
+		for(int i=0; i<tiles.length; i++) System.arraycopy(tiles[i], (cores[i]-starts[i])*width, out, cores[i]*width, (cores[i+1]-cores[i])*width);
+		return out;
+	}
+	
+	/**
+	 * Stitches the tiles' tracks: tracks of consecutive tiles are linked, closest pairs first, when they share at least
+	 * MIN_COMMON_POINTS timepoints over the overlap and lie within MAX_DISTANCE pixels on average. Each chain of linked tracks
+	 * is then built from the points of each track that fall within its tile's core
+	 * @param out the stitched parser
+	 * @param parsers the tiles' parsers
+	 * @param starts the first row of each tile
+	 * @param cores the first row of each tile's core, followed by the kymograph's height
+	 * @param tileHeight the height of the tiles, in rows
+	 */
+	static void stitchTracks(KymoButlerResponseParser out, KymoButlerResponseParser[] parsers, int[] starts, int[] cores, int tileHeight) {
+		int nTiles=parsers.length;
+		
+		KymoButlerTracks[] tracks=new KymoButlerTracks[nTiles];
+		for(int i=0; i<nTiles; i++) {
+			tracks[i]=parsers[i].hasTracks()?parsers[i].getTrackData(false):null;
+			if(tracks[i]==null) tracks[i]=new KymoButlerTracks(0, 0);
+		}
+		
+		//next[i][j]: index of the track of tile i+1 following track j of tile i, -1 if none
+		int[][] next=new int[nTiles][];
+		boolean[][] linked=new boolean[nTiles][];
+		for(int i=0; i<nTiles; i++) {
+			next[i]=new int[tracks[i].size()];
+			Arrays.fill(next[i], -1);
+			linked[i]=new boolean[tracks[i].size()];
+		}
+		
+		for(int i=0; i<nTiles-1; i++) {
+			link(tracks[i], starts[i], tracks[i+1], starts[i+1], starts[i+1], Math.min(cores[nTiles], starts[i]+tileHeight), next[i], linked[i+1]);
+		}
+		
+		//Builds the chains, starting from the tracks that don't follow any other, times being shifted to the kymograph's frame
+		KymoButlerTracks stitched=new KymoButlerTracks();
+		for(int i=0; i<nTiles; i++) {
+			for(int j=0; j<tracks[i].size(); j++) {
+				if(linked[i][j]) continue;
+				
+				stitched.startTrack();
+				for(int tile=i, track=j; track!=-1; track=next[tile][track], tile++) {
+					KymoButlerTracks data=tracks[tile];
+					for(int k=data.getStart(track); k<data.getEnd(track); k++) {
+						float t=data.getTime(k)+starts[tile];
+						if(t>=cores[tile] && t<cores[tile+1]) stitched.addPoint(t, data.getPosition(k));
+					}
+				}
+				
+				if(stitched.getLength(stitched.size()-1)<2) stitched.removeLastTrack();
+			}
+		}
+		
+		stitched.trim();
+		out.tracks=stitched;
+	}
+	
+	/**
+	 * Links the tracks of two consecutive tiles, closest pairs first
+	 * @param tracks1 the first tile's tracks
+	 * @param start1 the first row of the first tile
+	 * @param tracks2 the second tile's tracks
+	 * @param start2 the first row of the second tile
+	 * @param overlapStart first row of the overlap
+	 * @param overlapEnd row following the overlap
+	 * @param next filled with the index of the second tile's track following each first tile's track, -1 if none
+	 * @param linked set to true for the second tile's tracks following a first tile's track
+	 */
+	static void link(KymoButlerTracks tracks1, int start1, KymoButlerTracks tracks2, int start2, int overlapStart, int overlapEnd, int[] next, boolean[] linked) {
+		int length=overlapEnd-overlapStart;
+		if(length<MIN_COMMON_POINTS) return;
+		
+		//Position of each second tile's track over the overlap, NaN where it is not defined
+		float[][] positions=new float[tracks2.size()][];
+		for(int j=0; j<tracks2.size(); j++) {
+			for(int k=tracks2.getStart(j); k<tracks2.getEnd(j); k++) {
+				int row=Math.round(tracks2.getTime(k))+start2-overlapStart;
+				if(row<0 || row>=length) continue;
+				
+				if(positions[j]==null) {
+					positions[j]=new float[length];
+					Arrays.fill(positions[j], Float.NaN);
+				}
+				positions[j][row]=tracks2.getPosition(k);
+			}
+		}
+		
+		List<double[]> candidates=new ArrayList<double[]>();
+		for(int i=0; i<tracks1.size(); i++) {
+			for(int j=0; j<tracks2.size(); j++) {
+				if(positions[j]==null) continue;
+				
+				int nCommon=0;
+				double distance=0;
+				for(int k=tracks1.getStart(i); k<tracks1.getEnd(i); k++) {
+					int row=Math.round(tracks1.getTime(k))+start1-overlapStart;
+					if(row<0 || row>=length || Float.isNaN(positions[j][row])) continue;
+					
+					nCommon++;
+					distance+=Math.abs(tracks1.getPosition(k)-positions[j][row]);
+				}
+				
+				if(nCommon>=MIN_COMMON_POINTS && distance/nCommon<=MAX_DISTANCE) candidates.add(new double[] {distance/nCommon, i, j});
+			}
+		}
+		
+		candidates.sort(Comparator.comparingDouble(candidate -> candidate[0]));
+		for(double[] candidate:candidates) {
+			int i=(int) candidate[1];
+			int j=(int) candidate[2];
+			if(next[i]==-1 && !linked[j]) {
+				next[i]=j;
+				linked[j]=true;
+			}
+		}
+	}
+}
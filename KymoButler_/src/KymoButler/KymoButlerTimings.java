@@ -0,0 +1,355 @@
+/**
+*
+*  KymoButlerTimings.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+import org.apache.commons.io.input.CountingInputStream;
+
+import ij.IJ;
+import ij.Prefs;
+import ij.measure.ResultsTable;
+
+/**
+ * This class is aimed at recording where the time goes while processing a single request: from the kymograph encoding
+ * to the insertion of the tracks in the RoiManager. Once the request has been fully processed, its timings are recorded:
+ * they are added to the totals exposed through JMX (as KymoButler:type=Timings) and, if enabled in the options, as a row
+ * of the "KymoButler timings" ResultsTable, which may be saved as CSV.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerTimings {
+	/** Phase: time to encode the kymograph, in milliseconds **/
+	public static final String ENCODE="Encode (ms)";
+	
+	/** Phase: size of the request's body, in bytes **/
+	public static final String UPLOADED="Uploaded (bytes)";
+	
+	/** Phase: time between sending the request and receiving the response's headers, upload included, in milliseconds **/
+	public static final String FIRST_BYTE="Time to first byte (ms)";
+	
+	/** Phase: time spent waiting for the response's body, in milliseconds **/
+	public static final String DOWNLOAD="Download (ms)";
+	
+	/** Phase: size of the response's body, in bytes **/
+	public static final String RESPONSE_SIZE="Response size (bytes)";
+	
+	/** Phase: time to parse the JSON response, download excluded, in milliseconds **/
+	public static final String PARSE="JSON parse (ms)";
+	
+	/** Phase: time to build the kymograph and overlay images, in milliseconds **/
+	public static final String IMAGE_DECODE="Image decode (ms)";
+	
+	/** Phase: time to convert the tracks to Rois, in milliseconds **/
+	public static final String TRACKS="Track conversion (ms)";
+	
+	/** Phase: time to insert the Rois in the RoiManager, in milliseconds **/
+	public static final String ROI_MANAGER="RoiManager insertion (ms)";
+	
+	/** All phases, in the order they occur **/
+	public static final String[] PHASES=new String[] {ENCODE, UPLOADED, FIRST_BYTE, DOWNLOAD, RESPONSE_SIZE, PARSE, IMAGE_DECODE, TRACKS, ROI_MANAGER};
+	
+	/** Source of the response when read from the on-disk cache **/
+	public static final String SOURCE_CACHE="Cache";
+	
+	/** Source of the response when replayed from the recordings **/
+	public static final String SOURCE_REPLAY="Replay";
+	
+	/** Title of the ResultsTable holding the recorded timings **/
+	public static final String TABLE_TITLE="KymoButler timings";
+	
+	/** The ResultsTable holding the recorded timings **/
+	private static final ResultsTable table=new ResultsTable();
+	
+	/** Totals of each phase since startup, in microseconds for times and bytes for sizes **/
+	private static final AtomicLong[] totals=new AtomicLong[PHASES.length];
+	
+	/** Number of requests recorded since startup **/
+	private static final AtomicLong nRecorded=new AtomicLong();
+	
+	static {
+		for(int i=0; i<totals.length; i++) totals[i]=new AtomicLong();
+		
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new Totals(), new ObjectName("KymoButler:type=Timings"));
+		} catch (Exception e) {
+			//JMX unavailable or already registered (e.g. class reloaded): totals are still kept
+		}
+	}
+	
+	/** Value of each phase, NaN if not measured **/
+	final double[] values=new double[PHASES.length];
+	
+	/** Source of the response: the endpoint it was received from, SOURCE_CACHE or SOURCE_REPLAY **/
+	String source="";
+	
+	
+	
+	/**
+	 * Builds a new set of timings, no phase being measured yet
+	 */
+	public KymoButlerTimings() {
+		Arrays.fill(values, Double.NaN);
+	}
+	
+	/**
+	 * Checks if the timings should be recorded to the ResultsTable
+	 * @return true if the timings should be recorded to the ResultsTable
+	 */
+	public static boolean isEnabled() {
+		return Prefs.get("KymoButler_recordTimings.boolean", false);
+	}
+	
+	/**
+	 * Returns the time elapsed since the input time
+	 * @param start the start time, as returned by System.nanoTime()
+	 * @return the elapsed time, in milliseconds
+	 */
+	public static double since(long start) {
+		return (System.nanoTime()-start)/1e6;
+	}
+	
+	/**
+	 * Sets the value of a phase
+	 * @param phase the phase, one of PHASES
+	 * @param value the value, in milliseconds for times, in bytes for sizes
+	 */
+	public synchronized void set(String phase, double value) {
+		values[indexOf(phase)]=value;
+	}
+	
+	/**
+	 * Adds the input value to a phase, for phases that occur several times (e.g. images decoding)
+	 * @param phase the phase, one of PHASES
+	 * @param value the value to add, in milliseconds for times, in bytes for sizes
+	 */
+	public synchronized void add(String phase, double value) {
+		int index=indexOf(phase);
+		values[index]=Double.isNaN(values[index])?value:values[index]+value;
+	}
+	
+	/**
+	 * Returns the value of a phase
+	 * @param phase the phase, one of PHASES
+	 * @return the value, in milliseconds for times, in bytes for sizes, NaN if not measured
+	 */
+	public synchronized double get(String phase) {
+		return values[indexOf(phase)];
+	}
+	
+	/**
+	 * Sets the source of the response
+	 * @param source the endpoint the response was received from, SOURCE_CACHE or SOURCE_REPLAY
+	 */
+	public void setSource(String source) {
+		this.source=source;
+	}
+	
+	/**
+	 * Returns the source of the response
+	 * @return the endpoint the response was received from, SOURCE_CACHE, SOURCE_REPLAY, or an empty String if unknown
+	 */
+	public String getSource() {
+		return source;
+	}
+	
+	/**
+	 * Returns the index of a phase
+	 * @param phase the phase, one of PHASES
+	 * @return the index of the phase in PHASES
+	 */
+	private static int indexOf(String phase) {
+		for(int i=0; i<PHASES.length; i++) if(PHASES[i].equals(phase)) return i;
+		throw new IllegalArgumentException("Unknown phase: "+phase);
+	}
+	
+	/**
+	 * Records the timings once the request has been fully processed: they are added to the JMX totals and, if enabled,
+	 * to the ResultsTable
+	 * @param label the label of the row, e.g. the kymograph's title
+	 */
+	public synchronized void record(String label) {
+		nRecorded.incrementAndGet();
+		for(int i=0; i<PHASES.length; i++) {
+			if(!Double.isNaN(values[i])) totals[i].addAndGet((long) (PHASES[i].endsWith("(ms)")?values[i]*1000:values[i]));
+		}
+		
+		if(isEnabled()) {
+			synchronized(table) {
+				table.incrementCounter();
+				table.addLabel(label);
+				table.addValue("Source", source);
+				for(int i=0; i<PHASES.length; i++) table.addValue(PHASES[i], values[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the ResultsTable holding the recorded timings
+	 * @return the ResultsTable holding the recorded timings
+	 */
+	public static ResultsTable getTable() {
+		return table;
+	}
+	
+	/**
+	 * Displays the ResultsTable holding the recorded timings
+	 */
+	public static void showTable() {
+		synchronized(table) {
+			table.show(TABLE_TITLE);
+		}
+	}
+	
+	/**
+	 * Saves the ResultsTable holding the recorded timings as a CSV file
+	 * @param outputPath targeted path (including the filename and extension), as a String
+	 */
+	public static void saveTable(String outputPath) {
+		synchronized(table) {
+			try {
+				table.saveAs(outputPath);
+			} catch (IOException e) {
+				IJ.log("Something went wrong while saving the timings to the provided path "+outputPath);
+			}
+		}
+	}
+	
+	/**
+	 * Empties the ResultsTable holding the recorded timings
+	 */
+	public static void resetTable() {
+		synchronized(table) {
+			table.reset();
+		}
+	}
+	
+	/**
+	 * Returns the timings, as a String
+	 * @return the measured phases, as a String
+	 */
+	@Override
+	public synchronized String toString() {
+		String out="";
+		for(int i=0; i<PHASES.length; i++) {
+			if(!Double.isNaN(values[i])) out+=(out.isEmpty()?"":", ")+PHASES[i]+": "+IJ.d2s(values[i], PHASES[i].endsWith("(ms)")?1:0);
+		}
+		return out;
+	}
+	
+	/**
+	 * This interface exposes the totals of each phase through JMX
+	 */
+	public interface TotalsMXBean {
+		/** @return the number of requests recorded since startup **/
+		long getRequests();
+		
+		/** @return the total time spent encoding kymographs, in milliseconds **/
+		long getEncodeTime();
+		
+		/** @return the total number of bytes uploaded **/
+		long getUploadedBytes();
+		
+		/** @return the total time to first byte, in milliseconds **/
+		long getTimeToFirstByte();
+		
+		/** @return the total time spent downloading responses, in milliseconds **/
+		long getDownloadTime();
+		
+		/** @return the total number of bytes received **/
+		long getResponseBytes();
+		
+		/** @return the total time spent parsing JSON responses, in milliseconds **/
+		long getParseTime();
+		
+		/** @return the total time spent building images, in milliseconds **/
+		long getImageDecodeTime();
+		
+		/** @return the total time spent converting tracks to Rois, in milliseconds **/
+		long getTrackConversionTime();
+		
+		/** @return the total time spent inserting Rois in the RoiManager, in milliseconds **/
+		long getRoiManagerTime();
+	}
+	
+	/**
+	 * This class holds the totals of each phase, as exposed through JMX
+	 */
+	private static class Totals implements TotalsMXBean {
+		public long getRequests() {return nRecorded.get();}
+		public long getEncodeTime() {return totals[0].get()/1000;}
+		public long getUploadedBytes() {return totals[1].get();}
+		public long getTimeToFirstByte() {return totals[2].get()/1000;}
+		public long getDownloadTime() {return totals[3].get()/1000;}
+		public long getResponseBytes() {return totals[4].get();}
+		public long getParseTime() {return totals[5].get()/1000;}
+		public long getImageDecodeTime() {return totals[6].get()/1000;}
+		public long getTrackConversionTime() {return totals[7].get()/1000;}
+		public long getRoiManagerTime() {return totals[8].get()/1000;}
+	}
+	
+	/**
+	 * This class counts the bytes read from a stream and the time spent waiting for them
+	 */
+	static class TimedInputStream extends CountingInputStream {
+		/** Time at which the current read started **/
+		long readStart=0;
+		
+		/** Time spent in read calls, in nanoseconds **/
+		long readTime=0;
+		
+		/**
+		 * Builds a new timed stream
+		 * @param in the stream to read from
+		 */
+		TimedInputStream(InputStream in) {
+			super(in);
+		}
+		
+		@Override
+		protected void beforeRead(int n) {
+			readStart=System.nanoTime();
+		}
+		
+		@Override
+		protected synchronized void afterRead(int n) {
+			readTime+=System.nanoTime()-readStart;
+			super.afterRead(n);
+		}
+		
+		/**
+		 * Returns the time spent in read calls
+		 * @return the time spent in read calls, in milliseconds
+		 */
+		double getReadTime() {
+			return readTime/1e6;
+		}
+	}
+}
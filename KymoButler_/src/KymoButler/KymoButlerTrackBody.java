@@ -0,0 +1,235 @@
+/**
+*
+*  KymoButlerTrackBody.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.awt.Polygon;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+
+import ij.gui.Roi;
+
+/**
+ * This class is aimed at sending a set of tracks to the KymoButler webapp, formatted as {{{t,x},{t,x},...},{{t,x},...}}.
+ * The tracks' points are captured once, then written straight to the multipart body as it is streamed, in linear time
+ * and without building the formatted String.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerTrackBody extends AbstractContentBody {
+	/** Size of the buffer used to write the body **/
+	private static final int BUFFER_SIZE=65536;
+	
+	/** Start index of each track within the points arrays, the last element being the total number of points **/
+	int[] offsets;
+	
+	/** Time coordinate (y) of all points, track after track **/
+	int[] t;
+	
+	/** Position coordinate (x) of all points, track after track **/
+	int[] x;
+	
+	/** Length of the formatted body, in bytes **/
+	long contentLength;
+	
+	
+	
+	/**
+	 * Builds a new body from the input tracks
+	 * @param rois the tracks, as an array of Rois
+	 */
+	public KymoButlerTrackBody(Roi[] rois) {
+		super(ContentType.DEFAULT_TEXT);
+		
+		Polygon[] polygons=new Polygon[rois.length];
+		offsets=new int[rois.length+1];
+		for(int i=0; i<rois.length; i++) {
+			polygons[i]=rois[i].getPolygon();
+			offsets[i+1]=offsets[i]+polygons[i].npoints;
+		}
+		
+		t=new int[offsets[rois.length]];
+		x=new int[offsets[rois.length]];
+		for(int i=0; i<rois.length; i++) {
+			System.arraycopy(polygons[i].ypoints, 0, t, offsets[i], polygons[i].npoints);
+			System.arraycopy(polygons[i].xpoints, 0, x, offsets[i], polygons[i].npoints);
+		}
+		
+		contentLength=computeContentLength();
+	}
+	
+	/**
+	 * Returns the number of tracks
+	 * @return the number of tracks
+	 */
+	public int getNTracks() {
+		return offsets.length-1;
+	}
+	
+	/**
+	 * Returns the total number of points, all tracks included
+	 * @return the total number of points
+	 */
+	public int getNPoints() {
+		return t.length;
+	}
+	
+	/**
+	 * Computes the length of the formatted body, without formatting it
+	 * @return the length of the formatted body, in bytes
+	 */
+	private long computeContentLength() {
+		int nTracks=getNTracks();
+		
+		//Enclosing braces, then for each track its braces and the separating commas
+		long length=2+(nTracks>0?nTracks-1:0);
+		for(int i=0; i<nTracks; i++) {
+			int nPoints=offsets[i+1]-offsets[i];
+			length+=2+(nPoints>0?nPoints-1:0);
+		}
+		
+		//For each point: braces, comma and coordinates
+		for(int i=0; i<t.length; i++) length+=3+getLength(t[i])+getLength(x[i]);
+		
+		return length;
+	}
+	
+	/**
+	 * Returns the number of characters needed to write an int
+	 * @param value the int
+	 * @return the number of characters, including the minus sign
+	 */
+	static int getLength(int value) {
+		if(value==Integer.MIN_VALUE) return 11;
+		int length=1;
+		if(value<0) {
+			length++;
+			value=-value;
+		}
+		while(value>=10) {
+			value/=10;
+			length++;
+		}
+		return length;
+	}
+	
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		byte[] buffer=new byte[BUFFER_SIZE];
+		int pos=0;
+		int nTracks=getNTracks();
+		
+		buffer[pos++]='{';
+		for(int i=0; i<nTracks; i++) {
+			if(i>0) buffer[pos++]=',';
+			buffer[pos++]='{';
+			
+			for(int j=offsets[i]; j<offsets[i+1]; j++) {
+				//Worst case for a point: 2 ints of 11 characters and 4 separators
+				if(pos>BUFFER_SIZE-26) {
+					out.write(buffer, 0, pos);
+					pos=0;
+				}
+				
+				if(j>offsets[i]) buffer[pos++]=',';
+				buffer[pos++]='{';
+				pos=writeInt(buffer, pos, t[j]);
+				buffer[pos++]=',';
+				pos=writeInt(buffer, pos, x[j]);
+				buffer[pos++]='}';
+			}
+			
+			if(pos>BUFFER_SIZE-3) {
+				out.write(buffer, 0, pos);
+				pos=0;
+			}
+			buffer[pos++]='}';
+		}
+		buffer[pos++]='}';
+		
+		out.write(buffer, 0, pos);
+		out.flush();
+	}
+	
+	/**
+	 * Writes an int to the buffer as ASCII characters
+	 * @param buffer the buffer to write to
+	 * @param pos the position at which to write
+	 * @param value the int to write
+	 * @return the position following the last written character
+	 */
+	private static int writeInt(byte[] buffer, int pos, int value) {
+		if(value==Integer.MIN_VALUE) {
+			byte[] digits=Integer.toString(value).getBytes(StandardCharsets.US_ASCII);
+			System.arraycopy(digits, 0, buffer, pos, digits.length);
+			return pos+digits.length;
+		}
+		
+		if(value<0) {
+			buffer[pos++]='-';
+			value=-value;
+		}
+		
+		int end=pos+getLength(value);
+		for(int i=end-1; i>=pos; i--) {
+			buffer[i]=(byte) ('0'+value%10);
+			value/=10;
+		}
+		return end;
+	}
+	
+	@Override
+	public String getFilename() {
+		return null;
+	}
+	
+	@Override
+	public String getTransferEncoding() {
+		return "8bit";
+	}
+	
+	@Override
+	public long getContentLength() {
+		return contentLength;
+	}
+	
+	/**
+	 * Returns the formatted tracks, as a String
+	 * @return the formatted tracks, as a String
+	 */
+	@Override
+	public String toString() {
+		ByteArrayOutputStream baos=new ByteArrayOutputStream((int) Math.min(contentLength, Integer.MAX_VALUE-8));
+		try {
+			writeTo(baos);
+		} catch (IOException e) {
+			//Can't happen when writing to memory
+		}
+		return new String(baos.toByteArray(), StandardCharsets.US_ASCII);
+	}
+}
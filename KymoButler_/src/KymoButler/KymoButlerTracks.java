@@ -0,0 +1,396 @@
+/**
+*
+*  KymoButlerTracks.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import ij.Prefs;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.FloatPolygon;
+
+/**
+ * This class is aimed at storing tracks compactly, as primitive arrays: the time and position of all points, track after
+ * track, and the offset of each track's first point. A track costs 4 bytes plus 8 bytes per point, and no AWT object:
+ * ROIs are only built on demand, for display or for the RoiManager. Tracks are appended one after the other, using
+ * startTrack then addPoint.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerTracks {
+	/** Offset of each track's first point in the coordinates arrays, followed by the number of points **/
+	int[] offsets;
+	
+	/** Time (ie row in the kymograph) of each point **/
+	float[] t;
+	
+	/** Position (ie column in the kymograph) of each point **/
+	float[] x;
+	
+	/** Number of tracks **/
+	int nTracks=0;
+	
+	/** Number of points **/
+	int nPoints=0;
+	
+	/** Default tolerance used to simplify the tracks: only collinear points are merged **/
+	public static final double DEFAULT_TOLERANCE=0;
+	
+	/** Relative tolerance on the collinearity test, absorbing the rounding of the coordinates **/
+	static final double COLLINEARITY=1e-6;
+	
+	
+	
+	/**
+	 * Builds a new, empty, set of tracks
+	 */
+	public KymoButlerTracks() {
+		this(64, 1024);
+	}
+	
+	/**
+	 * Builds a new, empty, set of tracks, with room for the input number of tracks and points
+	 * @param tracksCapacity the number of tracks to make room for
+	 * @param pointsCapacity the number of points to make room for
+	 */
+	public KymoButlerTracks(int tracksCapacity, int pointsCapacity) {
+		offsets=new int[Math.max(2, tracksCapacity+1)];
+		t=new float[Math.max(1, pointsCapacity)];
+		x=new float[Math.max(1, pointsCapacity)];
+	}
+	
+	/**
+	 * Builds a new set of tracks from ROIs, one point per ROI vertex (x being the position, y the time)
+	 * @param rois the ROIs (null entries are skipped)
+	 * @return the tracks
+	 */
+	public static KymoButlerTracks fromRois(Roi[] rois) {
+		KymoButlerTracks out=new KymoButlerTracks(rois.length, rois.length*16);
+		for(Roi roi:rois) {
+			if(roi==null) continue;
+			
+			FloatPolygon polygon=roi.getFloatPolygon();
+			out.startTrack();
+			for(int i=0; i<polygon.npoints; i++) out.addPoint(polygon.ypoints[i], polygon.xpoints[i]);
+		}
+		return out;
+	}
+	
+	/**
+	 * Starts a new track: the following points are added to it
+	 */
+	public void startTrack() {
+		if(nTracks+2>offsets.length) offsets=Arrays.copyOf(offsets, offsets.length*2);
+		offsets[nTracks++]=nPoints;
+		offsets[nTracks]=nPoints;
+	}
+	
+	/**
+	 * Adds a point to the last track
+	 * @param time the time of the point (ie row in the kymograph)
+	 * @param position the position of the point (ie column in the kymograph)
+	 */
+	public void addPoint(float time, float position) {
+		if(nPoints==t.length) {
+			t=Arrays.copyOf(t, nPoints*2);
+			x=Arrays.copyOf(x, nPoints*2);
+		}
+		t[nPoints]=time;
+		x[nPoints++]=position;
+		offsets[nTracks]=nPoints;
+	}
+	
+	/**
+	 * Removes the last track, e.g. if it turns out to be too short
+	 */
+	public void removeLastTrack() {
+		if(nTracks==0) return;
+		
+		nPoints=offsets[--nTracks];
+		offsets[nTracks]=nPoints;
+	}
+	
+	/**
+	 * Releases the unused capacity
+	 */
+	public void trim() {
+		offsets=Arrays.copyOf(offsets, nTracks+1);
+		t=Arrays.copyOf(t, nPoints);
+		x=Arrays.copyOf(x, nPoints);
+	}
+	
+	/**
+	 * Returns the number of tracks
+	 * @return the number of tracks
+	 */
+	public int size() {
+		return nTracks;
+	}
+	
+	/**
+	 * Returns the number of points, all tracks included
+	 * @return the number of points
+	 */
+	public int getNPoints() {
+		return nPoints;
+	}
+	
+	/**
+	 * Returns the index of the first point of a track
+	 * @param track the index of the track
+	 * @return the index of the track's first point, to be used with getTime and getPosition
+	 */
+	public int getStart(int track) {
+		return offsets[track];
+	}
+	
+	/**
+	 * Returns the index following the last point of a track
+	 * @param track the index of the track
+	 * @return the index following the track's last point
+	 */
+	public int getEnd(int track) {
+		return offsets[track+1];
+	}
+	
+	/**
+	 * Returns the number of points of a track
+	 * @param track the index of the track
+	 * @return the number of points of the track
+	 */
+	public int getLength(int track) {
+		return offsets[track+1]-offsets[track];
+	}
+	
+	/**
+	 * Returns the time of a point
+	 * @param point the index of the point, all tracks included
+	 * @return the time of the point (ie row in the kymograph)
+	 */
+	public float getTime(int point) {
+		return t[point];
+	}
+	
+	/**
+	 * Returns the position of a point
+	 * @param point the index of the point, all tracks included
+	 * @return the position of the point (ie column in the kymograph)
+	 */
+	public float getPosition(int point) {
+		return x[point];
+	}
+	
+	/**
+	 * Returns the memory used by the tracks
+	 * @return the size of the arrays, in bytes
+	 */
+	public long getMemorySize() {
+		return 4L*offsets.length+4L*t.length+4L*x.length;
+	}
+	
+	/**
+	 * Returns the tolerance used to simplify the tracks, as stored in the preferences
+	 * @return the maximum distance between a simplified track and the original one, in pixels, 0 to only merge collinear points
+	 */
+	public static double getTolerance() {
+		return Math.max(0, Prefs.get("KymoButler_simplifyTolerance.double", DEFAULT_TOLERANCE));
+	}
+	
+	/**
+	 * Sets the tolerance used to simplify the tracks
+	 * @param tolerance the maximum distance between a simplified track and the original one, in pixels, 0 to only merge collinear points
+	 */
+	public static void setTolerance(double tolerance) {
+		Prefs.set("KymoButler_simplifyTolerance.double", Math.max(0, tolerance));
+	}
+	
+	/**
+	 * Simplifies the tracks, using the tolerance stored in the preferences (see simplify(double))
+	 * @return the simplified tracks
+	 */
+	public KymoButlerTracks simplify() {
+		return simplify(getTolerance());
+	}
+	
+	/**
+	 * Simplifies the tracks, working on their coordinates as returned by the server, sub-pixel positions included. KymoButler
+	 * returns one point per timepoint: runs of collinear points are merged into segments, the tracks' shape being kept
+	 * exactly. With a positive tolerance, the tracks are further simplified (Douglas-Peucker), the simplified tracks lying
+	 * within the tolerance of the original ones. Tracks are simplified in parallel.
+	 * @param tolerance the maximum distance between a simplified track and the original one, in pixels, 0 to only merge collinear points
+	 * @return the simplified tracks
+	 */
+	public KymoButlerTracks simplify(final double tolerance) {
+		final boolean[] keep=new boolean[nPoints];
+		
+		IntStream.range(0, nTracks).parallel().forEach(track -> {
+			int start=offsets[track];
+			int end=offsets[track+1];
+			if(end==start) return;
+			
+			int nKept=mergeCollinear(start, end, keep);
+			if(tolerance>0 && nKept>2) douglasPeucker(start, end, nKept, tolerance, keep);
+		});
+		
+		KymoButlerTracks out=new KymoButlerTracks(nTracks, 0);
+		int n=0;
+		for(int i=0; i<nPoints; i++) if(keep[i]) n++;
+		out.t=new float[n];
+		out.x=new float[n];
+		
+		for(int track=0; track<nTracks; track++) {
+			out.startTrack();
+			for(int i=offsets[track]; i<offsets[track+1]; i++) if(keep[i]) out.addPoint(t[i], x[i]);
+		}
+		
+		out.trim();
+		return out;
+	}
+	
+	/**
+	 * Flags the points of a track to keep: its first and last points, and the points where its direction changes
+	 * @param start index of the track's first point
+	 * @param end index following the track's last point
+	 * @param keep set to true for the points to keep
+	 * @return the number of points kept
+	 */
+	private int mergeCollinear(int start, int end, boolean[] keep) {
+		keep[start]=true;
+		keep[end-1]=true;
+		int nKept=end-start>1?2:1;
+		
+		int anchor=start;
+		for(int i=start+1; i<end-1; i++) {
+			double dx1=x[i]-x[anchor];
+			double dt1=t[i]-t[anchor];
+			double dx2=x[i+1]-x[i];
+			double dt2=t[i+1]-t[i];
+			
+			//Collinear and in the same direction: the point lies on the segment from the anchor to the next point
+			double cross=dx1*dt2-dt1*dx2;
+			double dot=dx1*dx2+dt1*dt2;
+			boolean collinear=cross*cross<=COLLINEARITY*COLLINEARITY*(dx1*dx1+dt1*dt1)*(dx2*dx2+dt2*dt2) && dot>=0;
+			
+			if(!collinear) {
+				keep[i]=true;
+				anchor=i;
+				nKept++;
+			}
+		}
+		
+		return nKept;
+	}
+	
+	/**
+	 * Simplifies a track further, using the Douglas-Peucker algorithm on the points already flagged. The points dropped
+	 * lying on the segments between flagged points, checking the flagged points is enough for the tolerance to hold
+	 * @param start index of the track's first point
+	 * @param end index following the track's last point
+	 * @param nKept number of points flagged
+	 * @param tolerance the maximum distance between the simplified track and the original one, in pixels
+	 * @param keep the points flagged, updated with the points to keep
+	 */
+	private void douglasPeucker(int start, int end, int nKept, double tolerance, boolean[] keep) {
+		int[] vertices=new int[nKept];
+		int n=0;
+		for(int i=start; i<end; i++) if(keep[i]) vertices[n++]=i;
+		
+		boolean[] kept=new boolean[n];
+		kept[0]=true;
+		kept[n-1]=true;
+		
+		//Ranges of vertices still to process, as pairs of first and last indices
+		int[] stack=new int[2*n];
+		int top=0;
+		stack[top++]=0;
+		stack[top++]=n-1;
+		
+		while(top>0) {
+			int last=stack[--top];
+			int first=stack[--top];
+			
+			int farthest=-1;
+			double maxDistance=tolerance;
+			for(int i=first+1; i<last; i++) {
+				double distance=distanceToSegment(vertices[i], vertices[first], vertices[last]);
+				if(distance>maxDistance) {
+					maxDistance=distance;
+					farthest=i;
+				}
+			}
+			
+			if(farthest!=-1) {
+				kept[farthest]=true;
+				stack[top++]=first;
+				stack[top++]=farthest;
+				stack[top++]=farthest;
+				stack[top++]=last;
+			}
+		}
+		
+		for(int i=0; i<n; i++) keep[vertices[i]]=kept[i];
+	}
+	
+	/**
+	 * Computes the distance from a point to a segment
+	 * @param point index of the point
+	 * @param first index of the segment's first point
+	 * @param last index of the segment's last point
+	 * @return the distance, in pixels
+	 */
+	private double distanceToSegment(int point, int first, int last) {
+		double dx=x[last]-x[first];
+		double dt=t[last]-t[first];
+		double px=x[point]-x[first];
+		double pt=t[point]-t[first];
+		
+		double length=dx*dx+dt*dt;
+		double along=length>0?Math.max(0, Math.min(1, (px*dx+pt*dt)/length)):0;
+		double ex=px-along*dx;
+		double et=pt-along*dt;
+		return Math.sqrt(ex*ex+et*et);
+	}
+	
+	/**
+	 * Builds the ROI of a track, as a polyline (x being the position, y the time)
+	 * @param track the index of the track
+	 * @return the track's ROI, unnamed
+	 */
+	public Roi toRoi(int track) {
+		int start=offsets[track];
+		int end=offsets[track+1];
+		return new PolygonRoi(new FloatPolygon(Arrays.copyOfRange(x, start, end), Arrays.copyOfRange(t, start, end), end-start), Roi.POLYLINE);
+	}
+	
+	/**
+	 * Builds the ROIs of all tracks
+	 * @return the tracks' ROIs, unnamed
+	 */
+	public Roi[] toRois() {
+		Roi[] rois=new Roi[nTracks];
+		for(int i=0; i<nTracks; i++) rois[i]=toRoi(i);
+		return rois;
+	}
+}
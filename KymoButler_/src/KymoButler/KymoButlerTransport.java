@@ -0,0 +1,190 @@
+/**
+*
+*  KymoButlerTransport.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpEntity;
+
+import ij.IJ;
+import ij.Prefs;
+
+/**
+ * This class is aimed at running KymoButlerIO without a network, e.g. to profile the parsing and ROI paths on real
+ * payloads, repeatably. In record mode, every successful response received by KymoButlerIO is stored, compressed, in the
+ * recordings folder. In replay mode, no request is sent: each one is answered with the recorded response. Responses are
+ * keyed by the request's content (query, kymograph, parameters, tracks), whatever the endpoint it was sent to.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButlerTransport {
+	/** Transport mode: requests are sent to the server **/
+	public static final String MODE_NETWORK="Network";
+	
+	/** Transport mode: requests are sent to the server, and the responses recorded **/
+	public static final String MODE_RECORD="Record";
+	
+	/** Transport mode: requests are answered with the recorded responses, without a network **/
+	public static final String MODE_REPLAY="Replay";
+	
+	/** All transport modes **/
+	public static final String[] MODES=new String[] {MODE_NETWORK, MODE_RECORD, MODE_REPLAY};
+	
+	/** Extension of the recorded responses **/
+	private static final String EXTENSION=".json.gz";
+	
+	/** Extracts the boundary from a multipart entity's Content-Type **/
+	private static final Pattern BOUNDARY=Pattern.compile("boundary=([^;]+)");
+	
+	/** Number of responses recorded since startup **/
+	private static final AtomicLong recorded=new AtomicLong();
+	
+	/** Number of requests answered with a recorded response since startup **/
+	private static final AtomicLong replayed=new AtomicLong();
+	
+	/** Number of requests for which no recorded response was found since startup **/
+	private static final AtomicLong missing=new AtomicLong();
+	
+	
+	
+	/**
+	 * Utility class: not meant to be instantiated
+	 */
+	private KymoButlerTransport() {}
+	
+	/**
+	 * Returns the transport mode, as stored in the preferences
+	 * @return the transport mode, one of MODES
+	 */
+	public static String getMode() {
+		String mode=Prefs.get("KymoButler_transport.string", MODE_NETWORK);
+		return mode.equals(MODE_RECORD) || mode.equals(MODE_REPLAY)?mode:MODE_NETWORK;
+	}
+	
+	/**
+	 * Sets the transport mode
+	 * @param mode the transport mode, one of MODES
+	 */
+	public static void setMode(String mode) {
+		Prefs.set("KymoButler_transport.string", mode);
+	}
+	
+	/**
+	 * Returns the folder in which the responses are recorded
+	 * @return the folder in which the responses are recorded
+	 */
+	public static File getDirectory() {
+		String dir=Prefs.get("KymoButler_recordingsDir.string", "");
+		return dir.isEmpty()?new File(Prefs.getPrefsDir(), "KymoButler_recordings"):new File(dir);
+	}
+	
+	/**
+	 * Computes the key under which the response to a request is recorded, as the SHA-256 hash of the request's content.
+	 * The multipart boundary, which is random, is left out so that identical requests share the same key
+	 * @param entity the request's content
+	 * @return the key, as an hexadecimal String, or null if the request's content can't be read
+	 */
+	static String getKey(HttpEntity entity) {
+		try {
+			ByteArrayOutputStream out=new ByteArrayOutputStream((int) Math.max(0, Math.min(Integer.MAX_VALUE-8, entity.getContentLength())));
+			entity.writeTo(out);
+			
+			//ISO-8859-1 maps each byte to a single char, leaving the binary parts untouched
+			String content=new String(out.toByteArray(), StandardCharsets.ISO_8859_1);
+			Matcher boundary=BOUNDARY.matcher(entity.getContentType()==null?"":entity.getContentType().getValue());
+			if(boundary.find()) content=content.replace(boundary.group(1), "");
+			
+			return KymoButlerCache.getKey(content.getBytes(StandardCharsets.ISO_8859_1));
+		} catch (IOException e) {
+			IJ.log("Something went wrong while reading the request's content: it can't be recorded/replayed");
+			return null;
+		}
+	}
+	
+	/**
+	 * Looks for the recorded response to a request, counting replayed and missing responses
+	 * @param key the key of the request
+	 * @return the recorded file, to be opened using KymoButlerCache.open, or null if no response was recorded
+	 */
+	static File lookup(String key) {
+		File file=key==null?null:new File(getDirectory(), key+EXTENSION);
+		
+		if(file!=null && file.isFile()) {
+			replayed.incrementAndGet();
+			return file;
+		}
+		
+		missing.incrementAndGet();
+		return null;
+	}
+	
+	/**
+	 * Opens a stream to record a response: the response is only made available once committed, recorders of the same key
+	 * not interfering with each other
+	 * @param key the key of the request
+	 * @return a stream to write the uncompressed response to, or null if the recordings folder can't be written
+	 */
+	static KymoButlerStagedOutputStream openWriter(String key) {
+		try {
+			return new KymoButlerStagedOutputStream(new File(getDirectory(), key+EXTENSION));
+		} catch (IOException e) {
+			IJ.log("Something went wrong while recording the response to "+getDirectory()+": "+e.getMessage());
+			return null;
+		}
+	}
+	
+	/**
+	 * Makes a response written through openWriter available for replay
+	 * @param out the stream the response was written to
+	 */
+	static void commit(KymoButlerStagedOutputStream out) {
+		if(out.commit()) recorded.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the number of recorded responses
+	 * @return the number of responses in the recordings folder
+	 */
+	public static int getNRecordings() {
+		File[] files=getDirectory().listFiles();
+		int n=0;
+		if(files!=null) for(File file:files) if(file.getName().endsWith(EXTENSION)) n++;
+		return n;
+	}
+	
+	/**
+	 * Returns the transport usage statistics, as a String
+	 * @return the transport usage statistics, as a String
+	 */
+	public static String getStatistics() {
+		return "Transport: "+getMode()+", "+recorded.get()+" response(s) recorded, "+replayed.get()+" replayed, "+missing.get()+" missing, "
+				+getNRecordings()+" recording(s) in "+getDirectory();
+	}
+}
@@ -26,13 +26,17 @@ import java.util.Date;
 
 import KymoButler.KymoButlerIO;
 import KymoButler.KymoButlerResponseParser;
+import KymoButler.KymoButlerTiler;
+import KymoButler.KymoButlerTimings;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.Prefs;
 import ij.WindowManager;
 import ij.gui.GenericDialog;
 import ij.gui.WaitForUserDialog;
 import ij.measure.Calibration;
+import ij.plugin.HyperStackConverter;
 import ij.plugin.PlugIn;
 
 /**
@@ -59,9 +63,15 @@ public class KymoButler_Analyze implements PlugIn{
 	/** Preferences: minimumFrames **/
 	float minimumFrames=(float) Prefs.get("KymoButler_minimumFrames.double", kbio.getMinimumFrames());
 	
+	/** Preferences: analyseStack **/
+	boolean analyseStack=Prefs.get("KymoButler_analyseStack.boolean", true);
+	
 	/** Preferences: addToManager **/
 	boolean addToManager=Prefs.get("KymoButler_addToManager.boolean", true);
 	
+	/** Preferences: addToOverlay **/
+	boolean addToOverlay=Prefs.get("KymoButler_addToOverlay.boolean", false);
+	
 	/** Preferences: simplifyRois **/
 	boolean simplifyTracks=Prefs.get("KymoButler_simplifyTracks.boolean", true);
 	
@@ -74,6 +84,9 @@ public class KymoButler_Analyze implements PlugIn{
 	/** Preferences: showOverlay **/
 	boolean showOverlay=Prefs.get("KymoButler_showOverlay.boolean", true);
 	
+	/** Preferences: overlayType **/
+	String overlayType=Prefs.get("KymoButler_overlayType.string", KymoButlerResponseParser.OVERLAY_COMPOSITE);
+	
 	/** Preferences: allowCorrections **/
 	boolean allowCorrections=Prefs.get("KymoButler_allowCorrections.boolean", false);
 	
@@ -93,7 +106,7 @@ public class KymoButler_Analyze implements PlugIn{
 			+ "<br><br>"
 			+ "The plugin is brought to you by F.P. Cordelières <a href=\"mailto:fabrice.cordelieres@gmail.com?subject=KymoButler for IJ\">fabrice.cordelieres@gmail.com</a>";
 	
-
+	
 	@Override
 	public void run(String arg) {
 		ip=WindowManager.getCurrentImage();
@@ -121,15 +134,18 @@ public class KymoButler_Analyze implements PlugIn{
 		gd.addNumericField("Threshold (default: 0.2)", p, 2);
 		gd.addNumericField("Minimum_size (default: 3)", minimumSize, 0);
 		gd.addNumericField("Minimum_frames (default: 3)", minimumFrames, 0);
+		if(ip.getStackSize()>1) gd.addCheckbox("Analyse_all_slices ("+ip.getStackSize()+" kymographs)", analyseStack);
 		
 		gd.addMessage("");
 		
 		gd.addMessage("<html><b><u>Output</u></b</html>");
 		gd.addCheckbox("Add to manager", addToManager);
+		gd.addCheckbox("Add_to_overlay", addToOverlay);
 		gd.addCheckbox("Simplify tracks", simplifyTracks);
-		gd.addCheckbox("Clear manager before adding", clearManager);
+		gd.addCheckbox("Clear manager/overlay before adding", clearManager);
 		gd.addCheckbox("Show_kymograph", showKymo);
 		gd.addCheckbox("Show_overlay", showOverlay);
+		gd.addChoice("Overlay_type", KymoButlerResponseParser.OVERLAY_TYPES, overlayType);
 		gd.addCheckbox("Allow_corrections", allowCorrections);
 		
 		gd.addMessage("<html><p style=\"color:#FF0000\";><b><u>Note</u></b>: By using this plugin, you agree your image<br>"
@@ -143,13 +159,16 @@ public class KymoButler_Analyze implements PlugIn{
 			p=(float) gd.getNextNumber();
 			minimumSize=(float) gd.getNextNumber();
 			minimumFrames=(float) gd.getNextNumber();
+			if(ip.getStackSize()>1) analyseStack=gd.getNextBoolean();
 			
 			addToManager=gd.getNextBoolean();
+			addToOverlay=gd.getNextBoolean();
 			simplifyTracks=gd.getNextBoolean();
 			clearManager=gd.getNextBoolean();
 			showKymo=gd.getNextBoolean();
 			showOverlay=gd.getNextBoolean();
 			allowCorrections=gd.getNextBoolean();
+			overlayType=gd.getNextChoice();
 			
 			storePreferences();
 			
@@ -164,34 +183,61 @@ public class KymoButler_Analyze implements PlugIn{
 		Prefs.set("KymoButler_p.double", p);
 		Prefs.set("KymoButler_minimumSize.double", minimumSize);
 		Prefs.set("KymoButler_minimumFrames.double", minimumFrames);
+		Prefs.set("KymoButler_analyseStack.boolean", analyseStack);
 		Prefs.set("KymoButler_addToManager.boolean", addToManager);
+		Prefs.set("KymoButler_addToOverlay.boolean", addToOverlay);
 		Prefs.set("KymoButler_simplifyTracks.boolean", simplifyTracks);
 		Prefs.set("KymoButler_clearManager.boolean", clearManager);
 		Prefs.set("KymoButler_showKymo.boolean", showKymo);
 		Prefs.set("KymoButler_showOverlay.boolean", showOverlay);
 		Prefs.set("KymoButler_allowCorrections.boolean", allowCorrections);
+		Prefs.set("KymoButler_overlayType.string", overlayType);
 	}
 	
 	/**
 	 * Launches analysis once all parameters have been set, returns all images and ROIs
 	 */
 	public void runAnalysis() {
-		if(showKymo || showOverlay || addToManager) {
+		if(showKymo || showOverlay || addToManager || addToOverlay) {
 			Calibration cal=ip.getCalibration();
 			
-			kbio.setCurrentImageAsKymograph();
+			if(analyseStack && ip.getStackSize()>1) {
+				runStackAnalysis(cal);
+				return;
+			}
+			
+			//Kymographs higher than a tile are sent as overlapping tiles, the kymograph being encoded tile by tile
+			boolean tiled=KymoButlerTiler.isTiled(ip.getHeight());
+			if(!tiled) kbio.setCurrentImageAsKymograph();
 			kbio.setThreshold(p);
 			kbio.setMinimumSize(minimumSize);
 			kbio.setMinimumFrames(minimumFrames);
+			kbio.setOverlayType(overlayType);
 			
-			String response=kbio.getAnalysisResults();
+			//In debug mode, the response is kept as a String to be saved, otherwise it is decoded on the fly
+			String response=null;
+			KymoButlerResponseParser pkr=null;
 			
-			if(response==null) {
+			if(tiled) {
+				pkr=kbio.getTiledAnalysisResults(ip, KymoButlerTiler.getTileHeight(), KymoButlerTiler.getOverlap());
+			}else if(debug) {
+				response=kbio.getAnalysisResults();
+				if(response!=null && KymoButlerResponseParser.isJSON(response)) {
+					long parseStart=System.nanoTime();
+					pkr=new KymoButlerResponseParser(response);
+					pkr.setTimings(kbio.getTimings());
+					pkr.getTimings().set(KymoButlerTimings.PARSE, KymoButlerTimings.since(parseStart));
+					pkr.setOverlayType(overlayType);
+				}
+			}else {
+				pkr=kbio.getDecodedAnalysisResults();
+			}
+			
+			if(response==null && pkr==null && !kbio.hasMalformedResponse()) {
 				IJ.showStatus("Process cancelled, either by server or by user");
 			}else {
-				if(KymoButlerResponseParser.isJSON(response)){
-					KymoButlerResponseParser pkr=new KymoButlerResponseParser(response);
-
+				if(pkr!=null){
+					
 					/** Check if KB returns an error before running parsing*/
 					if(pkr.hasError()){
 						if(pkr.hasMessages()){ 
@@ -201,9 +247,10 @@ public class KymoButler_Analyze implements PlugIn{
 						}		
 					}else{	
 						if(addToManager) pkr.pushRoisToRoiManager(simplifyTracks, clearManager);
+						if(addToOverlay) pkr.addTracksToOverlay(ip, simplifyTracks, clearManager);
 						if(showKymo) pkr.showKymograph(cal);
 						if(showOverlay) pkr.showOverlay(cal);
-					
+						
 						if(addToManager && allowCorrections) {
 							WaitForUserDialog wfud= new WaitForUserDialog("Correct and re-train", "From the current detections list you may:"+"\n"
 																							+" \n"
@@ -222,20 +269,128 @@ public class KymoButler_Analyze implements PlugIn{
 																							+"Once done, please click on Ok"
 																							);
 							wfud.show();
-							new KymoButler_Upload().run(null);
+							new KymoButler_Upload(kbio).run(null);
 						}
-					
-					
+						
+						
 						if(debug && pkr.hasSomethingToLog()) IJ.log(pkr.getSomethingToLog());
 					}
+					
+					pkr.getTimings().record(ip.getTitle());
+					if(KymoButlerTimings.isEnabled()) KymoButlerTimings.showTable();
+					if(debug) IJ.log("Timings: "+pkr.getTimings());
 				}else {
 					IJ.showStatus("The response doesn't seem to be properly formatted");
 				}
 			}
 			
-			if(debug) kbio.saveResults(response, IJ.getDirectory("imageJ")+(new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date()))+"_debug_KymoButler.json");			
+			if(debug && !tiled) kbio.saveResults(response, IJ.getDirectory("imageJ")+(new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date()))+"_debug_KymoButler.json");			
 		}else {
 			IJ.showStatus("Nothing to do, please check at least one option");
 		}
 	}
+	
+	/**
+	 * Launches analysis of all slices of the stack, each slice being an independent kymograph: all slices are analysed
+	 * concurrently. Kymographs and overlays are returned as hyperstacks matching the input stack, ROIs being tagged with
+	 * their slice's position
+	 * @param cal the calibration to apply to the kymographs and overlays
+	 */
+	public void runStackAnalysis(Calibration cal) {
+		kbio.setThreshold(p);
+		kbio.setMinimumSize(minimumSize);
+		kbio.setMinimumFrames(minimumFrames);
+		kbio.setOverlayType(overlayType);
+		
+		boolean tiled=KymoButlerTiler.isTiled(ip.getHeight());
+		KymoButlerResponseParser[] pkrs=kbio.getStackAnalysisResults(ip, tiled?KymoButlerTiler.getTileHeight():0, KymoButlerTiler.getOverlap());
+		
+		ImagePlus[] kymographs=new ImagePlus[pkrs.length];
+		ImagePlus[] overlays=new ImagePlus[pkrs.length];
+		boolean clear=clearManager;
+		int nAnalysed=0;
+		
+		for(int i=0; i<pkrs.length; i++) {
+			KymoButlerResponseParser pkr=pkrs[i];
+			
+			if(pkr==null) {
+				IJ.log("Slice "+(i+1)+": process cancelled, either by server or by user");
+			}else {
+				if(pkr.hasError()) {
+					IJ.log("Slice "+(i+1)+": "+(pkr.hasMessages()?pkr.getMessages():"Undefined Error!"));
+				}else {
+					if(ip.isHyperStack()) {
+						int[] position=ip.convertIndexToPosition(i+1);
+						pkr.setPosition(position[0], position[1], position[2]);
+					}else {
+						pkr.setPosition(i+1);
+					}
+					
+					if(addToManager) pkr.pushRoisToRoiManager(simplifyTracks, clear);
+					if(addToOverlay) pkr.addTracksToOverlay(ip, simplifyTracks, clear);
+					clear=false;
+					if(showKymo) kymographs[i]=pkr.getKymograph();
+					if(showOverlay) overlays[i]=pkr.getOverlay();
+					nAnalysed++;
+					
+					if(debug && pkr.hasSomethingToLog()) IJ.log("Slice "+(i+1)+": "+pkr.getSomethingToLog());
+				}
+				
+				pkr.getTimings().record(ip.getTitle()+", slice "+(i+1));
+				if(debug) IJ.log("Slice "+(i+1)+", timings: "+pkr.getTimings());
+			}
+		}
+		
+		if(showKymo) show(toHyperStack("Kymograph", kymographs), cal);
+		if(showOverlay) show(toHyperStack("Overlay", overlays), cal);
+		if(KymoButlerTimings.isEnabled()) KymoButlerTimings.showTable();
+		
+		if(addToManager && allowCorrections) IJ.log("Corrections can't be sent for a stack: please correct and upload each kymograph on its own");
+		IJ.showStatus(nAnalysed+"/"+pkrs.length+" slices analysed");
+	}
+	
+	/**
+	 * Assembles the images returned for each slice into a hyperstack of the same dimensions as the input stack. Composite
+	 * overlays keep their 3 channels, the input channels being laid out as slices. Slices that failed are left blank
+	 * @param title the title of the hyperstack
+	 * @param images the images returned for each slice, null for the slices that failed
+	 * @return the hyperstack, or null if no image was returned
+	 */
+	ImagePlus toHyperStack(String title, ImagePlus[] images) {
+		ImagePlus reference=null;
+		for(ImagePlus image:images) if(reference==null && image!=null) reference=image;
+		if(reference==null) return null;
+		
+		int width=reference.getWidth();
+		int height=reference.getHeight();
+		int nPlanes=reference.getStackSize();
+		ImageStack is=new ImageStack(width, height);
+		
+		for(int i=0; i<images.length; i++) {
+			boolean blank=images[i]==null || images[i].getWidth()!=width || images[i].getHeight()!=height || images[i].getStackSize()!=nPlanes
+					|| images[i].getBitDepth()!=reference.getBitDepth();
+			if(images[i]!=null && blank) IJ.log("Slice "+(i+1)+": the "+title.toLowerCase()+" doesn't match the other slices' size and is left blank");
+			
+			for(int j=1; j<=nPlanes; j++) is.addSlice("Slice_"+(i+1), blank?reference.getProcessor().createProcessor(width, height):images[i].getStack().getProcessor(j));
+		}
+		
+		ImagePlus out=new ImagePlus(title, is);
+		if(nPlanes==3) return HyperStackConverter.toHyperStack(out, 3, ip.getNChannels()*ip.getNSlices(), ip.getNFrames(), "Composite");
+		
+		out.setDimensions(ip.getNChannels(), ip.getNSlices(), ip.getNFrames());
+		if(ip.isHyperStack()) out.setOpenAsHyperStack(true);
+		return out;
+	}
+	
+	/**
+	 * Displays an image, applying the input calibration
+	 * @param image the image to display (nothing is done if null)
+	 * @param cal the calibration to apply
+	 */
+	void show(ImagePlus image, Calibration cal) {
+		if(image!=null) {
+			image.setCalibration(cal);
+			image.show();
+		}
+	}
 }
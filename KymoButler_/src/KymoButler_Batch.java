@@ -0,0 +1,421 @@
+/**
+*
+*  KymoButler_Batch.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.io.File;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import KymoButler.KymoButlerCache;
+import KymoButler.KymoButlerEndpoints;
+import KymoButler.KymoButlerHttpClient;
+import KymoButler.KymoButlerIO;
+import KymoButler.KymoButlerQuotaScheduler;
+import KymoButler.KymoButlerResponseParser;
+import KymoButler.KymoButlerResult;
+import KymoButler.KymoButlerRetryPolicy;
+import KymoButler.KymoButlerTimings;
+import KymoButler.KymoButlerTransport;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.measure.Calibration;
+import ij.plugin.PlugIn;
+
+/**
+ * This class is aimed at launching the analysis of a series of kymographs using the KymoButler webservice, several requests
+ * being sent simultaneously. Results are saved to disk rather than being displayed
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButler_Batch implements PlugIn{
+	/** Source: all images from a folder **/
+	public static final String SOURCE_FOLDER="Folder";
+	
+	/** Source: all opened images **/
+	public static final String SOURCE_OPENED="Opened images";
+	
+	/** Quota exhausted: wait for the server to grant new kymographs **/
+	public static final String QUOTA_WAIT="Wait for renewal";
+	
+	/** Quota exhausted: skip the remaining kymographs **/
+	public static final String QUOTA_SKIP="Skip remaining kymographs";
+	
+	/** KymoButler API URL **/
+	String URL=Prefs.get("KymoButler_URL.string", "");
+	
+	/** KymoButlerIO object: only used to retrieve default parameters and save debug files **/
+	KymoButlerIO kbio=new KymoButlerIO();
+	
+	/** Preferences: source of the kymographs **/
+	String source=Prefs.get("KymoButler_batchSource.string", SOURCE_FOLDER);
+	
+	/** Preferences: threshold **/
+	float p=(float) Prefs.get("KymoButler_p.double", kbio.getThreshold());
+	
+	/** Preferences: minimumSize **/
+	float minimumSize=(float) Prefs.get("KymoButler_minimumSize.double", kbio.getMinimumSize());
+	
+	/** Preferences: minimumFrames **/
+	float minimumFrames=(float) Prefs.get("KymoButler_minimumFrames.double", kbio.getMinimumFrames());
+	
+	/** Preferences: simplifyRois **/
+	boolean simplifyTracks=Prefs.get("KymoButler_simplifyTracks.boolean", true);
+	
+	/** Preferences: saveKymo **/
+	boolean saveKymo=Prefs.get("KymoButler_saveKymo.boolean", true);
+	
+	/** Preferences: saveOverlay **/
+	boolean saveOverlay=Prefs.get("KymoButler_saveOverlay.boolean", true);
+	
+	/** Preferences: overlayType **/
+	String overlayType=Prefs.get("KymoButler_overlayType.string", KymoButlerResponseParser.OVERLAY_COMPOSITE);
+	
+	/** Preferences: number of requests sent simultaneously to the server(s) **/
+	int nConcurrent=(int) Prefs.get("KymoButler_batchConcurrent.double", KymoButlerHttpClient.getMaxPerRoute()*KymoButlerEndpoints.getEndpoints(URL).size());
+	
+	/** Preferences: what to do once the quota is exhausted **/
+	String quotaMode=Prefs.get("KymoButler_batchQuotaMode.string", QUOTA_WAIT);
+	
+	/** Debug tag: true to save JSON in the output folder **/
+	boolean debug=Prefs.get("KymoButler_debug.boolean", false);
+	
+	/** The folder in which the kymographs are stored (folder mode only) **/
+	String inputDir=null;
+	
+	/** The folder in which results are saved **/
+	String outputDir=null;
+	
+	/** Number of kymographs processed so far **/
+	AtomicInteger nDone=new AtomicInteger();
+	
+	/** Number of kymographs for which the analysis failed **/
+	AtomicInteger nFailed=new AtomicInteger();
+	
+	/** Number of kymographs successfully analysed **/
+	AtomicInteger nSucceeded=new AtomicInteger();
+	
+	
+	@Override
+	public void run(String arg) {
+		if(KymoButlerIO.checkForLibraries()) {
+			if(!URL.isEmpty()) {
+				if(showGUI()) runBatch();
+			}else {
+				IJ.showMessage("No URL found for the API: please set one under the KymoButler/Options menu");
+			}
+		}else {
+			IJ.showStatus("Installation of the required libraries needs to be done");
+		}
+	}
+	
+	/**
+	 * Displays the GUI, stores the parameters and asks for the input/output folders
+	 * @return true if the GUI was Oked and all folders set, false otherwise
+	 */
+	public boolean showGUI() {
+		GenericDialog gd=new GenericDialog("KymoButler batch for IJ by fabrice.cordelieres@gmail.com");
+		gd.addMessage("<html><b><u>Input</u></b</html>");
+		gd.addChoice("Kymographs_source", new String[] {SOURCE_FOLDER, SOURCE_OPENED}, source);
+		gd.addNumericField("Simultaneous_requests", nConcurrent, 0);
+		gd.addChoice("When_quota_is_exhausted", new String[] {QUOTA_WAIT, QUOTA_SKIP}, quotaMode);
+		
+		gd.addMessage("");
+		
+		gd.addMessage("<html><b><u>Parameters</u></b</html>");
+		gd.addNumericField("Threshold (default: 0.2)", p, 2);
+		gd.addNumericField("Minimum_size (default: 3)", minimumSize, 0);
+		gd.addNumericField("Minimum_frames (default: 3)", minimumFrames, 0);
+		
+		gd.addMessage("");
+		
+		gd.addMessage("<html><b><u>Output</u></b</html>");
+		gd.addCheckbox("Simplify tracks", simplifyTracks);
+		gd.addCheckbox("Save_kymograph", saveKymo);
+		gd.addCheckbox("Save_overlay", saveOverlay);
+		gd.addChoice("Overlay_type", KymoButlerResponseParser.OVERLAY_TYPES, overlayType);
+		
+		gd.addMessage("<html><p style=\"color:#FF0000\";><b><u>Note</u></b>: By using this plugin, you agree your images<br>"
+													  + "will be pushed to the <b>KymoButler</b> server and might<br>"
+													  + "be used anonymously for software improvements</p></html>");
+		gd.showDialog();
+		
+		if(!gd.wasOKed()) return false;
+		
+		source=gd.getNextChoice();
+		nConcurrent=Math.max(1, (int) gd.getNextNumber());
+		quotaMode=gd.getNextChoice();
+		p=(float) gd.getNextNumber();
+		minimumSize=(float) gd.getNextNumber();
+		minimumFrames=(float) gd.getNextNumber();
+		simplifyTracks=gd.getNextBoolean();
+		saveKymo=gd.getNextBoolean();
+		saveOverlay=gd.getNextBoolean();
+		overlayType=gd.getNextChoice();
+		
+		storePreferences();
+		
+		if(source.equals(SOURCE_FOLDER)) {
+			inputDir=IJ.getDirectory("Select the folder containing the kymographs");
+			if(inputDir==null) return false;
+		}else if(WindowManager.getImageCount()==0) {
+			IJ.showMessage("Nothing to do, please open an image first");
+			return false;
+		}
+		
+		outputDir=IJ.getDirectory("Select the folder where to save the results");
+		
+		return outputDir!=null;
+	}
+	
+	/**
+	 * Stores preferences, based on the user input
+	 */
+	public void storePreferences() {
+		Prefs.set("KymoButler_batchSource.string", source);
+		Prefs.set("KymoButler_batchConcurrent.double", nConcurrent);
+		Prefs.set("KymoButler_batchQuotaMode.string", quotaMode);
+		Prefs.set("KymoButler_p.double", p);
+		Prefs.set("KymoButler_minimumSize.double", minimumSize);
+		Prefs.set("KymoButler_minimumFrames.double", minimumFrames);
+		Prefs.set("KymoButler_simplifyTracks.boolean", simplifyTracks);
+		Prefs.set("KymoButler_saveKymo.boolean", saveKymo);
+		Prefs.set("KymoButler_saveOverlay.boolean", saveOverlay);
+		Prefs.set("KymoButler_overlayType.string", overlayType);
+	}
+	
+	/**
+	 * Submits all kymographs to the server, keeping at most nConcurrent requests in flight, and waits for all of them to be done.
+	 * Encoding takes place on the calling thread while previous requests are awaited, results being saved on a separate thread.
+	 * Kymographs are submitted smallest first, within the quota granted by the server: once exhausted, submissions are either
+	 * paused until it is renewed or stopped, depending on the quota mode
+	 */
+	public void runBatch() {
+		ArrayList<String> items=new ArrayList<String>();
+		
+		if(source.equals(SOURCE_FOLDER)) {
+			String[] files=new File(inputDir).list();
+			if(files!=null) for(String file:files) if(!file.startsWith(".") && !new File(inputDir+file).isDirectory()) items.add(file);
+		}else {
+			for(int ID:WindowManager.getIDList()) items.add(""+ID);
+		}
+		
+		if(items.isEmpty()) {
+			IJ.showMessage("Nothing to do, no kymograph found");
+			return;
+		}
+		
+		KymoButlerHttpClient.ensureCapacity(nConcurrent);
+		final Semaphore inFlight=new Semaphore(nConcurrent);
+		ArrayList<CompletableFuture<KymoButlerResult>> requests=new ArrayList<CompletableFuture<KymoButlerResult>>();
+		ArrayList<CompletableFuture<Boolean>> futures=new ArrayList<CompletableFuture<Boolean>>();
+		ExecutorService saver=Executors.newFixedThreadPool(Math.max(1, Math.min(nConcurrent, Runtime.getRuntime().availableProcessors())));
+		long start=System.currentTimeMillis();
+		final int nItems=items.size();
+		IJ.resetEscape();
+		
+		sortBySize(items);
+		if(KymoButlerTimings.isEnabled()) KymoButlerTimings.resetTable();
+		
+		int nEndpoints=KymoButlerEndpoints.getEndpoints(URL).size();
+		if(nEndpoints>1) {
+			IJ.log("KymoButler batch: requests spread over "+nEndpoints+" endpoints, the quota being the one of "+URL);
+			KymoButlerEndpoints.checkHealth(URL);
+		}
+		
+		final KymoButlerQuotaScheduler quota=new KymoButlerQuotaScheduler(URL);
+		if(quota.refresh()) {
+			IJ.log("KymoButler batch: "+items.size()+" kymograph(s) to analyse, "+quota.getStatistics());
+			if(quota.getKymographsLeft()<items.size()) IJ.log("KymoButler batch: the quota is too low to analyse all kymographs, "
+					+(quotaMode.equals(QUOTA_WAIT)?"the batch will pause until it is renewed (checked every "+KymoButlerQuotaScheduler.getPollInterval()+" sec)":"the remaining ones will be skipped")
+					+" unless their results are cached");
+		}
+		
+		for(String item:items) {
+			try {
+				while(!inFlight.tryAcquire(250, TimeUnit.MILLISECONDS)) if(IJ.escapePressed()) break;
+			} catch (InterruptedException e) {
+				break;
+			}
+			if(IJ.escapePressed()) break;
+			
+			final ImagePlus ip=source.equals(SOURCE_FOLDER)?IJ.openImage(inputDir+item):WindowManager.getImage(Integer.parseInt(item));
+			if(ip==null) {
+				IJ.log(item+": could not be opened as an image");
+				nFailed.incrementAndGet();
+				IJ.showProgress(nDone.incrementAndGet(), nItems);
+				inFlight.release();
+				continue;
+			}
+			
+			KymoButlerIO io=new KymoButlerIO();
+			io.setURL(URL);
+			io.setKymograph(ip);
+			io.setThreshold(p);
+			io.setMinimumSize(minimumSize);
+			io.setMinimumFrames(minimumFrames);
+			io.setOverlayType(overlayType);
+			
+			final String title=ip.getTitle();
+			final Calibration cal=ip.getCalibration();
+			if(source.equals(SOURCE_FOLDER)) ip.flush();
+			
+			//Cached results don't use the quota
+			final boolean usesQuota=!io.isCached();
+			if(usesQuota && !quota.acquire(quotaMode.equals(QUOTA_WAIT))) {
+				inFlight.release();
+				if(!IJ.escapePressed()) IJ.log("KymoButler batch: quota exhausted, "+(nItems-items.indexOf(item))+" kymograph(s) skipped");
+				break;
+			}
+			
+			//In debug mode, the response is kept as a String to be saved, otherwise it is decoded on the fly
+			CompletableFuture<KymoButlerResult> request=debug?io.submitAnalysis():io.submitDecodedAnalysis(io.getTimeout()*1000L);
+			CompletableFuture<Boolean> future=request
+					.whenComplete((result, error) -> {
+						if(usesQuota) {
+							quota.release(result, error);
+						}else {
+							quota.recordCompletion();
+						}
+						inFlight.release();
+					})
+					.thenApplyAsync(result -> {
+						boolean success=saveResults(result, title, cal);
+						result.getTimings().record(title);
+						return success;
+					}, saver)
+					.exceptionally(error -> {
+						IJ.log(title+": "+(error.getCause()!=null?error.getCause():error));
+						return false;
+					})
+					.whenComplete((success, error) -> {
+						if(success!=null && success) {
+							nSucceeded.incrementAndGet();
+						}else {
+							nFailed.incrementAndGet();
+						}
+						int done=nDone.incrementAndGet();
+						IJ.showProgress(done, nItems);
+						IJ.showStatus(quota.getProjection(nItems-done));
+					});
+			requests.add(request);
+			futures.add(future);
+		}
+		
+		if(IJ.escapePressed()) {
+			IJ.log("KymoButler batch: cancelled by user");
+			for(CompletableFuture<KymoButlerResult> request:requests) request.cancel(true);
+		}
+		
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get();
+		} catch (InterruptedException | ExecutionException | CancellationException e) {
+			//Failures have already been logged on a per kymograph basis
+		}
+		saver.shutdown();
+		
+		IJ.log("KymoButler batch: "+nSucceeded.get()+"/"+nItems+" kymograph(s) analysed in "+((System.currentTimeMillis()-start)/1000)+" sec");
+		if(quota.isLimited()) IJ.log("KymoButler batch: "+quota.getStatistics());
+		if(KymoButlerCache.isEnabled()) IJ.log("KymoButler batch: "+KymoButlerCache.getStatistics());
+		if(!KymoButlerTransport.getMode().equals(KymoButlerTransport.MODE_NETWORK)) IJ.log("KymoButler batch: "+KymoButlerTransport.getStatistics());
+		IJ.log("KymoButler batch: "+KymoButlerRetryPolicy.getStatistics());
+		for(String endpoint:KymoButlerEndpoints.getStatistics(URL).split("\n")) IJ.log("KymoButler batch: "+endpoint);
+		if(KymoButlerTimings.isEnabled()) {
+			KymoButlerTimings.saveTable(outputDir+"KymoButler_timings.csv");
+			KymoButlerTimings.showTable();
+		}
+		IJ.showStatus("KymoButler batch done");
+	}
+	
+	/**
+	 * Sorts the kymographs smallest first (file size in folder mode, number of pixels otherwise), so that as many
+	 * kymographs as possible are done early on, should the quota or the user stop the batch
+	 * @param items the kymographs to sort, either file names or image IDs
+	 */
+	private void sortBySize(ArrayList<String> items) {
+		final HashMap<String, Long> sizes=new HashMap<String, Long>();
+		for(String item:items) {
+			if(source.equals(SOURCE_FOLDER)) {
+				sizes.put(item, new File(inputDir+item).length());
+			}else {
+				ImagePlus ip=WindowManager.getImage(Integer.parseInt(item));
+				sizes.put(item, ip==null?0L:(long) ip.getWidth()*ip.getHeight());
+			}
+		}
+		
+		Collections.sort(items, new Comparator<String>() {
+			public int compare(String item1, String item2) {
+				return Long.compare(sizes.get(item1), sizes.get(item2));
+			}
+		});
+	}
+	
+	/**
+	 * Parses the response to a single kymograph, then saves the tracks and images to the output folder, named after the
+	 * kymograph's title, extension included, so that e.g. a.tif and a.png don't overwrite each other's results
+	 * @param result the server's response
+	 * @param title the title of the analysed kymograph
+	 * @param cal the calibration to apply to the kymograph and overlay
+	 * @return true if the analysis succeeded, false otherwise
+	 */
+	public boolean saveResults(KymoButlerResult result, String title, Calibration cal) {
+		String basename=title;
+		
+		if(!result.isJSON()) {
+			IJ.log(title+": the response doesn't seem to be properly formatted");
+			return false;
+		}
+		
+		if(debug && result.getResponse()!=null) kbio.saveResults(result.getResponse(), outputDir+basename+"_"+(new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date()))+"_debug_KymoButler.json");
+		
+		KymoButlerResponseParser pkr=result.getParser();
+		pkr.setOverlayType(overlayType);
+		
+		if(pkr.hasError()) {
+			IJ.log(title+": "+(pkr.hasMessages()?pkr.getMessages():"Undefined Error!"));
+			return false;
+		}
+		
+		int nTracks=pkr.saveTracks(simplifyTracks, outputDir+basename+"_tracks.zip");
+		if(saveKymo && pkr.hasKymograph()) IJ.saveAsTiff(pkr.getKymograph(cal), outputDir+basename+"_kymograph.tif");
+		if(saveOverlay && pkr.hasOverlay()) IJ.saveAsTiff(pkr.getOverlay(cal), outputDir+basename+"_overlay.tif");
+		
+		if(debug) IJ.log(title+": "+nTracks+" track(s) found, response received in "+result.getElapsedTime()/1000+" sec, kymograph uploaded as "
+				+result.getUploadFormat()+" ("+(result.getEncodedSize()/1024)+" kB, encoded in "+result.getEncodeTime()+" ms)");
+		
+		return nTracks!=-1;
+	}
+}
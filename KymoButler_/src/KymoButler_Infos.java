@@ -24,8 +24,12 @@
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import KymoButler.KymoButlerCache;
+import KymoButler.KymoButlerEndpoints;
 import KymoButler.KymoButlerIO;
 import KymoButler.KymoButlerResponseParser;
+import KymoButler.KymoButlerRetryPolicy;
+import KymoButler.KymoButlerTransport;
 import ij.IJ;
 import ij.Prefs;
 import ij.gui.GenericDialog;
@@ -49,7 +53,7 @@ public class KymoButler_Infos implements PlugIn{
 	/** Debug tag: true to save JSON in IJ installation folder **/
 	boolean debug=Prefs.get("KymoButler_debug.boolean", false);
 	
-
+	
 	@Override
 	public void run(String arg) {
 		if(KymoButlerIO.checkForLibraries()) {
@@ -72,6 +76,8 @@ public class KymoButler_Infos implements PlugIn{
 		
 		if(response==null) {
 			IJ.showStatus("Process cancelled, either by server or by user");
+			IJ.log(KymoButlerRetryPolicy.getStatistics());
+			IJ.log(KymoButlerEndpoints.getStatistics(URL));
 		}else {
 			if(KymoButlerResponseParser.isJSON(response)){
 				KymoButlerResponseParser pkr=new KymoButlerResponseParser(response);
@@ -79,6 +85,10 @@ public class KymoButler_Infos implements PlugIn{
 				if(pkr.hasVersion()) gd.addMessage("<html><b>API version: </b>"+pkr.getVersion()+"</html>");
 				if(pkr.hasKymographsLeft()) gd.addMessage("<html><b>Number of kymographs left: </b>"+pkr.getKymographsLeft()+"</html>");
 				if(pkr.hasMaxKymographs()) gd.addMessage("<html><b>Max. number of kymographs allowed: </b>"+pkr.getMaxKymographs()+"</html>");
+				gd.addMessage("<html><b>"+KymoButlerRetryPolicy.getStatistics()+"</b></html>");
+				for(String endpoint:KymoButlerEndpoints.getStatistics(URL).split("\n")) gd.addMessage("<html><b>"+endpoint+"</b></html>");
+				if(KymoButlerCache.isEnabled()) gd.addMessage("<html><b>"+KymoButlerCache.getStatistics()+"</b></html>");
+				if(!KymoButlerTransport.getMode().equals(KymoButlerTransport.MODE_NETWORK)) gd.addMessage("<html><b>"+KymoButlerTransport.getStatistics()+"</b></html>");
 				if(debug && pkr.hasMessages()) gd.addMessage("<html><b>Message from the API: </b>"+pkr.getMessages()+"</html>");
 				gd.showDialog();
 			}else {
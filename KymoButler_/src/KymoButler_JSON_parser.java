@@ -65,6 +65,9 @@ public class KymoButler_JSON_parser implements PlugIn{
 	/** Preferences: simplifyRois **/
 	boolean showOverlay=Prefs.get("KymoButler_showOverlay.boolean", true);
 	
+	/** Preferences: overlayType **/
+	String overlayType=Prefs.get("KymoButler_overlayType.string", KymoButlerResponseParser.OVERLAY_COMPOSITE);
+	
 	/** Debug tag: true to save JSON in IJ installation folder **/
 	boolean debug=Prefs.get("KymoButler_debug.boolean", false);
 	
@@ -159,6 +162,7 @@ public class KymoButler_JSON_parser implements PlugIn{
 		gd.addCheckbox("Clear manager before adding", clearManager);
 		gd.addCheckbox("Show_kymograph", showKymo);
 		gd.addCheckbox("Show_overlay", showOverlay);
+		gd.addChoice("Overlay_type", KymoButlerResponseParser.OVERLAY_TYPES, overlayType);
 		
 		gd.addHelp(helpMsg);
 		gd.showDialog();
@@ -169,6 +173,7 @@ public class KymoButler_JSON_parser implements PlugIn{
 			clearManager=gd.getNextBoolean();
 			showKymo=gd.getNextBoolean();
 			showOverlay=gd.getNextBoolean();
+			overlayType=gd.getNextChoice();
 			
 			storePreferences();
 			
@@ -185,6 +190,7 @@ public class KymoButler_JSON_parser implements PlugIn{
 		Prefs.set("KymoButler_clearManager.boolean", clearManager);
 		Prefs.set("KymoButler_showKymo.boolean", showKymo);
 		Prefs.set("KymoButler_showOverlay.boolean", showOverlay);
+		Prefs.set("KymoButler_overlayType.string", overlayType);
 	}
 	
 	/**
@@ -202,6 +208,7 @@ public class KymoButler_JSON_parser implements PlugIn{
 				}else {
 					if(KymoButlerResponseParser.isJSON(response)){
 						KymoButlerResponseParser pkr=new KymoButlerResponseParser(response);
+						pkr.setOverlayType(overlayType);
 						if(addToManager) pkr.pushRoisToRoiManager(simplifyTracks, clearManager);
 						if(showKymo) pkr.showKymograph(null);
 						if(showOverlay) pkr.showOverlay(null);
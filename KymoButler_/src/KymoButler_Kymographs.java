@@ -0,0 +1,273 @@
+/**
+*
+*  KymoButler_Kymographs.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import KymoButler.KymoButlerIO;
+import KymoButler.KymoButlerKymographBuilder;
+import KymoButler.KymoButlerResponseParser;
+import KymoButler.KymoButlerTiler;
+import KymoButler.KymoButlerTimings;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.WindowManager;
+import ij.gui.GenericDialog;
+import ij.gui.Roi;
+import ij.plugin.PlugIn;
+import ij.plugin.frame.RoiManager;
+
+/**
+ * This class is aimed at analysing a time-lapse movie straight from the line ROIs drawn on it: one kymograph is built
+ * along each line ROI of the RoiManager (or along the image's ROI), then the kymographs are sent to the KymoButler
+ * webservice, as many at a time as the server accepts, the others being sent as soon as a slot is freed. No intermediate
+ * file or window is needed: only the results are displayed, named after their ROI.
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class KymoButler_Kymographs implements PlugIn{
+	/** KymoButler API URL **/
+	String URL=Prefs.get("KymoButler_URL.string", "");
+	
+	/** The ImagePlus that is present at startup (or null) **/
+	ImagePlus ip=null;
+	
+	/** The line ROIs along which to build the kymographs **/
+	Roi[] rois=null;
+	
+	/** KymoButlerIO object: will handle all the analysis process **/
+	KymoButlerIO kbio=new KymoButlerIO();
+	
+	/** Preferences: lineWidth **/
+	int lineWidth=(int) Prefs.get("KymoButler_lineWidth.double", 1);
+	
+	/** Preferences: threshold **/
+	float p=(float) Prefs.get("KymoButler_p.double", kbio.getThreshold());
+	
+	/** Preferences: minimumSize **/
+	float minimumSize=(float) Prefs.get("KymoButler_minimumSize.double", kbio.getMinimumSize());
+	
+	/** Preferences: minimumFrames **/
+	float minimumFrames=(float) Prefs.get("KymoButler_minimumFrames.double", kbio.getMinimumFrames());
+	
+	/** Preferences: addToManager **/
+	boolean addToManager=Prefs.get("KymoButler_addToManager.boolean", true);
+	
+	/** Preferences: addToOverlay **/
+	boolean addToOverlay=Prefs.get("KymoButler_addToOverlay.boolean", false);
+	
+	/** Preferences: simplifyRois **/
+	boolean simplifyTracks=Prefs.get("KymoButler_simplifyTracks.boolean", true);
+	
+	/** Preferences: showKymo **/
+	boolean showKymo=Prefs.get("KymoButler_showKymo.boolean", true);
+	
+	/** Preferences: showOverlay **/
+	boolean showOverlay=Prefs.get("KymoButler_showOverlay.boolean", true);
+	
+	/** Preferences: overlayType **/
+	String overlayType=Prefs.get("KymoButler_overlayType.string", KymoButlerResponseParser.OVERLAY_COMPOSITE);
+	
+	/** Debug tag: true to save JSON in IJ installation folder **/
+	boolean debug=Prefs.get("KymoButler_debug.boolean", false);
+	
+	@Override
+	public void run(String arg) {
+		ip=WindowManager.getCurrentImage();
+		if(KymoButlerIO.checkForLibraries()) {
+			if(!URL.isEmpty()) {
+				if(ip!=null) {
+					rois=getLineRois();
+					if(rois.length!=0) {
+						showGUI();
+					}else {
+						IJ.showMessage("Nothing to do, please draw line ROIs on the movie and add them to the ROI Manager first");
+					}
+				}else {
+					IJ.showMessage("Nothing to do, please open a movie first");
+				}
+			}else {
+				IJ.showMessage("No URL found for the API: please set one under the KymoButler/Options menu");
+			}
+		}else {
+			IJ.showStatus("Installation of the required libraries needs to be done");
+		}
+	}
+	
+	/**
+	 * Returns the line ROIs of the RoiManager or, if it holds none, the image's ROI if it is a line. Tracks added by a
+	 * previous analysis are polylines too: they are skipped
+	 * @return the line ROIs, possibly an empty array
+	 */
+	Roi[] getLineRois() {
+		List<Roi> out=new ArrayList<Roi>();
+		
+		RoiManager rm=RoiManager.getInstance();
+		if(rm!=null) for(Roi roi:rm.getRoisAsArray()) if(roi.isLine() && !KymoButlerResponseParser.isTrack(roi)) out.add(roi);
+		
+		Roi roi=ip.getRoi();
+		if(out.isEmpty() && roi!=null && roi.isLine() && !KymoButlerResponseParser.isTrack(roi)) out.add(roi);
+		
+		return out.toArray(new Roi[0]);
+	}
+	
+	/**
+	 * Displays the GUI, stores the parameters and launches the analysis
+	 */
+	public void showGUI() {
+		GenericDialog gd=new GenericDialog("KymoButler for IJ by fabrice.cordelieres@gmail.com");
+		gd.addMessage("<html><b><u>Kymographs</u></b</html>");
+		gd.addMessage(rois.length+" line ROI(s), "+KymoButlerKymographBuilder.getNTimepoints(ip)+" timepoints");
+		gd.addNumericField("Line_width (default: 1 pixel)", lineWidth, 0);
+		
+		gd.addMessage("");
+		
+		gd.addMessage("<html><b><u>Parameters</u></b</html>");
+		gd.addNumericField("Threshold (default: 0.2)", p, 2);
+		gd.addNumericField("Minimum_size (default: 3)", minimumSize, 0);
+		gd.addNumericField("Minimum_frames (default: 3)", minimumFrames, 0);
+		
+		gd.addMessage("");
+		
+		gd.addMessage("<html><b><u>Output</u></b</html>");
+		gd.addCheckbox("Add to manager", addToManager);
+		gd.addCheckbox("Add_to_overlay", addToOverlay);
+		gd.addCheckbox("Simplify tracks", simplifyTracks);
+		gd.addCheckbox("Show_kymographs", showKymo);
+		gd.addCheckbox("Show_overlays", showOverlay);
+		gd.addChoice("Overlay_type", KymoButlerResponseParser.OVERLAY_TYPES, overlayType);
+		
+		gd.addMessage("<html><p style=\"color:#FF0000\";><b><u>Note</u></b>: By using this plugin, you agree your images<br>"
+													  + "will be pushed to the <b>KymoButler</b> server and might<br>"
+													  + "be used anonymously for software improvements</p></html>");
+		
+		gd.showDialog();
+		
+		if(gd.wasOKed()) {
+			lineWidth=Math.max(1, (int) gd.getNextNumber());
+			p=(float) gd.getNextNumber();
+			minimumSize=(float) gd.getNextNumber();
+			minimumFrames=(float) gd.getNextNumber();
+			
+			addToManager=gd.getNextBoolean();
+			addToOverlay=gd.getNextBoolean();
+			simplifyTracks=gd.getNextBoolean();
+			showKymo=gd.getNextBoolean();
+			showOverlay=gd.getNextBoolean();
+			overlayType=gd.getNextChoice();
+			
+			storePreferences();
+			
+			runAnalysis();
+		}
+	}
+	
+	/**
+	 * Stores preferences, based on the user input
+	 */
+	public void storePreferences() {
+		Prefs.set("KymoButler_lineWidth.double", lineWidth);
+		Prefs.set("KymoButler_p.double", p);
+		Prefs.set("KymoButler_minimumSize.double", minimumSize);
+		Prefs.set("KymoButler_minimumFrames.double", minimumFrames);
+		Prefs.set("KymoButler_addToManager.boolean", addToManager);
+		Prefs.set("KymoButler_addToOverlay.boolean", addToOverlay);
+		Prefs.set("KymoButler_simplifyTracks.boolean", simplifyTracks);
+		Prefs.set("KymoButler_showKymo.boolean", showKymo);
+		Prefs.set("KymoButler_showOverlay.boolean", showOverlay);
+		Prefs.set("KymoButler_overlayType.string", overlayType);
+	}
+	
+	/**
+	 * Builds the kymographs, launches their analysis and returns all images and ROIs, named after their source ROI. Tracks
+	 * are added to the RoiManager after the source ROIs, which are kept, and/or attached to the kymographs as an Overlay
+	 */
+	public void runAnalysis() {
+		if(showKymo || showOverlay || addToManager || addToOverlay) {
+			IJ.showStatus("Building "+rois.length+" kymograph(s)");
+			long start=System.nanoTime();
+			ImagePlus[] kymographs=KymoButlerKymographBuilder.build(ip, rois, lineWidth);
+			if(debug) IJ.log(rois.length+" kymograph(s) built in "+String.format("%.1f", KymoButlerTimings.since(start))+" ms");
+			
+			kbio.setThreshold(p);
+			kbio.setMinimumSize(minimumSize);
+			kbio.setMinimumFrames(minimumFrames);
+			kbio.setOverlayType(overlayType);
+			
+			boolean tiled=KymoButlerTiler.isTiled(KymoButlerKymographBuilder.getNTimepoints(ip));
+			KymoButlerResponseParser[] pkrs=kbio.getDecodedAnalysisResults(kymographs, tiled?KymoButlerTiler.getTileHeight():0, KymoButlerTiler.getOverlap());
+			
+			int nAnalysed=0;
+			for(int i=0; i<pkrs.length; i++) {
+				KymoButlerResponseParser pkr=pkrs[i];
+				String source=(String) kymographs[i].getProperty(KymoButlerKymographBuilder.SOURCE_PROPERTY);
+				
+				if(pkr==null) {
+					IJ.log(source+": process cancelled, either by server or by user");
+				}else {
+					if(pkr.hasError()) {
+						IJ.log(source+": "+(pkr.hasMessages()?pkr.getMessages():"Undefined Error!"));
+					}else {
+						pkr.setLabel(source);
+						if(addToManager) pkr.pushRoisToRoiManager(simplifyTracks, false);
+						if(showKymo || addToOverlay) {
+							//Tracks are attached to the kymograph returned by the server or, if not shown, to the one that was built
+							ImagePlus kymograph=showKymo?pkr.getKymograph():kymographs[i];
+							if(addToOverlay && kymograph!=null) pkr.addTracksToOverlay(kymograph, simplifyTracks, true);
+							show(kymograph, kymographs[i], "Kymograph_");
+						}
+						if(showOverlay) show(pkr.getOverlay(), kymographs[i], "Overlay_");
+						nAnalysed++;
+						
+						if(debug && pkr.hasSomethingToLog()) IJ.log(source+": "+pkr.getSomethingToLog());
+					}
+					
+					pkr.getTimings().record(ip.getTitle()+", "+source);
+					if(debug) IJ.log(source+", timings: "+pkr.getTimings());
+				}
+			}
+			
+			if(KymoButlerTimings.isEnabled()) KymoButlerTimings.showTable();
+			IJ.showStatus(nAnalysed+"/"+pkrs.length+" kymographs analysed");
+		}else {
+			IJ.showStatus("Nothing to do, please check at least one option");
+		}
+	}
+	
+	/**
+	 * Displays a result image, named after and calibrated as the kymograph it was computed from
+	 * @param image the image to display (nothing is done if null)
+	 * @param kymograph the kymograph the image was computed from
+	 * @param prefix the prefix of the image's title, followed by the source ROI's name
+	 */
+	void show(ImagePlus image, ImagePlus kymograph, String prefix) {
+		if(image!=null) {
+			String source=(String) kymograph.getProperty(KymoButlerKymographBuilder.SOURCE_PROPERTY);
+			image.setTitle(prefix+source);
+			image.setProperty(KymoButlerKymographBuilder.SOURCE_PROPERTY, source);
+			image.setCalibration(kymograph.getCalibration());
+			image.show();
+		}
+	}
+}
@@ -21,6 +21,18 @@
 *
 */
 
+import KymoButler.KymoButlerCache;
+import KymoButler.KymoButlerCircuitBreaker;
+import KymoButler.KymoButlerConcurrencyLimiter;
+import KymoButler.KymoButlerEndpoints;
+import KymoButler.KymoButlerHttpClient;
+import KymoButler.KymoButlerImageEncoder;
+import KymoButler.KymoButlerQuotaScheduler;
+import KymoButler.KymoButlerRetryPolicy;
+import KymoButler.KymoButlerTiler;
+import KymoButler.KymoButlerTimings;
+import KymoButler.KymoButlerTracks;
+import KymoButler.KymoButlerTransport;
 import ij.Prefs;
 import ij.gui.GenericDialog;
 import ij.plugin.PlugIn;
@@ -40,9 +52,69 @@ public class KymoButler_Options implements PlugIn{
 	/** KymoButler API URL **/
 	String URL=Prefs.get("KymoButler_URL.string", "");
 	
+	/** Additional API URLs, the analysis requests being spread over all endpoints **/
+	String additionalURLs=KymoButlerEndpoints.getAdditionalURLs();
+	
+	/** Interval between two health checks of the endpoints, in seconds **/
+	int healthCheck=KymoButlerEndpoints.getHealthCheckInterval();
+	
 	/** The server timout response (default: 2 minutes) **/
 	long timeOut=(long) Prefs.get("KymoButler_timeOut.double", 120000);
 	
+	/** Maximum number of simultaneous connections to the server **/
+	int maxPerRoute=KymoButlerHttpClient.getMaxPerRoute();
+	
+	/** Adapt the number of simultaneous analysis requests to the server's latency ? **/
+	boolean adaptiveConcurrency=KymoButlerConcurrencyLimiter.isAdaptive();
+	
+	/** Initial number of simultaneous analysis requests, when adaptive **/
+	int initialConcurrency=KymoButlerConcurrencyLimiter.getInitialLimit();
+	
+	/** Maximum number of retries of a failed request **/
+	int maxRetries=KymoButlerRetryPolicy.getMaxRetries();
+	
+	/** Base delay before retrying a failed request, in milliseconds **/
+	int retryDelay=KymoButlerRetryPolicy.getBaseDelay();
+	
+	/** Number of consecutive failures after which requests fail right away **/
+	int breakerThreshold=KymoButlerCircuitBreaker.getFailureThreshold();
+	
+	/** Time during which requests fail right away, in seconds **/
+	int breakerCooldown=KymoButlerCircuitBreaker.getCooldown();
+	
+	/** Interval between two checks of the quota while a batch is paused, in seconds **/
+	int quotaPoll=KymoButlerQuotaScheduler.getPollInterval();
+	
+	/** Format in which to upload the kymographs **/
+	String uploadFormat=Prefs.get("KymoButler_uploadFormat.string", KymoButlerImageEncoder.FORMAT_BMP);
+	
+	/** PNG compression level **/
+	int pngLevel=(int) Prefs.get("KymoButler_pngLevel.double", KymoButlerImageEncoder.DEFAULT_PNG_LEVEL);
+	
+	/** Use the on-disk cache of analysis results ? **/
+	boolean useCache=KymoButlerCache.isEnabled();
+	
+	/** Size cap of the on-disk cache, in MB **/
+	int cacheMaxSize=KymoButlerCache.getMaxSize();
+	
+	/** Height of the tiles long kymographs are split into, 0 to disable tiling **/
+	int tileHeight=KymoButlerTiler.getTileHeight();
+	
+	/** Overlap between two consecutive tiles **/
+	int tileOverlap=KymoButlerTiler.getOverlap();
+	
+	/** Maximum distance between a simplified track and the original one, 0 to only merge collinear points **/
+	double simplifyTolerance=KymoButlerTracks.getTolerance();
+	
+	/** Record the time spent on each phase of the requests in a ResultsTable ? **/
+	boolean recordTimings=KymoButlerTimings.isEnabled();
+	
+	/** Transport mode: network, record or replay **/
+	String transport=KymoButlerTransport.getMode();
+	
+	/** Folder in which the responses are recorded, empty for the default one **/
+	String recordingsDir=Prefs.get("KymoButler_recordingsDir.string", "");
+	
 	/** Debug tag: true to save JSON in IJ installation folder **/
 	boolean debug=Prefs.get("KymoButler_debug.boolean", false);
 	
@@ -54,14 +126,54 @@ public class KymoButler_Options implements PlugIn{
 		GenericDialog gd=new GenericDialog("KymoButler for IJ options by fabrice.cordelieres@gmail.com");
 		gd.addStringField("KymoButler_API_URL", useDefaultAPI?"":URL);
 		gd.addCheckbox("Use_default_API_?_(Limited_but_free)", useDefaultAPI);
+		gd.addStringField("Additional_API_URLs (comma separated)", additionalURLs, 30);
+		gd.addNumericField("Health_check_interval (default: "+KymoButlerEndpoints.DEFAULT_HEALTH_CHECK_INTERVAL+" sec)", healthCheck, 0);
 		gd.addNumericField("Server_timeout (default: 120 sec)", timeOut/1000, 0);
+		gd.addNumericField("Max_connections_to_server (default: "+KymoButlerHttpClient.DEFAULT_MAX_PER_ROUTE+")", maxPerRoute, 0);
+		gd.addCheckbox("Adaptive_concurrency (default: true)", adaptiveConcurrency);
+		gd.addNumericField("Initial_concurrency (default: "+KymoButlerConcurrencyLimiter.DEFAULT_INITIAL_LIMIT+")", initialConcurrency, 0);
+		gd.addNumericField("Max_retries (default: "+KymoButlerRetryPolicy.DEFAULT_MAX_RETRIES+")", maxRetries, 0);
+		gd.addNumericField("Retry_base_delay (default: "+KymoButlerRetryPolicy.DEFAULT_BASE_DELAY+" ms)", retryDelay, 0);
+		gd.addNumericField("Failures_before_suspending_requests (0 to disable, default: "+KymoButlerCircuitBreaker.DEFAULT_FAILURE_THRESHOLD+")", breakerThreshold, 0);
+		gd.addNumericField("Suspension_time (default: "+KymoButlerCircuitBreaker.DEFAULT_COOLDOWN+" sec)", breakerCooldown, 0);
+		gd.addNumericField("Quota_check_interval (default: "+KymoButlerQuotaScheduler.DEFAULT_POLL_INTERVAL+" sec)", quotaPoll, 0);
+		gd.addChoice("Upload_format (default: "+KymoButlerImageEncoder.FORMAT_BMP+")", KymoButlerImageEncoder.FORMATS, uploadFormat);
+		gd.addNumericField("PNG_compression_level (0-9, default: "+KymoButlerImageEncoder.DEFAULT_PNG_LEVEL+")", pngLevel, 0);
+		gd.addCheckbox("Cache_analysis_results (default: false)", useCache);
+		gd.addNumericField("Cache_size (default: "+KymoButlerCache.DEFAULT_MAX_SIZE+" MB)", cacheMaxSize, 0);
+		gd.addNumericField("Tile_height (0 to disable, default: "+KymoButlerTiler.DEFAULT_TILE_HEIGHT+" rows)", tileHeight, 0);
+		gd.addNumericField("Tile_overlap (default: "+KymoButlerTiler.DEFAULT_OVERLAP+" rows)", tileOverlap, 0);
+		gd.addNumericField("Simplification_tolerance (0 for exact, default: "+KymoButlerTracks.DEFAULT_TOLERANCE+" pixel)", simplifyTolerance, 2);
+		gd.addCheckbox("Record_timings (default: false)", recordTimings);
+		gd.addChoice("Transport (default: "+KymoButlerTransport.MODE_NETWORK+")", KymoButlerTransport.MODES, transport);
+		gd.addStringField("Recordings_folder (empty for default)", recordingsDir, 30);
 		gd.addCheckbox("Debug_mode (default: false)", debug);
 		gd.showDialog();
 		
 		if(gd.wasOKed()) {
 			URL=gd.getNextString();
 			useDefaultAPI=gd.getNextBoolean();
+			additionalURLs=gd.getNextString().trim();
+			healthCheck=(int) gd.getNextNumber();
 			timeOut=(long) (gd.getNextNumber()*1000);
+			maxPerRoute=(int) gd.getNextNumber();
+			adaptiveConcurrency=gd.getNextBoolean();
+			initialConcurrency=(int) gd.getNextNumber();
+			maxRetries=(int) gd.getNextNumber();
+			retryDelay=(int) gd.getNextNumber();
+			breakerThreshold=(int) gd.getNextNumber();
+			breakerCooldown=(int) gd.getNextNumber();
+			quotaPoll=(int) gd.getNextNumber();
+			uploadFormat=gd.getNextChoice();
+			pngLevel=(int) gd.getNextNumber();
+			useCache=gd.getNextBoolean();
+			cacheMaxSize=(int) gd.getNextNumber();
+			tileHeight=(int) gd.getNextNumber();
+			tileOverlap=(int) gd.getNextNumber();
+			simplifyTolerance=gd.getNextNumber();
+			recordTimings=gd.getNextBoolean();
+			transport=gd.getNextChoice();
+			recordingsDir=gd.getNextString().trim();
 			debug=gd.getNextBoolean();
 			
 			storePreferences();
@@ -75,7 +187,28 @@ public class KymoButler_Options implements PlugIn{
 		if(useDefaultAPI) URL=DEFAULT_API;
 		Prefs.set("KymoButler_URL.string", URL);
 		Prefs.set("KymoButler_useDefaultAPI.boolean", useDefaultAPI);
+		Prefs.set("KymoButler_additionalURLs.string", additionalURLs);
+		Prefs.set("KymoButler_healthCheck.double", Math.max(1, healthCheck));
+		KymoButlerEndpoints.stopHealthChecks();
 		Prefs.set("KymoButler_timeOut.double", timeOut);
+		KymoButlerHttpClient.setMaxPerRoute(maxPerRoute);
+		Prefs.set("KymoButler_adaptiveConcurrency.boolean", adaptiveConcurrency);
+		Prefs.set("KymoButler_initialConcurrency.double", Math.max(1, initialConcurrency));
+		Prefs.set("KymoButler_maxRetries.double", Math.max(0, maxRetries));
+		Prefs.set("KymoButler_retryDelay.double", Math.max(0, retryDelay));
+		Prefs.set("KymoButler_breakerThreshold.double", Math.max(0, breakerThreshold));
+		Prefs.set("KymoButler_breakerCooldown.double", Math.max(0, breakerCooldown));
+		Prefs.set("KymoButler_quotaPoll.double", Math.max(1, quotaPoll));
+		Prefs.set("KymoButler_uploadFormat.string", uploadFormat);
+		Prefs.set("KymoButler_pngLevel.double", Math.max(0, Math.min(9, pngLevel)));
+		KymoButlerCache.setEnabled(useCache);
+		KymoButlerCache.setMaxSize(cacheMaxSize);
+		KymoButlerTiler.setTileHeight(tileHeight);
+		KymoButlerTiler.setOverlap(tileOverlap);
+		KymoButlerTracks.setTolerance(simplifyTolerance);
+		Prefs.set("KymoButler_recordTimings.boolean", recordTimings);
+		KymoButlerTransport.setMode(transport);
+		Prefs.set("KymoButler_recordingsDir.string", recordingsDir);
 		Prefs.set("KymoButler_debug.boolean", debug);
 	}
 }
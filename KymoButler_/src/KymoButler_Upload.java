@@ -54,6 +54,20 @@ public class KymoButler_Upload implements PlugIn{
 	/** Debug tag: true to save JSON in IJ installation folder **/
 	boolean debug=Prefs.get("KymoButler_debug.boolean", false);
 	
+	/**
+	 * Builds a new KymoButler_Upload object, using its own KymoButlerIO object
+	 */
+	public KymoButler_Upload() {}
+	
+	/**
+	 * Builds a new KymoButler_Upload object, re-using an existing KymoButlerIO object, i.e. its URL and settings (connections
+	 * are pooled by KymoButlerHttpClient, whatever the KymoButlerIO object)
+	 * @param kbio the KymoButlerIO object to use for the upload
+	 */
+	public KymoButler_Upload(KymoButlerIO kbio) {
+		this.kbio=kbio;
+	}
+	
 	@Override
 	public void run(String arg) {
 		ip=WindowManager.getCurrentImage();
@@ -0,0 +1,139 @@
+/**
+*
+*  LoadTest.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import KymoButler.KymoButlerEndpoints;
+import KymoButler.KymoButlerFields;
+import KymoButler.KymoButlerIO;
+import KymoButler.KymoButlerTimings;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+/**
+ * This class pushes synthetic kymographs through KymoButlerIO, the same way the batch mode does, then reports the
+ * throughput and the latency percentiles. Requests are sent to a MockServer started for the test, unless the URL of a
+ * running server (e.g. a MockServer started on its own) is provided. The cache is not used so that all requests reach the
+ * server.
+ * Usage: LoadTest [nKymographs (default: 100)] [width (default: 500)] [height (default: 2000)] [nTracks (default: 100)]
+ * [latency, in ms (default: 500)] [capacity (default: 0, ie unlimited)] [URL (default: none, a MockServer is started)]
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class LoadTest {
+	
+	/**
+	 * Runs the load test
+	 * @param args optional number of kymographs, width, height, number of tracks, latency, capacity and URL
+	 * @throws Exception in case the mock server can't be started
+	 */
+	public static void main(String[] args) throws Exception {
+		int nKymographs=args.length>0?Integer.parseInt(args[0]):100;
+		int width=args.length>1?Integer.parseInt(args[1]):500;
+		int height=args.length>2?Integer.parseInt(args[2]):2000;
+		int nTracks=args.length>3?Integer.parseInt(args[3]):100;
+		int latency=args.length>4?Integer.parseInt(args[4]):500;
+		int capacity=args.length>5?Integer.parseInt(args[5]):0;
+		
+		MockServer server=null;
+		String URL;
+		if(args.length>6) {
+			URL=args[6];
+		}else {
+			server=new MockServer(0, width, height, nTracks, latency, capacity);
+			URL=server.getURL();
+			System.out.println("Mock server started at "+URL+": "+(server.getResponseSize()>>10)+" kB per response, "+latency+" ms latency, capacity "+(capacity>0?capacity:"unlimited"));
+		}
+		
+		KymoButlerIO io=new KymoButlerIO();
+		io.setURL(URL);
+		io.setUseCache(false);
+		
+		final long[] latencies=new long[nKymographs];
+		final AtomicInteger nFailed=new AtomicInteger();
+		final double[] phases=new double[KymoButlerTimings.PHASES.length];
+		CompletableFuture<?>[] futures=new CompletableFuture<?>[nKymographs];
+		
+		Random random=new Random(1);
+		long start=System.nanoTime();
+		for(int i=0; i<nKymographs; i++) {
+			//Each kymograph is different, as the server would otherwise see the same request over and over
+			byte[] pixels=new byte[width*height];
+			random.nextBytes(pixels);
+			io.setKymograph(new ImagePlus("Kymograph_"+i, new ByteProcessor(width, height, pixels)));
+			
+			final int index=i;
+			final long submitted=System.nanoTime();
+			futures[i]=io.submitDecodedAnalysis(io.getTimeout()*1000L).handle((result, error) -> {
+				latencies[index]=(System.nanoTime()-submitted)/1000000;
+				if(error!=null || result.getStatusCode()!=200 || result.getParser()==null || result.getParser().hasError()) {
+					nFailed.incrementAndGet();
+				}else {
+					synchronized(phases) {
+						for(int j=0; j<phases.length; j++) {
+							double value=result.getTimings().get(KymoButlerTimings.PHASES[j]);
+							if(!Double.isNaN(value)) phases[j]+=value;
+						}
+					}
+				}
+				return null;
+			});
+		}
+		CompletableFuture.allOf(futures).join();
+		double elapsed=(System.nanoTime()-start)/1e9;
+		
+		Arrays.sort(latencies);
+		int nSucceeded=nKymographs-nFailed.get();
+		System.out.println(String.format("%d kymographs (%dx%d pixels) in %.1f s: %d succeeded, %d failed", nKymographs, width, height, elapsed, nSucceeded, nFailed.get()));
+		System.out.println(String.format("Throughput: %.2f kymographs/s", nSucceeded/elapsed));
+		System.out.println(String.format("Latency: p50 %d ms, p95 %d ms, p99 %d ms, max %d ms", percentile(latencies, 50), percentile(latencies, 95), percentile(latencies, 99), latencies[nKymographs-1]));
+		if(nSucceeded>0) {
+			String means="";
+			for(int j=0; j<phases.length; j++) means+=(means.isEmpty()?"":", ")+KymoButlerTimings.PHASES[j]+": "+String.format("%.1f", phases[j]/nSucceeded);
+			System.out.println("Mean per kymograph: "+means);
+		}
+		System.out.println(KymoButlerEndpoints.getStatistics(URL));
+		
+		if(server!=null) {
+			System.out.println("Server: "+server.getNRequests(KymoButlerFields.QUERY_ANALYSIS_FIELD_TAG)+" analysis requests received, "+server.getNRejected()+" rejected as over capacity");
+			server.stop();
+		}
+		System.exit(0);
+	}
+	
+	/**
+	 * Returns the input percentile of sorted values (nearest rank method)
+	 * @param sorted the values, sorted in ascending order
+	 * @param percentile the percentile, between 0 and 100
+	 * @return the value at the input percentile
+	 */
+	static long percentile(long[] sorted, double percentile) {
+		int rank=(int) Math.ceil(percentile/100.0*sorted.length);
+		return sorted[Math.max(0, Math.min(sorted.length-1, rank-1))];
+	}
+}
@@ -0,0 +1,188 @@
+/**
+*
+*  MalformedResponseTest.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import KymoButler.KymoButlerJSONReader;
+import KymoButler.KymoButlerResponseParser;
+
+/**
+ * This class checks that malformed responses are rejected with a KymoButlerJSONReader.MalformedException, rather than
+ * being decoded as zeros or looping until the memory is exhausted, while well formed numbers are still decoded. Each
+ * malformed array is decoded both as an array of arrays of numbers, read straight from a KymoButlerJSONReader, and as a
+ * response, by a KymoButlerResponseParser; kymographs that are empty or whose rows differ in length are decoded as
+ * responses. An input that isn't rejected within a few seconds counts as a failure. The
+ * process exits with status 1 if any check fails.
+ * Usage: MalformedResponseTest
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class MalformedResponseTest {
+	/** Maximum time to decode an input, in seconds **/
+	static final int TIMEOUT=5;
+	
+	/** Arrays of arrays of numbers that are not JSON formatted **/
+	static final String[] MALFORMED_ARRAYS=new String[] {
+			"[[1,2],[3,x]]",
+			"[[1,NaN]]",
+			"[[1,-]]",
+			"[[1,2e]]",
+			"[[1,2e+]]"
+	};
+	
+	/** Responses that are JSON formatted, but whose kymograph is not a rectangular, non empty array of rows **/
+	static final String[] MALFORMED_RESPONSES=new String[] {
+			"{\"Kymograph\":[]}",
+			"{\"Kymograph\":[[]]}",
+			"{\"Kymograph\":[[1,2],[3]]}",
+			"{\"Kymograph\":[[1],[2,3]]}"
+	};
+	
+	/** Well formed array of arrays of numbers, and its values **/
+	static final String VALID_ARRAY="[[1,-2.5e3],[0.5,1E+2],[-0,7e-1]]";
+	
+	/** Values of the well formed array **/
+	static final double[] VALID_VALUES=new double[] {1, -2500, 0.5, 100, 0, 0.7};
+	
+	/** Executor decoding the inputs, so that a decoding stuck in a loop can be given up **/
+	static final ExecutorService executor=Executors.newCachedThreadPool(r -> {
+		Thread t=new Thread(r);
+		t.setDaemon(true);
+		return t;
+	});
+	
+	
+	
+	/**
+	 * Runs the checks
+	 * @param args not used
+	 */
+	public static void main(String[] args) {
+		int nFailed=0;
+		try {
+			double[] values=readArrays(VALID_ARRAY);
+			boolean same=values.length==VALID_VALUES.length;
+			for(int i=0; same && i<values.length; i++) same=Math.abs(values[i]-VALID_VALUES[i])<1e-9;
+			System.out.println((same?"OK   ":"FAIL ")+"Reader "+VALID_ARRAY+" decoded as "+Arrays.toString(values));
+			if(!same) nFailed++;
+		} catch (Exception e) {
+			System.out.println("FAIL Reader "+VALID_ARRAY+" failed: "+e);
+			nFailed++;
+		}
+		
+		for(String array:MALFORMED_ARRAYS) {
+			if(!check("Reader", array, () -> readArrays(array))) nFailed++;
+			String response="{\"Kymograph\":"+array+"}";
+			if(!check("Parser", response, () -> new KymoButlerResponseParser(toStream(response)))) nFailed++;
+		}
+		for(String response:MALFORMED_RESPONSES) {
+			if(!check("Parser", response, () -> new KymoButlerResponseParser(toStream(response)))) nFailed++;
+		}
+		
+		System.out.println(nFailed==0?"All malformed inputs rejected":nFailed+" malformed input(s) not rejected");
+		System.exit(nFailed==0?0:1);
+	}
+	
+	/**
+	 * Decodes the input, expecting it to be rejected as malformed
+	 * @param decoder the name of the decoder, for display purpose
+	 * @param input the input, for display purpose
+	 * @param decoding the decoding of the input
+	 * @return true if the input was rejected as malformed
+	 */
+	static boolean check(String decoder, String input, Decoding decoding) {
+		Future<?> future=executor.submit(() -> {
+			decoding.run();
+			return null;
+		});
+		
+		String outcome;
+		boolean rejected=false;
+		try {
+			future.get(TIMEOUT, TimeUnit.SECONDS);
+			outcome="decoded without error";
+		} catch (TimeoutException e) {
+			future.cancel(true);
+			outcome="not decoded after "+TIMEOUT+" sec";
+		} catch (Exception e) {
+			Throwable cause=e.getCause()!=null?e.getCause():e;
+			rejected=cause instanceof KymoButlerJSONReader.MalformedException;
+			outcome=(rejected?"rejected: ":"failed: ")+cause;
+		}
+		
+		System.out.println((rejected?"OK   ":"FAIL ")+decoder+" "+input+" "+outcome);
+		return rejected;
+	}
+	
+	/**
+	 * Reads the input as an array of arrays of numbers
+	 * @param input the input
+	 * @return the numbers, row by row
+	 * @throws Exception in case the input can't be read
+	 */
+	static double[] readArrays(String input) throws Exception {
+		KymoButlerJSONReader reader=new KymoButlerJSONReader(toStream(input));
+		ArrayList<Double> values=new ArrayList<Double>();
+		reader.beginArray();
+		while(reader.hasNext()) {
+			reader.beginArray();
+			while(reader.hasNext()) values.add(reader.nextDouble());
+			reader.endArray();
+		}
+		reader.endArray();
+		
+		double[] out=new double[values.size()];
+		for(int i=0; i<out.length; i++) out[i]=values.get(i);
+		return out;
+	}
+	
+	/**
+	 * Converts the input to a stream of UTF-8 bytes
+	 * @param input the input
+	 * @return the stream
+	 */
+	static ByteArrayInputStream toStream(String input) {
+		return new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	/**
+	 * The decoding of an input
+	 */
+	interface Decoding {
+		/**
+		 * Decodes the input
+		 * @throws Exception in case the input can't be decoded
+		 */
+		void run() throws Exception;
+	}
+}
@@ -0,0 +1,308 @@
+/**
+*
+*  MockServer.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import KymoButler.KymoButlerFields;
+
+/**
+ * This class is a local stand-in for the KymoButler webapp, to be used for load testing without consuming the public
+ * API's quota. It speaks the same multipart protocol (query=analysis|upload|stats, fields from KymoButlerFields) and
+ * answers analysis requests with a synthetic response (see SyntheticResponse) of configurable size, after a configurable
+ * latency. Analysis requests above the server's capacity are rejected with HTTP 503, as an overloaded server would do.
+ * Usage: MockServer [port (default: 8080)] [width (default: 500)] [height (default: 2000)] [nTracks (default: 100)]
+ * [latency, in ms (default: 500)] [capacity (default: 0, ie unlimited)]
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class MockServer {
+	/** Extracts the boundary from the request's Content-Type header **/
+	private static final Pattern BOUNDARY=Pattern.compile("boundary=\"?([^\";]+)\"?");
+	
+	/** Extracts the field's name from a part's Content-Disposition header **/
+	private static final Pattern FIELD_NAME=Pattern.compile("name=\"([^\"]*)\"");
+	
+	/** The underlying HTTP server **/
+	HttpServer server;
+	
+	/** Executor handling the requests: one thread per request, so that latency doesn't limit the concurrency **/
+	ExecutorService executor;
+	
+	/** The analysis response, built once as it is the same for all requests **/
+	byte[] analysisResponse;
+	
+	/** Latency added before answering an analysis request, in milliseconds **/
+	int latency;
+	
+	/** Maximum number of analysis requests processed simultaneously, 0 for unlimited **/
+	int capacity;
+	
+	/** Number of kymographs the API may still analyse **/
+	AtomicInteger kymographsLeft;
+	
+	/** Total number of kymographs the API may analyse **/
+	int maxKymographs;
+	
+	/** Number of analysis requests being processed **/
+	AtomicInteger inFlight=new AtomicInteger();
+	
+	/** Number of requests received, per query type **/
+	Map<String, AtomicInteger> nRequests=new HashMap<String, AtomicInteger>();
+	
+	/** Number of analysis requests rejected because the server was over capacity **/
+	AtomicInteger nRejected=new AtomicInteger();
+	
+	
+	
+	/**
+	 * Builds and starts a new mock server
+	 * @param port the port to listen on, 0 to pick any free port
+	 * @param width width of the synthetic kymograph (ie number of positions)
+	 * @param height height of the synthetic kymograph (ie number of timepoints)
+	 * @param nTracks number of synthetic tracks
+	 * @param latency latency added before answering an analysis request, in milliseconds. The actual latency is drawn
+	 * between half and one and a half this value
+	 * @param capacity maximum number of analysis requests processed simultaneously, 0 for unlimited
+	 * @throws IOException in case the server can't be started
+	 */
+	public MockServer(int port, int width, int height, int nTracks, int latency, int capacity) throws IOException {
+		this.analysisResponse=new SyntheticResponse(width, height, nTracks, 1).build().getBytes(StandardCharsets.UTF_8);
+		this.latency=latency;
+		this.capacity=capacity;
+		this.maxKymographs=Integer.MAX_VALUE;
+		this.kymographsLeft=new AtomicInteger(maxKymographs);
+		
+		nRequests.put(KymoButlerFields.QUERY_ANALYSIS_FIELD_TAG, new AtomicInteger());
+		nRequests.put(KymoButlerFields.QUERY_UPLOAD_FIELD_TAG, new AtomicInteger());
+		nRequests.put(KymoButlerFields.QUERY_STATS_FIELD_TAG, new AtomicInteger());
+		
+		server=HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		executor=Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					MockServer.this.handle(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		server.start();
+	}
+	
+	/**
+	 * Sets the quota of the API, as reported by the stats query: analysis requests are answered with an error once it is reached
+	 * @param maxKymographs the total number of kymographs the API may analyse
+	 */
+	public void setQuota(int maxKymographs) {
+		this.maxKymographs=maxKymographs;
+		kymographsLeft.set(maxKymographs);
+	}
+	
+	/**
+	 * Returns the URL of the server, to be used as the KymoButler API URL
+	 * @return the URL of the server
+	 */
+	public String getURL() {
+		return "http://localhost:"+server.getAddress().getPort()+"/";
+	}
+	
+	/**
+	 * Returns the size of the analysis response
+	 * @return the size of the analysis response, in bytes
+	 */
+	public int getResponseSize() {
+		return analysisResponse.length;
+	}
+	
+	/**
+	 * Returns the number of requests received for the input query type
+	 * @param query the query type, one of KymoButlerFields.QUERY_XXX_FIELD_TAG
+	 * @return the number of requests received
+	 */
+	public int getNRequests(String query) {
+		return nRequests.get(query).get();
+	}
+	
+	/**
+	 * Returns the number of analysis requests rejected because the server was over capacity
+	 * @return the number of rejected requests
+	 */
+	public int getNRejected() {
+		return nRejected.get();
+	}
+	
+	/**
+	 * Stops the server
+	 */
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Answers a request, depending on its query field
+	 * @param exchange the request/response exchange
+	 * @throws IOException in case the request can't be read or the response can't be sent
+	 */
+	void handle(HttpExchange exchange) throws IOException {
+		Map<String, String> fields=readFields(exchange);
+		String query=fields.get(KymoButlerFields.QUERY_FIELD_TAG);
+		
+		if(query==null || !nRequests.containsKey(query)) {
+			send(exchange, 400, error("Unknown query: "+query));
+			return;
+		}
+		nRequests.get(query).incrementAndGet();
+		
+		if(query.equals(KymoButlerFields.QUERY_STATS_FIELD_TAG)) {
+			send(exchange, 200, ("{\""+KymoButlerFields.MAX_KYMOGRAPHS_FIELD_TAG+"\": "+maxKymographs
+					+", \""+KymoButlerFields.KYMOGRAPHS_LEFT_FIELD_TAG+"\": "+Math.max(0, kymographsLeft.get())
+					+", \""+KymoButlerFields.VERSION_FIELD_TAG+"\": \"mock\"}").getBytes(StandardCharsets.UTF_8));
+		}else if(!fields.containsKey(KymoButlerFields.KYMOGRAPH_FIELD_TAG)) {
+			send(exchange, 200, error("No kymograph provided"));
+		}else if(query.equals(KymoButlerFields.QUERY_UPLOAD_FIELD_TAG)) {
+			send(exchange, 200, ("{\""+KymoButlerFields.MESSAGES_FIELD_TAG+"\": \"Upload successful\"}").getBytes(StandardCharsets.UTF_8));
+		}else {
+			analyse(exchange);
+		}
+	}
+	
+	/**
+	 * Answers an analysis request with the synthetic response, after the configured latency, unless the server is over
+	 * capacity or the quota is reached
+	 * @param exchange the request/response exchange
+	 * @throws IOException in case the response can't be sent
+	 */
+	void analyse(HttpExchange exchange) throws IOException {
+		try {
+			if(inFlight.incrementAndGet()>capacity && capacity>0) {
+				nRejected.incrementAndGet();
+				exchange.getResponseHeaders().add("Retry-After", "1");
+				send(exchange, 503, error("Server overloaded"));
+				return;
+			}
+			
+			if(kymographsLeft.getAndDecrement()<=0) {
+				send(exchange, 200, error("The maximum number of kymographs has been reached"));
+				return;
+			}
+			
+			if(latency>0) Thread.sleep(latency/2+ThreadLocalRandom.current().nextInt(latency+1));
+			send(exchange, 200, analysisResponse);
+		} catch (InterruptedException e) {
+			//Server stopped
+		} finally {
+			inFlight.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Reads the fields of the multipart request. Only the query and numerical fields' values are meaningful: binary fields
+	 * are mapped to their raw content, decoded as ISO-8859-1
+	 * @param exchange the request/response exchange
+	 * @return the fields, mapped by name
+	 * @throws IOException in case the request can't be read
+	 */
+	static Map<String, String> readFields(HttpExchange exchange) throws IOException {
+		Map<String, String> fields=new HashMap<String, String>();
+		
+		String contentType=exchange.getRequestHeaders().getFirst("Content-Type");
+		Matcher boundary=BOUNDARY.matcher(contentType==null?"":contentType);
+		if(!boundary.find()) return fields;
+		
+		//ISO-8859-1 maps each byte to a single char, keeping binary parts' length
+		String body=new String(IOUtils.toByteArray(exchange.getRequestBody()), StandardCharsets.ISO_8859_1);
+		for(String part:body.split("(\r\n)?--"+Pattern.quote(boundary.group(1)))) {
+			int headersEnd=part.indexOf("\r\n\r\n");
+			if(headersEnd==-1) continue;
+			
+			Matcher name=FIELD_NAME.matcher(part.substring(0, headersEnd));
+			if(name.find()) fields.put(name.group(1), part.substring(headersEnd+4));
+		}
+		
+		return fields;
+	}
+	
+	/**
+	 * Builds an error response
+	 * @param message the error message
+	 * @return the error response, as UTF-8 bytes
+	 */
+	static byte[] error(String message) {
+		return ("{\""+KymoButlerFields.ERROR_FIELD_TAG+"\": \""+message+"\"}").getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Sends a JSON response
+	 * @param exchange the request/response exchange
+	 * @param statusCode the HTTP status code
+	 * @param content the response's body
+	 * @throws IOException in case the response can't be sent
+	 */
+	static void send(HttpExchange exchange, int statusCode, byte[] content) throws IOException {
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(statusCode, content.length);
+		OutputStream out=exchange.getResponseBody();
+		out.write(content);
+		out.close();
+	}
+	
+	/**
+	 * Starts a mock server, running until the process is killed
+	 * @param args optional port, width, height, number of tracks, latency and capacity
+	 * @throws IOException in case the server can't be started
+	 */
+	public static void main(String[] args) throws IOException {
+		int port=args.length>0?Integer.parseInt(args[0]):8080;
+		int width=args.length>1?Integer.parseInt(args[1]):500;
+		int height=args.length>2?Integer.parseInt(args[2]):2000;
+		int nTracks=args.length>3?Integer.parseInt(args[3]):100;
+		int latency=args.length>4?Integer.parseInt(args[4]):500;
+		int capacity=args.length>5?Integer.parseInt(args[5]):0;
+		
+		MockServer server=new MockServer(port, width, height, nTracks, latency, capacity);
+		System.out.println("Mock KymoButler server listening at "+server.getURL()+": "+width+"x"+height+" pixels, "+nTracks+" tracks ("
+				+(server.getResponseSize()>>10)+" kB per response), "+latency+" ms latency, capacity "+(capacity>0?capacity:"unlimited"));
+	}
+}
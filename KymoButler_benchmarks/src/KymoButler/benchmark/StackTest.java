@@ -0,0 +1,124 @@
+/**
+*
+*  StackTest.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler.benchmark;
+
+import java.util.Random;
+
+import KymoButler.KymoButlerConcurrencyLimiter;
+import KymoButler.KymoButlerEndpoints;
+import KymoButler.KymoButlerFields;
+import KymoButler.KymoButlerIO;
+import KymoButler.KymoButlerKymographBuilder;
+import KymoButler.KymoButlerResponseParser;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.Line;
+import ij.gui.Roi;
+import ij.process.ByteProcessor;
+
+/**
+ * This class checks that more kymographs than the server accepts simultaneously are analysed as a whole, every kymograph
+ * getting a response within the timeout however long it waits for its turn. The kymographs are either the slices of a
+ * stack, pushed through KymoButlerIO.getStackAnalysisResults the way the Analyze plugin does, or built along line ROIs
+ * drawn on a movie, then pushed through KymoButlerIO.getDecodedAnalysisResults the way the Kymographs plugin does. They
+ * are sent to a MockServer started for the test. The process exits with status 1 if any kymograph is missing. The cache
+ * is not used so that all requests reach the server.
+ * Usage: StackTest [nKymographs (default: 16)] [width (default: 100)] [height (default: 100)] [nTracks (default: 5)]
+ * [latency, in ms (default: 2000)] [timeout, in sec (default: 6)] [source, stack or lines (default: stack)]
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class StackTest {
+	
+	/**
+	 * Runs the test
+	 * @param args optional number of kymographs, width, height, number of tracks, latency, timeout and source
+	 * @throws Exception in case the mock server can't be started
+	 */
+	public static void main(String[] args) throws Exception {
+		int nKymographs=args.length>0?Integer.parseInt(args[0]):16;
+		int width=args.length>1?Integer.parseInt(args[1]):100;
+		int height=args.length>2?Integer.parseInt(args[2]):100;
+		int nTracks=args.length>3?Integer.parseInt(args[3]):5;
+		int latency=args.length>4?Integer.parseInt(args[4]):2000;
+		int timeOut=args.length>5?Integer.parseInt(args[5]):6;
+		boolean lines=args.length>6 && args[6].equals("lines");
+		
+		MockServer server=new MockServer(0, width, height, nTracks, latency, 0);
+		String URL=server.getURL();
+		System.out.println("Mock server started at "+URL+": "+latency+" ms latency, "+nKymographs+(lines?" lines":" slices")+" for at most "
+				+KymoButlerConcurrencyLimiter.getMaxLimit()+" simultaneous requests, "+timeOut+" sec timeout");
+		
+		KymoButlerIO io=new KymoButlerIO();
+		io.setURL(URL);
+		io.setUseCache(false);
+		io.setTimeout(timeOut);
+		
+		long start=System.nanoTime();
+		KymoButlerResponseParser[] results;
+		if(lines) {
+			//One horizontal line per kymograph, on a movie having one timepoint per row of the kymographs
+			ImagePlus movie=new ImagePlus("Movie", buildStack(width, 2*nKymographs, height));
+			Roi[] rois=new Roi[nKymographs];
+			for(int i=0; i<nKymographs; i++) rois[i]=new Line(0, 2*i+1, width-1, 2*i+1);
+			results=io.getDecodedAnalysisResults(KymoButlerKymographBuilder.build(movie, rois, 1), 0, 0);
+		}else {
+			results=io.getStackAnalysisResults(new ImagePlus("Stack", buildStack(width, height, nKymographs)), 0, 0);
+		}
+		double elapsed=(System.nanoTime()-start)/1e9;
+		
+		int nMissing=0;
+		for(int i=0; i<results.length; i++) {
+			if(results[i]==null || results[i].hasError() || !results[i].hasKymograph()) {
+				System.out.println((lines?"Line ":"Slice ")+(i+1)+": no result");
+				nMissing++;
+			}
+		}
+		
+		System.out.println(String.format("%d kymographs in %.1f s: %d analysed, %d missing", nKymographs, elapsed, nKymographs-nMissing, nMissing));
+		System.out.println(KymoButlerEndpoints.getStatistics(URL));
+		System.out.println("Server: "+server.getNRequests(KymoButlerFields.QUERY_ANALYSIS_FIELD_TAG)+" analysis requests received");
+		server.stop();
+		System.exit(nMissing==0?0:1);
+	}
+	
+	/**
+	 * Builds a stack of random pixels
+	 * @param width the width of the slices
+	 * @param height the height of the slices
+	 * @param nSlices the number of slices
+	 * @return the stack
+	 */
+	static ImageStack buildStack(int width, int height, int nSlices) {
+		ImageStack stack=new ImageStack(width, height);
+		Random random=new Random(1);
+		for(int i=0; i<nSlices; i++) {
+			//Each slice is different, as the server would otherwise see the same request over and over
+			byte[] pixels=new byte[width*height];
+			random.nextBytes(pixels);
+			stack.addSlice(new ByteProcessor(width, height, pixels));
+		}
+		return stack;
+	}
+}
@@ -0,0 +1,164 @@
+/**
+*
+*  SyntheticResponse.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler.benchmark;
+
+import java.util.Random;
+
+import KymoButler.KymoButlerFields;
+
+/**
+ * This class builds synthetic KymoButler responses, formatted the same way as the server's ones, of configurable size
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+public class SyntheticResponse {
+	/** Kymograph width (ie number of positions) **/
+	int width;
+	
+	/** Kymograph height (ie number of timepoints) **/
+	int height;
+	
+	/** Number of tracks **/
+	int nTracks;
+	
+	/** Random numbers generator, seeded so that responses are reproducible **/
+	Random random;
+	
+	
+	
+	/**
+	 * Builds a new synthetic response generator
+	 * @param width kymograph width (ie number of positions)
+	 * @param height kymograph height (ie number of timepoints)
+	 * @param nTracks number of tracks
+	 * @param seed seed of the random numbers generator
+	 */
+	public SyntheticResponse(int width, int height, int nTracks, long seed) {
+		this.width=width;
+		this.height=height;
+		this.nTracks=nTracks;
+		this.random=new Random(seed);
+	}
+	
+	/**
+	 * Builds a full analysis response: kymograph, overlay, tracks and messages
+	 * @return the response, as a JSON formatted String
+	 */
+	public String build() {
+		StringBuilder sb=new StringBuilder((int) Math.min(Integer.MAX_VALUE-16, 80L*width*height));
+		sb.append("{\n\t\"").append(KymoButlerFields.KYMOGRAPH_FIELD_TAG).append("\": ");
+		appendKymograph(sb);
+		sb.append(",\n\t\"").append(KymoButlerFields.OVERLAY_FIELD_TAG).append("\": ");
+		appendOverlay(sb);
+		sb.append(",\n\t\"").append(KymoButlerFields.TRACKS_FIELD_TAG).append("\": ");
+		appendTracks(sb);
+		sb.append(",\n\t\"").append(KymoButlerFields.MESSAGES_FIELD_TAG).append("\": \"Synthetic response\"");
+		sb.append(",\n\t\"").append(KymoButlerFields.KYMOGRAPHS_LEFT_FIELD_TAG).append("\": 100");
+		sb.append(",\n\t\"").append(KymoButlerFields.VERSION_FIELD_TAG).append("\": \"synthetic\"\n}");
+		
+		return sb.toString();
+	}
+	
+	/**
+	 * Appends the kymograph field's content: one array of intensities (between 0 and 1) per timepoint
+	 * @param sb the StringBuilder to append the content to
+	 */
+	public void appendKymograph(StringBuilder sb) {
+		sb.append('[');
+		for(int y=0; y<height; y++) {
+			sb.append(y==0?"[":",[");
+			for(int x=0; x<width; x++) {
+				if(x!=0) sb.append(',');
+				sb.append(random.nextDouble());
+			}
+			sb.append(']');
+		}
+		sb.append(']');
+	}
+	
+	/**
+	 * Appends the overlay field's content: one array of RGB triplets (between 0 and 1) per timepoint
+	 * @param sb the StringBuilder to append the content to
+	 */
+	public void appendOverlay(StringBuilder sb) {
+		sb.append('[');
+		for(int y=0; y<height; y++) {
+			sb.append(y==0?"[":",[");
+			for(int x=0; x<width; x++) {
+				if(x!=0) sb.append(',');
+				double grey=random.nextDouble();
+				sb.append('[').append(grey).append(',').append(grey).append(',').append(random.nextInt(8)==0?1:grey).append(']');
+			}
+			sb.append(']');
+		}
+		sb.append(']');
+	}
+	
+	/**
+	 * Appends the tracks field's content: each track is an array of {t, x} pairs, one per timepoint, made of
+	 * segments of constant speed
+	 * @param sb the StringBuilder to append the content to
+	 */
+	public void appendTracks(StringBuilder sb) {
+		float[][][] tracks=buildTracks();
+		
+		sb.append('[');
+		for(int i=0; i<tracks.length; i++) {
+			sb.append(i==0?"[":",[");
+			for(int j=0; j<tracks[i][0].length; j++) {
+				if(j!=0) sb.append(',');
+				sb.append('[').append((int) tracks[i][0][j]).append(',').append(tracks[i][1][j]).append(']');
+			}
+			sb.append(']');
+		}
+		sb.append(']');
+	}
+	
+	/**
+	 * Builds the tracks' coordinates: each track is made of segments of constant speed, with one point per timepoint
+	 * @return the tracks' coordinates, as an array of [time, position] arrays, one per track
+	 */
+	public float[][][] buildTracks() {
+		float[][][] tracks=new float[nTracks][][];
+		
+		for(int i=0; i<nTracks; i++) {
+			int start=random.nextInt(Math.max(1, height/2));
+			int length=Math.max(2, random.nextInt(Math.max(2, height-start)));
+			float[] t=new float[length];
+			float[] x=new float[length];
+			
+			float position=random.nextFloat()*(width-1);
+			float speed=0;
+			for(int j=0; j<length; j++) {
+				if(j%10==0) speed=random.nextInt(5)==0?0:(random.nextFloat()-0.5f)*2;
+				position=Math.max(0, Math.min(width-1, position+speed));
+				t[j]=start+j;
+				x[j]=position;
+			}
+			tracks[i]=new float[][] {t, x};
+		}
+		
+		return tracks;
+	}
+}
@@ -0,0 +1,111 @@
+/**
+*
+*  EncodingBenchmarks.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler.benchmark.jmh;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import KymoButler.KymoButlerIO;
+import KymoButler.KymoButlerImageEncoder;
+import ij.ImagePlus;
+import ij.process.ByteProcessor;
+
+/**
+ * This class benchmarks KymoButlerIO.setKymograph, ie the encoding of a synthetic 8-bit kymograph of configurable size
+ * in the upload format (BMP or PNG).
+ * Usage (from the KymoButler_benchmarks folder):
+ * mvn package &amp;&amp; java -Djava.awt.headless=true -jar target/benchmarks.jar EncodingBenchmarks -p width=500 -p height=2000 -p format=PNG
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(value=1, jvmArgs={"-Xmx4g", "-Djava.awt.headless=true"})
+public class EncodingBenchmarks {
+	/** Kymograph width (ie number of positions) **/
+	@Param({"500"})
+	int width;
+	
+	/** Kymograph height (ie number of timepoints) **/
+	@Param({"2000"})
+	int height;
+	
+	/** Upload format **/
+	@Param({KymoButlerImageEncoder.FORMAT_BMP, KymoButlerImageEncoder.FORMAT_PNG})
+	String format;
+	
+	/** PNG compression level **/
+	@Param({"6"})
+	int pngLevel;
+	
+	/** The synthetic kymograph **/
+	ImagePlus kymograph;
+	
+	/** The IO object encoding the kymograph **/
+	KymoButlerIO io;
+	
+	
+	
+	/**
+	 * Builds the synthetic kymograph: noisy background crossed by brighter diagonal lines
+	 */
+	@Setup
+	public void setup() {
+		Random random=new Random(1);
+		byte[] pixels=new byte[width*height];
+		for(int y=0; y<height; y++) {
+			for(int x=0; x<width; x++) pixels[y*width+x]=(byte) (20+random.nextInt(30)+((x+y/4)%50==0?150:0));
+		}
+		kymograph=new ImagePlus("Kymograph", new ByteProcessor(width, height, pixels));
+		
+		io=new KymoButlerIO();
+		io.setUseCache(false);
+		io.setUploadFormat(format, pngLevel);
+	}
+	
+	/**
+	 * Encodes the kymograph in the upload format
+	 * @return the encoded size
+	 */
+	@Benchmark
+	public int setKymograph() {
+		io.setKymograph(kymograph);
+		return io.getEncodedSize();
+	}
+}
@@ -0,0 +1,179 @@
+/**
+*
+*  ParsingBenchmarks.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler.benchmark.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import KymoButler.KymoButlerResponseParser;
+import KymoButler.benchmark.SyntheticResponse;
+import ij.ImagePlus;
+import ij.gui.Roi;
+
+/**
+ * This class benchmarks the decoding of a synthetic response, of configurable size, by KymoButlerResponseParser: streamed
+ * decoding, then getKymograph, getOverlay and getTracks, both on a streamed parser and on a parser built from the
+ * response as a String (the debug mode path).
+ * Usage (from the KymoButler_benchmarks folder):
+ * mvn package &amp;&amp; java -Djava.awt.headless=true -jar target/benchmarks.jar ParsingBenchmarks -p width=500 -p height=2000 -p nTracks=100
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(value=1, jvmArgs={"-Xmx4g", "-Djava.awt.headless=true"})
+public class ParsingBenchmarks {
+	/** Kymograph width (ie number of positions) **/
+	@Param({"500"})
+	int width;
+	
+	/** Kymograph height (ie number of timepoints) **/
+	@Param({"2000"})
+	int height;
+	
+	/** Number of tracks **/
+	@Param({"100"})
+	int nTracks;
+	
+	/** Overlay type to decode and build **/
+	@Param({KymoButlerResponseParser.OVERLAY_COMPOSITE, KymoButlerResponseParser.OVERLAY_RGB, KymoButlerResponseParser.OVERLAY_LOCAL})
+	String overlayType;
+	
+	/** The synthetic response, as a String **/
+	String response;
+	
+	/** The synthetic response, as UTF-8 bytes **/
+	byte[] bytes;
+	
+	/** Parser holding the streamed response **/
+	KymoButlerResponseParser streamed;
+	
+	/** Parser holding the response as a JSON document **/
+	KymoButlerResponseParser json;
+	
+	
+	
+	/**
+	 * Builds the synthetic response and both parsers
+	 * @throws IOException in case the synthetic response can't be decoded
+	 */
+	@Setup
+	public void setup() throws IOException {
+		response=new SyntheticResponse(width, height, nTracks, 1).build();
+		bytes=response.getBytes(StandardCharsets.UTF_8);
+		streamed=new KymoButlerResponseParser(new ByteArrayInputStream(bytes), overlayType);
+		json=new KymoButlerResponseParser(response);
+		json.setOverlayType(overlayType);
+	}
+	
+	/**
+	 * Decodes the response from a stream
+	 * @return the parser
+	 * @throws IOException in case the response can't be decoded
+	 */
+	@Benchmark
+	public KymoButlerResponseParser streamDecode() throws IOException {
+		return new KymoButlerResponseParser(new ByteArrayInputStream(bytes), overlayType);
+	}
+	
+	/**
+	 * Builds the kymograph from the streamed response
+	 * @return the kymograph
+	 */
+	@Benchmark
+	public ImagePlus getKymograph() {
+		return streamed.getKymograph();
+	}
+	
+	/**
+	 * Builds the overlay from the streamed response
+	 * @return the overlay
+	 */
+	@Benchmark
+	public ImagePlus getOverlay() {
+		return streamed.getOverlay();
+	}
+	
+	/**
+	 * Builds the tracks from the streamed response
+	 * @return the tracks
+	 */
+	@Benchmark
+	public Roi[] getTracks() {
+		return streamed.getTracks(false);
+	}
+	
+	/**
+	 * Builds the simplified tracks from the streamed response
+	 * @return the simplified tracks
+	 */
+	@Benchmark
+	public Roi[] getSimplifiedTracks() {
+		return streamed.getTracks(true);
+	}
+	
+	/**
+	 * Builds the kymograph from the response held as a JSON document
+	 * @return the kymograph
+	 */
+	@Benchmark
+	public ImagePlus getKymographFromJSON() {
+		return json.getKymograph();
+	}
+	
+	/**
+	 * Builds the overlay from the response held as a JSON document
+	 * @return the overlay
+	 */
+	@Benchmark
+	public ImagePlus getOverlayFromJSON() {
+		return json.getOverlay();
+	}
+	
+	/**
+	 * Builds the tracks from the response held as a JSON document
+	 * @return the tracks
+	 */
+	@Benchmark
+	public Roi[] getTracksFromJSON() {
+		return json.getTracks(false);
+	}
+}
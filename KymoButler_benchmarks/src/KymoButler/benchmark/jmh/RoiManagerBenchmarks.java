@@ -0,0 +1,125 @@
+/**
+*
+*  RoiManagerBenchmarks.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler.benchmark.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import KymoButler.KymoButlerResponseParser;
+import KymoButler.benchmark.SyntheticResponse;
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.plugin.frame.RoiManager;
+
+/**
+ * This class benchmarks the insertion of synthetic tracks, of configurable number, into a displayed RoiManager: one at a
+ * time (as KymoButlerResponseParser.pushRoisToRoiManager used to) or in bulk (KymoButlerResponseParser.addToRoiManager).
+ * The RoiManager being a window, these benchmarks need a display: unlike the other benchmarks, they are not run headless.
+ * Usage (from the KymoButler_benchmarks folder):
+ * mvn package &amp;&amp; java -jar target/benchmarks.jar RoiManagerBenchmarks -p nTracks=1000,5000
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3)
+@Measurement(iterations=10)
+@Fork(value=1, jvmArgs={"-Xmx4g"})
+public class RoiManagerBenchmarks {
+	/** Number of tracks **/
+	@Param({"1000", "5000"})
+	int nTracks;
+	
+	/** Tracks, simplified, as pushed to the RoiManager **/
+	Roi[] tracks;
+	
+	/** The RoiManager, displayed **/
+	RoiManager rm;
+	
+	
+	
+	/**
+	 * Builds the synthetic tracks, decoding a synthetic response, and opens the RoiManager
+	 * @throws IOException in case the synthetic response can't be decoded
+	 */
+	@Setup
+	public void setup() throws IOException {
+		KymoButlerResponseParser parser=new KymoButlerResponseParser(new ByteArrayInputStream(new SyntheticResponse(500, 1000, nTracks, 1).build().getBytes(StandardCharsets.UTF_8)));
+		tracks=parser.getTracks(true);
+		rm=RoiManager.getRoiManager();
+	}
+	
+	/**
+	 * Empties the RoiManager before each insertion
+	 */
+	@Setup(Level.Invocation)
+	public void reset() {
+		rm.reset();
+	}
+	
+	/**
+	 * Closes the RoiManager
+	 */
+	@TearDown
+	public void close() {
+		rm.close();
+	}
+	
+	/**
+	 * Adds all tracks to the RoiManager, one at a time
+	 * @return the number of Rois in the RoiManager
+	 */
+	@Benchmark
+	public int addOneByOne() {
+		for(Roi roi:tracks) rm.add((ImagePlus) null, roi, -1);
+		return rm.getCount();
+	}
+	
+	/**
+	 * Adds all tracks to the RoiManager in bulk
+	 * @return the number of Rois in the RoiManager
+	 */
+	@Benchmark
+	public int addInBulk() {
+		KymoButlerResponseParser.addToRoiManager(rm, tracks);
+		return rm.getCount();
+	}
+}
@@ -0,0 +1,182 @@
+/**
+*
+*  TrackBenchmarks.java, 17 oct. 2026
+   KymoButler for ImageJ contributors
+
+   Copyright (C) 2026 KymoButler for ImageJ contributors
+
+   License:
+   This program is free software; you can redistribute it and/or modify
+   it under the terms of the GNU General Public License as published by
+   the Free Software Foundation; either version 3 of the License, or
+   (at your option) any later version.
+
+   This program is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+   GNU General Public License for more details.
+
+   You should have received a copy of the GNU General Public License
+   along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*
+*/
+
+package KymoButler.benchmark.jmh;
+
+import java.awt.Point;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import KymoButler.KymoButlerResponseParser;
+import KymoButler.KymoButlerTrackBody;
+import KymoButler.KymoButlerTracks;
+import KymoButler.benchmark.SyntheticResponse;
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import ij.process.FloatPolygon;
+
+/**
+ * This class benchmarks the processing of synthetic tracks, of configurable number and length: their simplification,
+ * either as Rois (KymoButlerResponseParser.simplifyTrack), as primitive arrays (KymoButlerTracks.simplify, with the
+ * tolerance as a parameter) or through the former rasterizing method (Roi.getContainedPoints, as a baseline), their
+ * conversion to Rois and their encoding for upload (KymoButlerTrackBody, which replaced KymoButlerIO.roiSetToJSON), both
+ * as a String and streamed.
+ * Usage (from the KymoButler_benchmarks folder):
+ * mvn package &amp;&amp; java -Djava.awt.headless=true -jar target/benchmarks.jar TrackBenchmarks -p nTracks=1000 -p length=2000 -p tolerance=0,1
+ * @author KymoButler for ImageJ contributors
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(value=1, jvmArgs={"-Xmx4g", "-Djava.awt.headless=true"})
+public class TrackBenchmarks {
+	/** Number of tracks **/
+	@Param({"1000"})
+	int nTracks;
+	
+	/** Kymograph height (ie number of timepoints), setting the tracks' maximum length **/
+	@Param({"2000"})
+	int length;
+	
+	/** Tolerance used to simplify the tracks, in pixels (0 to only merge collinear points) **/
+	@Param({"0", "1"})
+	double tolerance;
+	
+	/** Tracks, one point per timepoint, as returned by the server **/
+	Roi[] tracks;
+	
+	/** Tracks, as primitive arrays **/
+	KymoButlerTracks trackData;
+	
+	/** Parser used to simplify the tracks **/
+	KymoButlerResponseParser parser;
+	
+	
+	
+	/**
+	 * Builds the synthetic tracks, decoding a synthetic response
+	 * @throws IOException in case the synthetic response can't be decoded
+	 */
+	@Setup
+	public void setup() throws IOException {
+		parser=new KymoButlerResponseParser(new ByteArrayInputStream(new SyntheticResponse(500, length, nTracks, 1).build().getBytes(StandardCharsets.UTF_8)));
+		tracks=parser.getTracks(false);
+		trackData=parser.getTrackData(false);
+		KymoButlerTracks.setTolerance(tolerance);
+	}
+	
+	/**
+	 * Simplifies all tracks the way KymoButlerResponseParser.simplifyTrack used to: rasterizing the tracks to integer
+	 * pixels, then comparing the displacement between consecutive pixels
+	 * @return the simplified tracks
+	 */
+	@Benchmark
+	public Roi[] simplifyTracksRasterized() {
+		Roi[] out=new Roi[tracks.length];
+		for(int i=0; i<tracks.length; i++) {
+			Point[] points=tracks[i].getContainedPoints();
+			FloatPolygon polygon=new FloatPolygon();
+			
+			float deltaXOld=Float.NaN;
+			for(int j=0; j<points.length-1; j++) {
+				float deltaX=points[j].x-points[j+1].x;
+				if(deltaX!=deltaXOld) {
+					deltaXOld=deltaX;
+					polygon.addPoint(points[j].getX(), points[j].getY());
+				}
+			}
+			polygon.addPoint(points[points.length-1].getX(), points[points.length-1].getY());
+			
+			out[i]=new PolygonRoi(polygon, Roi.POLYLINE);
+		}
+		return out;
+	}
+	
+	/**
+	 * Simplifies all tracks
+	 * @return the simplified tracks
+	 */
+	@Benchmark
+	public Roi[] simplifyTracks() {
+		Roi[] out=new Roi[tracks.length];
+		for(int i=0; i<tracks.length; i++) out[i]=parser.simplifyTrack(tracks[i]);
+		return out;
+	}
+	
+	/**
+	 * Simplifies all tracks, as primitive arrays
+	 * @return the simplified tracks
+	 */
+	@Benchmark
+	public KymoButlerTracks simplifyTrackData() {
+		return trackData.simplify(tolerance);
+	}
+	
+	/**
+	 * Converts all tracks to Rois
+	 * @return the tracks' Rois
+	 */
+	@Benchmark
+	public Roi[] buildRois() {
+		return trackData.toRois();
+	}
+	
+	/**
+	 * Encodes all tracks as a String
+	 * @return the encoded tracks
+	 */
+	@Benchmark
+	public String encodeTracks() {
+		return new KymoButlerTrackBody(tracks).toString();
+	}
+	
+	/**
+	 * Encodes all tracks, streamed as the upload body would be
+	 * @return the encoded length
+	 * @throws IOException in case the tracks can't be written
+	 */
+	@Benchmark
+	public long streamTracks() throws IOException {
+		KymoButlerTrackBody body=new KymoButlerTrackBody(tracks);
+		body.writeTo(NullOutputStream.NULL_OUTPUT_STREAM);
+		return body.getContentLength();
+	}
+}